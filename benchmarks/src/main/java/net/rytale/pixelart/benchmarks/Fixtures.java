@@ -0,0 +1,76 @@
+package net.rytale.pixelart.benchmarks;
+
+import net.rytale.pixelart.layers.PixelBuffer;
+
+import java.util.Random;
+
+/**
+ * Deterministic test images shared by the benchmarks, so results stay comparable between runs.
+ */
+public final class Fixtures {
+    public static final int WALL = 0xFF000000;
+    private static final int[] PALETTE = {
+            0xFF1A1C2C, 0xFF5D275D, 0xFFB13E53, 0xFFEF7D57, 0xFFFFCD75, 0xFFA7F070, 0xFF38B764, 0xFF257179,
+            0xFF29366F, 0xFF3B5DC9, 0xFF41A6F6, 0xFF73EFF7, 0xFFF4F4F4, 0xFF94B0C2, 0xFF566C86, 0xFF333C57
+    };
+
+    private Fixtures() {
+    }
+
+    /**
+     * Walls on every odd column with a single gap alternating between the top and bottom row, so the
+     * open cells form one corridor that snakes across the whole buffer. The worst case for a span fill:
+     * every span is one cell wide and the fill has to turn around at every column.
+     */
+    public static PixelBuffer maze(int width, int height) {
+        PixelBuffer buffer = new PixelBuffer(width, height);
+        for (int x = 1; x < width; x += 2) {
+            int gap = (x / 2) % 2 == 0 ? height - 1 : 0;
+            for (int y = 0; y < height; y++) {
+                if (y != gap) {
+                    buffer.setPixel(x, y, WALL);
+                }
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Sprite-like content: overlapping blocks of palette colours over about half of the buffer, with
+     * scattered single-cell noise and transparent gaps, so tiles see a realistic mix of flat runs and detail.
+     */
+    public static PixelBuffer artwork(int width, int height, long seed) {
+        PixelBuffer buffer = new PixelBuffer(width, height);
+        Random random = new Random(seed);
+        int blocks = Math.max(4, width * height / 2048);
+        for (int i = 0; i < blocks; i++) {
+            int w = 2 + random.nextInt(Math.max(2, width / 16));
+            int h = 2 + random.nextInt(Math.max(2, height / 16));
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            int argb = PALETTE[random.nextInt(PALETTE.length)];
+            for (int row = y; row < Math.min(height, y + h); row++) {
+                buffer.fillSpan(row, x, Math.min(width, x + w) - 1, argb);
+            }
+        }
+        for (int i = width * height / 64; i > 0; i--) {
+            buffer.setPixel(random.nextInt(width), random.nextInt(height), PALETTE[random.nextInt(PALETTE.length)]);
+        }
+        return buffer;
+    }
+
+    // Cell coordinates packed as x, y pairs, spread over a width x height area
+    public static int[] randomCells(int count, int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] cells = new int[count * 2];
+        for (int i = 0; i < cells.length; i += 2) {
+            cells[i] = random.nextInt(width);
+            cells[i + 1] = random.nextInt(height);
+        }
+        return cells;
+    }
+
+    public static int paletteColor(int index) {
+        return PALETTE[Math.floorMod(index, PALETTE.length)];
+    }
+}
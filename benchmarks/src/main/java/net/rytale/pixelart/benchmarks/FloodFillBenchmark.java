@@ -0,0 +1,57 @@
+package net.rytale.pixelart.benchmarks;
+
+import net.rytale.pixelart.layers.PixelBuffer;
+import net.rytale.pixelart.layers.SpanList;
+import net.rytale.pixelart.tools.raster.FloodFill;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The region search behind the bucket fill tool, on an open canvas and on a one-cell-wide maze.
+ * Only the search is measured; committing the spans is the same batched write for any region shape.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FloodFillBenchmark {
+
+    @Param({"open", "maze"})
+    public String region;
+
+    @Param({"256", "1024"})
+    public int size;
+
+    @Param({"0", "32"})
+    public int tolerance;
+
+    private final FloodFill floodFill = new FloodFill();
+    private final SpanList spans = new SpanList();
+    private PixelBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        buffer = region.equals("maze") ? Fixtures.maze(size, size) : new PixelBuffer(size, size);
+        floodFill.setTolerance(tolerance);
+        floodFill.fill(buffer, 0, 0, spans); // Grow the reused stack and bitmask before measuring
+    }
+
+    @Benchmark
+    public long fill() {
+        floodFill.fill(buffer, 0, 0, spans);
+        return spans.cellCount();
+    }
+}
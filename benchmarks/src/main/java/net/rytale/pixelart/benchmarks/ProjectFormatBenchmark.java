@@ -0,0 +1,75 @@
+package net.rytale.pixelart.benchmarks;
+
+import net.rytale.pixelart.file.ProjectFile;
+import net.rytale.pixelart.file.ProjectFormat;
+import net.rytale.pixelart.layers.Layer;
+import net.rytale.pixelart.layers.LayerStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading a two-layer project at several canvas sizes, through the real file system.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectFormatBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    public int size;
+
+    private Path directory;
+    private Path saved;
+    private Path target;
+    private ProjectFile project;
+
+    @Setup
+    public void setUp() throws IOException {
+        LayerStack layers = new LayerStack(size, size, List.of(
+                new Layer("Background", Fixtures.artwork(size, size, 1)),
+                new Layer("Detail", Fixtures.artwork(size, size, 2))));
+        project = new ProjectFile(layers, 16, 0xFFFFFFFF);
+
+        directory = Files.createTempDirectory("pixelart-bench");
+        saved = directory.resolve("saved.rpxa");
+        target = directory.resolve("target.rpxa");
+        ProjectFormat.write(saved, project);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(saved);
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public Path save() throws IOException {
+        ProjectFormat.write(target, project);
+        return target;
+    }
+
+    @Benchmark
+    public ProjectFile load() throws IOException {
+        return ProjectFormat.read(saved);
+    }
+}
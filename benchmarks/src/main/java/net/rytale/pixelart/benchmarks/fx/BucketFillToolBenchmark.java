@@ -0,0 +1,66 @@
+package net.rytale.pixelart.benchmarks.fx;
+
+import javafx.scene.paint.Color;
+import net.rytale.pixelart.benchmarks.Fixtures;
+import net.rytale.pixelart.layers.Layer;
+import net.rytale.pixelart.layers.LayerStack;
+import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.tools.tool.BucketFillTool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bucket fill click from start to finish: region search, undo recording and the write to the canvas.
+ * The colour alternates so that every click repaints the whole region.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BucketFillToolBenchmark {
+
+    @Param({"open", "maze"})
+    public String region;
+
+    @Param({"256", "1024"})
+    public int size;
+
+    private PixelCanvas canvas;
+    private BucketFillTool tool;
+    private final Color[] colors = {Color.CORNFLOWERBLUE, Color.GOLD};
+    private int clicks;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        FxThread.start();
+        canvas = FxThread.createCanvas(size, size, 16);
+        if (region.equals("maze")) {
+            LayerStack maze = new LayerStack(size, size, List.of(new Layer("Maze", Fixtures.maze(size, size))));
+            FxThread.run(() -> canvas.loadDocument(maze, 16, Color.WHITE));
+        }
+        tool = FxThread.call(() -> new BucketFillTool(canvas, colors[0]));
+    }
+
+    @Benchmark
+    public void fill() {
+        FxThread.run(() -> {
+            tool.setColor(colors[clicks++ & 1]);
+            tool.onMousePressed(0, 0);
+            tool.onMouseReleased(0, 0);
+        });
+    }
+}
@@ -0,0 +1,83 @@
+package net.rytale.pixelart.benchmarks.fx;
+
+import javafx.scene.paint.Color;
+import net.rytale.pixelart.benchmarks.Fixtures;
+import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.utils.ColorUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-cell access through {@link PixelCanvas} and the grid redraw.
+ * <p>
+ * Pixel writes are batched into one edit of {@value #BATCH} cells, like a long pencil stroke; the
+ * repaint they schedule runs on the next pulse and is not part of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CanvasBenchmark {
+    private static final int BATCH = 4096;
+
+    @Param({"256", "1024"})
+    public int size;
+
+    private PixelCanvas canvas;
+    private int[] cells;
+    private final Color[] colors = new Color[16];
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        FxThread.start();
+        canvas = FxThread.createCanvas(size, size, 16);
+        cells = Fixtures.randomCells(BATCH, size, size, 3);
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = ColorUtils.toColor(Fixtures.paletteColor(i));
+        }
+        FxThread.run(() -> drawCells());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void drawPixel() {
+        FxThread.run(this::drawCells);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void getPixelColor(Blackhole blackhole) {
+        // Reads only the pixel model, so it does not need the application thread
+        for (int i = 0; i < cells.length; i += 2) {
+            blackhole.consume(canvas.getPixelColor(cells[i], cells[i + 1]));
+        }
+    }
+
+    @Benchmark
+    public void redrawGrid() {
+        FxThread.run(canvas::redrawGrid);
+    }
+
+    private void drawCells() {
+        canvas.beginEdit();
+        for (int i = 0; i < cells.length; i += 2) {
+            canvas.drawPixel(cells[i], cells[i + 1], colors[i & 15]);
+        }
+        canvas.endEdit();
+    }
+}
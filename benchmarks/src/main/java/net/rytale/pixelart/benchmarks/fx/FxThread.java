@@ -0,0 +1,66 @@
+package net.rytale.pixelart.benchmarks.fx;
+
+import javafx.application.Platform;
+import net.rytale.pixelart.layers.PixelCanvas;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs benchmark work on the JavaFX application thread, starting the toolkit on first use.
+ * <p>
+ * The canvas schedules its repaints with an animation timer, which may only be started from the
+ * application thread, so every call that changes a canvas has to go through here. Each hop costs a
+ * few microseconds, so benchmarks batch many operations into a single call.
+ */
+public final class FxThread {
+    // Viewport the canvases are laid out to, about what a maximised window shows
+    public static final double VIEW_WIDTH = 1280;
+    public static final double VIEW_HEIGHT = 800;
+
+    private static boolean started;
+
+    private FxThread() {
+    }
+
+    public static synchronized void start() throws InterruptedException {
+        if (!started) {
+            CountDownLatch ready = new CountDownLatch(1);
+            Platform.startup(ready::countDown);
+            ready.await();
+            Platform.setImplicitExit(false);
+            started = true;
+        }
+    }
+
+    // A canvas laid out to the benchmark viewport, as it would be inside the main window
+    public static PixelCanvas createCanvas(int width, int height, int gridSize) {
+        return call(() -> {
+            PixelCanvas canvas = new PixelCanvas(width, height, gridSize);
+            canvas.resize(VIEW_WIDTH, VIEW_HEIGHT);
+            return canvas;
+        });
+    }
+
+    public static void run(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public static <T> T call(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        Platform.runLater(future);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the JavaFX thread", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Benchmark task failed on the JavaFX thread", e.getCause());
+        }
+    }
+}
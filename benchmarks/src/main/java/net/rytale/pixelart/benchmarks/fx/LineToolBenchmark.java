@@ -0,0 +1,71 @@
+package net.rytale.pixelart.benchmarks.fx;
+
+import javafx.scene.paint.Color;
+import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.tools.tool.LineTool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A 400-cell diagonal line at each brush width, solid and dashed: the overlay preview shown while
+ * dragging and the final line committed on release.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineToolBenchmark {
+    private static final int SIZE = 512;
+    private static final int END_X = 400;
+    private static final int END_Y = 250;
+
+    @Param({"1", "3", "5", "7", "9"})
+    public int width;
+
+    @Param({"false", "true"})
+    public boolean dashed;
+
+    private LineTool tool;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        FxThread.start();
+        PixelCanvas canvas = FxThread.createCanvas(SIZE, SIZE, 16);
+        tool = FxThread.call(() -> {
+            LineTool lineTool = new LineTool(canvas, Color.BLACK);
+            lineTool.createOptionsPanel(); // The width setter updates the panel's controls
+            lineTool.setLineWidth(width);
+            lineTool.setDashed(dashed);
+            return lineTool;
+        });
+    }
+
+    @Benchmark
+    public void preview() {
+        FxThread.run(() -> {
+            tool.onMousePressed(8, 8);
+            tool.onMouseDragged(END_X, END_Y);
+        });
+    }
+
+    @Benchmark
+    public void drawFinal() {
+        FxThread.run(() -> {
+            tool.onMousePressed(8, 8);
+            tool.onMouseReleased(END_X, END_Y);
+        });
+    }
+}
@@ -0,0 +1,67 @@
+package net.rytale.pixelart.benchmarks.fx;
+
+import javafx.scene.paint.Color;
+import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.tools.tool.RectangleTool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Square rectangles in each of the three modes: the overlay preview shown while dragging and the
+ * final shape committed on release.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RectangleToolBenchmark {
+    private static final int START = 4;
+
+    @Param({"SOLID", "HOLLOW", "CUSTOM_FILL"})
+    public RectangleTool.FillMode mode;
+
+    @Param({"16", "128"})
+    public int size;
+
+    private RectangleTool tool;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        FxThread.start();
+        PixelCanvas canvas = FxThread.createCanvas(256, 256, 16);
+        tool = FxThread.call(() -> {
+            RectangleTool rectangleTool = new RectangleTool(canvas, Color.BLACK);
+            rectangleTool.setMode(mode);
+            return rectangleTool;
+        });
+    }
+
+    @Benchmark
+    public void preview() {
+        FxThread.run(() -> {
+            tool.onMousePressed(START, START);
+            tool.onMouseDragged(START + size - 1, START + size - 1);
+        });
+    }
+
+    @Benchmark
+    public void drawFinal() {
+        FxThread.run(() -> {
+            tool.onMousePressed(START, START);
+            tool.onMouseReleased(START + size - 1, START + size - 1);
+        });
+    }
+}
@@ -0,0 +1,144 @@
+package net.rytale.pixelart.cli;
+
+import net.rytale.pixelart.file.ImageImporter;
+import net.rytale.pixelart.file.ProjectFile;
+import net.rytale.pixelart.file.ProjectFormat;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless batch processing of project files, without the JavaFX toolkit.
+ * <p>
+ * Every input is loaded (binary projects, or images that become single-layer projects), has the
+ * operations applied in order and is processed on a fixed-size thread pool, one file per task.
+ * A line with the time spent on each file is printed as it completes, in input order.
+ * <pre>
+ * java -cp ... net.rytale.pixelart.cli.BatchCli -j 8 -o out --op replace:#FF0000,#00FF00 --op png:4 sprites/*.rpxa
+ * </pre>
+ */
+public class BatchCli {
+    private static final String USAGE = """
+            Usage: BatchCli [options] <file>...
+              -j, --threads N    Files processed in parallel (default: number of processors)
+              -o, --output DIR   Directory for written files (default: next to each input)
+              --op OPERATION     Operation to apply; repeat for several, applied in order:
+                  fill:X,Y,COLOR[,TOLERANCE]      Flood fill the active layer from (X, Y)
+                  replace:FROM,TO[,TOLERANCE]     Replace a color everywhere on the active layer
+                  resize:WIDTHxHEIGHT             Resize every layer, anchored top-left
+                  png[:SCALE]                     Export the visible layers as <name>.png
+                  spritesheet[:COLUMNS[,SCALE]]   Export every layer as a frame of <name>-sheet.png
+                  save                            Write the project to <name>.rpxa
+            Colors are #RRGGBB or #AARRGGBB. Inputs are .rpxa projects or images (PNG, GIF, BMP, ...).
+            """;
+
+    private final PrintStream out;
+    private final ImageImporter imageImporter = new ImageImporter();
+
+    public BatchCli(PrintStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true"); // Image decoding must not need a display either
+        System.exit(new BatchCli(System.out).run(args));
+    }
+
+    /**
+     * Runs a batch described by command line arguments.
+     *
+     * @return The process exit code: 0 if every file succeeded, 1 if any failed, 2 for invalid arguments.
+     */
+    public int run(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path outputDir = null;
+        List<Operation> operations = new ArrayList<>();
+        List<Path> inputs = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-j", "--threads" -> threads = Math.max(1, Integer.parseInt(args[++i]));
+                    case "-o", "--output" -> outputDir = Paths.get(args[++i]);
+                    case "--op" -> operations.add(Operation.parse(args[++i]));
+                    case "-h", "--help" -> {
+                        out.print(USAGE);
+                        return 0;
+                    }
+                    default -> inputs.add(Paths.get(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            out.println("Error: " + (e.getMessage() != null ? e.getMessage() : "missing argument"));
+            out.print(USAGE);
+            return 2;
+        }
+        if (inputs.isEmpty() || operations.isEmpty()) {
+            out.print(USAGE);
+            return 2;
+        }
+        if (outputDir != null) {
+            try {
+                Files.createDirectories(outputDir);
+            } catch (IOException e) {
+                out.println("Error: cannot create " + outputDir + ": " + e.getMessage());
+                return 2;
+            }
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        int failures = 0;
+        try {
+            List<Future<Long>> results = new ArrayList<>(inputs.size());
+            for (Path input : inputs) {
+                Path target = outputDir != null ? outputDir : input.toAbsolutePath().getParent();
+                results.add(pool.submit(() -> process(input, target, operations)));
+            }
+            for (int i = 0; i < inputs.size(); i++) {
+                try {
+                    long nanos = results.get(i).get();
+                    out.printf("%-40s %8.1f ms%n", inputs.get(i), nanos / 1e6);
+                } catch (ExecutionException e) {
+                    failures++;
+                    out.printf("%-40s FAILED: %s%n", inputs.get(i), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } finally {
+            pool.shutdownNow();
+        }
+
+        out.printf("%d file(s), %d failed, %d thread(s), %.1f ms total%n",
+                inputs.size(), failures, threads, (System.nanoTime() - start) / 1e6);
+        return failures == 0 ? 0 : 1;
+    }
+
+    // Load one file and apply every operation to it; returns the time taken in nanoseconds
+    private long process(Path input, Path outputDir, List<Operation> operations) throws IOException {
+        long start = System.nanoTime();
+        BatchJob job = new BatchJob(input, load(input), outputDir);
+        for (Operation operation : operations) {
+            operation.apply(job);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private ProjectFile load(Path input) throws IOException {
+        if (input.getFileName().toString().endsWith(".rpxa")) {
+            return ProjectFormat.read(input);
+        }
+        return imageImporter.importImage(input.toFile());
+    }
+}
@@ -0,0 +1,35 @@
+package net.rytale.pixelart.cli;
+
+import net.rytale.pixelart.file.ProjectFile;
+import net.rytale.pixelart.layers.LayerStack;
+
+import java.nio.file.Path;
+
+/**
+ * A project being processed by a batch run, with where its outputs go.
+ *
+ * @param input     The file the project was loaded from.
+ * @param project   The loaded project; operations edit it in place.
+ * @param outputDir Directory for files written by export and save operations.
+ */
+public record BatchJob(Path input, ProjectFile project, Path outputDir) {
+
+    public LayerStack layers() {
+        return project.layers();
+    }
+
+    /**
+     * Output path made of the input's base name and {@code suffix}. A name that would overwrite the
+     * input gets an "-out" infix instead.
+     */
+    public Path outputFile(String suffix) {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        Path output = outputDir.resolve(baseName + suffix);
+        if (output.toAbsolutePath().normalize().equals(input.toAbsolutePath().normalize())) {
+            output = outputDir.resolve(baseName + "-out" + suffix);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,142 @@
+package net.rytale.pixelart.cli;
+
+import net.rytale.pixelart.file.PngExporter;
+import net.rytale.pixelart.file.ProjectFormat;
+import net.rytale.pixelart.layers.LayerStack;
+import net.rytale.pixelart.layers.PixelBuffer;
+import net.rytale.pixelart.layers.SpanList;
+import net.rytale.pixelart.tools.raster.ColorReplace;
+import net.rytale.pixelart.tools.raster.FloodFill;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * One step of a batch run, applied to a loaded project. Pixel operations edit the active layer;
+ * export operations write files and leave the project unchanged.
+ */
+public interface Operation {
+
+    void apply(BatchJob job) throws IOException;
+
+    /**
+     * Parses an operation spec: a name, optionally followed by a colon and comma-separated arguments.
+     *
+     * @throws IllegalArgumentException If the spec is not a known operation or its arguments are invalid.
+     */
+    static Operation parse(String spec) {
+        int colon = spec.indexOf(':');
+        String name = colon < 0 ? spec : spec.substring(0, colon);
+        String[] args = colon < 0 ? new String[0] : spec.substring(colon + 1).split(",");
+        try {
+            return switch (name) {
+                case "fill" -> new Fill(Integer.parseInt(args[0]), Integer.parseInt(args[1]), parseColor(args[2]),
+                        args.length > 3 ? Integer.parseInt(args[3]) : 0);
+                case "replace" -> new Replace(parseColor(args[0]), parseColor(args[1]),
+                        args.length > 2 ? Integer.parseInt(args[2]) : 0);
+                case "resize" -> {
+                    String[] size = args[0].split("x");
+                    yield new Resize(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+                }
+                case "png" -> new ExportPng(args.length > 0 ? Integer.parseInt(args[0]) : 1);
+                case "spritesheet" -> new ExportSpritesheet(args.length > 0 ? Integer.parseInt(args[0]) : 0,
+                        args.length > 1 ? Integer.parseInt(args[1]) : 1);
+                case "save" -> new Save();
+                default -> throw new IllegalArgumentException("Unknown operation '" + name + "'");
+            };
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid arguments for '" + spec + "'", e);
+        }
+    }
+
+    // #RRGGBB (opaque) or #AARRGGBB
+    static int parseColor(String text) {
+        String hex = text.startsWith("#") ? text.substring(1) : text;
+        if (hex.length() == 6) {
+            return 0xFF000000 | Integer.parseInt(hex, 16);
+        }
+        if (hex.length() == 8) {
+            return Integer.parseUnsignedInt(hex, 16);
+        }
+        throw new NumberFormatException("Not a color: " + text);
+    }
+
+    // Flood fill the region around (x, y) on the active layer
+    record Fill(int x, int y, int argb, int tolerance) implements Operation {
+        @Override
+        public void apply(BatchJob job) {
+            PixelBuffer pixels = job.layers().getActiveLayer().getPixels();
+            FloodFill floodFill = new FloodFill();
+            floodFill.setTolerance(tolerance);
+            SpanList spans = new SpanList();
+            floodFill.fill(pixels, x, y, spans);
+            for (int i = 0; i < spans.size(); i++) {
+                pixels.fillSpan(spans.getY(i), spans.getStartX(i), spans.getEndX(i), argb);
+            }
+        }
+    }
+
+    // Swap one color for another across the active layer
+    record Replace(int from, int to, int tolerance) implements Operation {
+        private static final ColorReplace COLOR_REPLACE = new ColorReplace();
+
+        @Override
+        public void apply(BatchJob job) {
+            COLOR_REPLACE.replace(job.layers().getActiveLayer().getPixels(), from, to, tolerance);
+        }
+    }
+
+    // Resize every layer, keeping the content anchored top-left
+    record Resize(int width, int height) implements Operation {
+        @Override
+        public void apply(BatchJob job) {
+            job.layers().resize(width, height);
+        }
+    }
+
+    // The visible layers flattened to <name>.png, or <name>@<scale>x.png when scaled
+    record ExportPng(int scale) implements Operation {
+        @Override
+        public void apply(BatchJob job) throws IOException {
+            LayerStack layers = job.layers();
+            layers.invalidateCaches(); // Earlier operations may have changed any layer
+            layers.updateComposite(0, 0, layers.getWidth() - 1, layers.getHeight() - 1);
+            Path output = job.outputFile(scale > 1 ? "@" + scale + "x.png" : ".png");
+            new PngExporter().export(layers.getComposite(), scale, output);
+        }
+    }
+
+    // Every layer as one frame of a grid, bottom layer first, to <name>-sheet.png; 0 columns picks a square grid
+    record ExportSpritesheet(int columns, int scale) implements Operation {
+        @Override
+        public void apply(BatchJob job) throws IOException {
+            LayerStack layers = job.layers();
+            int frames = layers.size();
+            int width = layers.getWidth();
+            int height = layers.getHeight();
+            int sheetColumns = columns > 0 ? Math.min(columns, frames) : (int) Math.ceil(Math.sqrt(frames));
+            int sheetRows = (frames + sheetColumns - 1) / sheetColumns;
+
+            PixelBuffer sheet = new PixelBuffer(width * sheetColumns, height * sheetRows);
+            int[] row = new int[width];
+            for (int frame = 0; frame < frames; frame++) {
+                PixelBuffer pixels = layers.getLayer(frame).getPixels();
+                int originX = (frame % sheetColumns) * width;
+                int originY = (frame / sheetColumns) * height;
+                for (int y = 0; y < height; y++) {
+                    pixels.copyRegion(0, y, width, 1, row, 0, width);
+                    sheet.writeRegion(originX, originY + y, width, 1, row, 0, width);
+                }
+            }
+            new PngExporter().export(sheet, scale, job.outputFile("-sheet.png"));
+        }
+    }
+
+    // Write the project in the binary format to <name>.rpxa
+    record Save() implements Operation {
+        @Override
+        public void apply(BatchJob job) throws IOException {
+            ProjectFormat.write(job.outputFile(".rpxa"), job.project());
+        }
+    }
+}
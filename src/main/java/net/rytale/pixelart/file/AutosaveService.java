@@ -0,0 +1,391 @@
+package net.rytale.pixelart.file;
+
+import net.rytale.pixelart.history.PixelDelta;
+import net.rytale.pixelart.layers.BlendMode;
+import net.rytale.pixelart.layers.DocumentListener;
+import net.rytale.pixelart.tools.ToolLoader;
+import net.rytale.pixelart.utils.AppLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a crash-safe copy of the open document in the background.
+ * <p>
+ * The copy is a checkpoint in the regular project format plus an {@link EditJournal} of every edit
+ * committed since. Each checkpoint starts a new generation with its own journal; the previous pair is
+ * only deleted once both new files exist, so a crash at any point leaves a consistent pair behind. Each committed edit, undo or redo is appended to the journal and flushed to disk,
+ * so a crash loses at most the stroke in progress. Once the journal grows past a limit it is compacted
+ * on the worker thread by replaying it onto the last checkpoint and writing a new one, so the editor
+ * never waits for a full save. Changes to a layer's visibility, opacity or blend mode are small journal
+ * entries too. Only structural changes, like adding a layer or resizing, take a new checkpoint from a
+ * copy of the document.
+ * <p>
+ * Each document is autosaved in its own directory under a common root: one named after a hash of the
+ * project's path, or a shared one for untitled documents. A directory is locked before any of its files
+ * are touched, so a second instance editing the same document falls back to a numbered sibling instead
+ * of overwriting the first one's files.
+ * <p>
+ * All file work, including saving the project itself, happens on a single worker thread, in the order
+ * the changes were reported.
+ */
+public class AutosaveService implements DocumentListener {
+    private static final Logger logger = AppLogger.getLogger();
+
+    public static final Path DEFAULT_ROOT = Paths.get(ToolLoader.APP_DATA_DIRECTORY, "autosave");
+    private static final String UNTITLED_DIRECTORY = "untitled";
+    private static final String LOCK_FILE = "lock";
+    private static final int MAX_DIRECTORY_SLOTS = 16; // Instances that can autosave the same document at once
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".rpxa";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".rpxj";
+    private static final long COMPACT_THRESHOLD = 16L * 1024 * 1024; // Journal size that triggers a new checkpoint
+
+    private final Path root;
+    private final Supplier<ProjectFile> snapshot; // Copies the live document; called on the caller's thread
+    private final ExecutorService worker;
+    // Only touched on the worker thread
+    private Path base; // Directory of the open document before falling back to a numbered sibling
+    private Path directory; // Locked directory of the open document, or null if there is none
+    private FileChannel lock; // Holds the lock on the directory while it is open
+    private long generation = -1; // Generation of the current checkpoint, or -1 before the first one
+    private FileChannel journal;
+
+    /**
+     * Nothing is written until a document is opened with {@link #open(Path)}.
+     *
+     * @param root     Where the autosave directories of all documents are kept.
+     * @param snapshot Returns an independent copy of the current document, see {@link net.rytale.pixelart.layers.LayerStack#copy()}.
+     */
+    public AutosaveService(Path root, Supplier<ProjectFile> snapshot) {
+        this.root = root;
+        this.snapshot = snapshot;
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Moves autosaving to the directory of {@code project}, or of an untitled document if it is null, and
+     * returns the work a previous session left unsaved there, or null if there is nothing to recover.
+     * The files of the document autosaved so far are deleted, since it has just been saved or replaced.
+     * Waits for the changes already reported to be written first.
+     */
+    public ProjectFile open(Path project) {
+        try {
+            return worker.submit(() -> {
+                useDirectory(directoryFor(root, project));
+                return directory != null ? recover(directory) : null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            logger.severe("Failed to open autosave directory: " + e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Saves the document to {@code path} on the worker thread and keeps autosaving it in that project's
+     * directory from then on. The returned future completes once the file is written, or with the
+     * {@link IOException} that stopped it.
+     */
+    public CompletableFuture<Void> save(Path path) {
+        ProjectFile project = snapshot.get();
+        CompletableFuture<Void> saved = new CompletableFuture<>();
+        worker.execute(() -> {
+            try {
+                ProjectFormat.write(path, project);
+            } catch (IOException e) {
+                saved.completeExceptionally(e);
+                return;
+            }
+            useDirectory(directoryFor(root, path));
+            writeCheckpoint(project, false); // The saved file now holds this work
+            saved.complete(null);
+        });
+        return saved;
+    }
+
+    /**
+     * Directory for the autosaves of the project at {@code project}, or of untitled documents if it is
+     * null. Saved projects are keyed by a hash of their absolute path, so each keeps its own.
+     */
+    static Path directoryFor(Path root, Path project) {
+        if (project == null) {
+            return root.resolve(UNTITLED_DIRECTORY);
+        }
+        try {
+            byte[] key = project.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key);
+            return root.resolve(project.getFileName() + "-" + HexFormat.of().formatHex(hash, 0, 8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // Every Java platform must provide it
+        }
+    }
+
+    // The document left behind in a directory by a session that ended with unsaved changes, or null
+    private static ProjectFile recover(Path directory) {
+        try {
+            long latest = latestGeneration(directory);
+            if (latest < 0) {
+                return null;
+            }
+            Path checkpointFile = checkpointFile(directory, latest);
+            Path journalFile = journalFile(directory, latest);
+            if (!Files.isRegularFile(checkpointFile) || !EditJournal.hasEntries(journalFile)) {
+                return null;
+            }
+            ProjectFile project = ProjectFormat.read(checkpointFile);
+            int replayed = EditJournal.replay(journalFile, project.layers());
+            logger.info("Recovered autosave with " + replayed + " journal entries");
+            return project;
+        } catch (IOException e) {
+            logger.severe("Failed to recover autosave: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Takes a fresh checkpoint that counts as saved, for example after the user saved the project
+     * or declined to recover. Nothing is offered for recovery until the next change.
+     */
+    public void reset() {
+        ProjectFile project = snapshot.get();
+        worker.execute(() -> writeCheckpoint(project, false));
+    }
+
+    @Override
+    public void pixelsChanged(PixelDelta delta, int layerIndex, boolean reverted) {
+        worker.execute(() -> append(EditJournal.encodeRuns(delta, layerIndex, reverted)));
+    }
+
+    @Override
+    public void layerChanged(int layerIndex, boolean visible, double opacity, BlendMode blendMode) {
+        worker.execute(() -> append(EditJournal.encodeLayer(layerIndex, visible, opacity, blendMode)));
+    }
+
+    @Override
+    public void documentChanged() {
+        ProjectFile project = snapshot.get(); // Copy now, while the document cannot change underneath
+        worker.execute(() -> writeCheckpoint(project, true));
+    }
+
+    // Finish all pending writes; the files stay behind so unsaved work can be recovered next time
+    public void close() {
+        worker.shutdown();
+        try {
+            if (!worker.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warning("Autosave did not finish within 10 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // The worker has stopped, so the channels are no longer in use
+        closeJournal();
+        releaseLock();
+    }
+
+    /**
+     * Switch to {@code base}, or the first numbered sibling of it that no other instance has locked,
+     * deleting the current generation of the directory left behind. Runs on the worker thread.
+     */
+    private void useDirectory(Path base) {
+        if (directory != null && base.equals(this.base)) {
+            return; // Still the same document
+        }
+        closeJournal();
+        if (directory != null && generation >= 0) {
+            try {
+                Files.deleteIfExists(checkpointFile(directory, generation));
+                Files.deleteIfExists(journalFile(directory, generation));
+            } catch (IOException e) {
+                logger.warning("Failed to delete old autosave: " + e.getMessage());
+            }
+        }
+        releaseLock();
+        this.base = base;
+        directory = null;
+        generation = -1;
+
+        for (int slot = 0; slot < MAX_DIRECTORY_SLOTS && directory == null; slot++) {
+            Path candidate = slot == 0 ? base : base.resolveSibling(base.getFileName() + "-" + slot);
+            try {
+                lock = tryLock(candidate);
+                if (lock != null) {
+                    directory = candidate;
+                    generation = latestGeneration(candidate);
+                }
+            } catch (IOException e) {
+                logger.severe("Failed to lock autosave directory " + candidate + ": " + e.getMessage());
+                releaseLock();
+                return;
+            }
+        }
+        if (directory == null) {
+            logger.warning("Autosave is off: every directory for " + base + " is in use");
+        }
+    }
+
+    // Lock a directory, creating it if needed; returns the channel holding the lock, or null if another instance has it
+    private static FileChannel tryLock(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (channel.tryLock() != null) {
+                return channel;
+            }
+        } catch (OverlappingFileLockException e) {
+            // Locked by another service in this process
+        }
+        channel.close();
+        return null;
+    }
+
+    private void releaseLock() {
+        if (lock != null) {
+            try {
+                lock.close(); // Releases the lock with it
+            } catch (IOException e) {
+                logger.warning("Failed to release autosave lock: " + e.getMessage());
+            }
+            lock = null;
+        }
+    }
+
+    // Add an entry to the journal and flush it; runs on the worker thread
+    private void append(ByteBuffer entry) {
+        if (directory == null) {
+            return; // Autosave is off
+        }
+        try {
+            FileChannel channel = openJournal();
+            EditJournal.writeFully(channel, entry);
+            channel.force(false);
+            if (channel.size() > COMPACT_THRESHOLD) {
+                compact();
+            }
+        } catch (IOException e) {
+            logger.severe("Failed to append to autosave journal: " + e.getMessage());
+        }
+    }
+
+    // Replay the journal onto the last checkpoint in the background and start a new, empty journal
+    private void compact() {
+        try {
+            long start = System.nanoTime();
+            ProjectFile project = ProjectFormat.read(checkpointFile(directory, generation));
+            EditJournal.replay(journalFile(directory, generation), project.layers());
+            writeCheckpoint(project, true);
+            logger.info(String.format("Compacted autosave journal in %d ms", (System.nanoTime() - start) / 1_000_000));
+        } catch (IOException e) {
+            logger.severe("Failed to compact autosave journal: " + e.getMessage());
+        }
+    }
+
+    // Start a new generation: its journal first, then the checkpoint that makes it current, then drop the old pair
+    private void writeCheckpoint(ProjectFile project, boolean unsaved) {
+        if (directory == null) {
+            return; // Autosave is off
+        }
+        long next = generation + 1;
+        try {
+            closeJournal();
+            FileChannel channel = FileChannel.open(journalFile(directory, next), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            journal = channel;
+            EditJournal.writeFully(channel, EditJournal.header());
+            if (unsaved) {
+                EditJournal.writeFully(channel, EditJournal.encodeMark());
+            }
+            channel.force(false);
+
+            ProjectFormat.write(checkpointFile(directory, next), project);
+            long previous = generation;
+            generation = next;
+            if (previous >= 0) {
+                Files.deleteIfExists(checkpointFile(directory, previous));
+                Files.deleteIfExists(journalFile(directory, previous));
+            }
+        } catch (IOException e) {
+            logger.severe("Failed to write autosave checkpoint: " + e.getMessage());
+            closeJournal(); // Without its checkpoint the new journal must not be appended to
+        }
+    }
+
+    private FileChannel openJournal() throws IOException {
+        if (journal == null) {
+            if (generation < 0) {
+                throw new IOException("No checkpoint to journal against");
+            }
+            journal = FileChannel.open(journalFile(directory, generation), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (journal.size() < EditJournal.HEADER_SIZE) {
+                journal.truncate(0);
+                EditJournal.writeFully(journal, EditJournal.header());
+            }
+        }
+        return journal;
+    }
+
+    // Highest generation that has a complete checkpoint, or -1 if there is none
+    private static long latestGeneration(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return -1;
+        }
+        long latest = -1;
+        try (DirectoryStream<Path> checkpoints = Files.newDirectoryStream(directory, CHECKPOINT_PREFIX + "*" + CHECKPOINT_SUFFIX)) {
+            for (Path checkpoint : checkpoints) {
+                String name = checkpoint.getFileName().toString();
+                try {
+                    latest = Math.max(latest, Long.parseLong(
+                            name.substring(CHECKPOINT_PREFIX.length(), name.length() - CHECKPOINT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return latest;
+    }
+
+    private static Path checkpointFile(Path directory, long generation) {
+        return directory.resolve(CHECKPOINT_PREFIX + generation + CHECKPOINT_SUFFIX);
+    }
+
+    private static Path journalFile(Path directory, long generation) {
+        return directory.resolve(JOURNAL_PREFIX + generation + JOURNAL_SUFFIX);
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.warning("Failed to close autosave journal: " + e.getMessage());
+            }
+            journal = null;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package net.rytale.pixelart.file;
+
+import net.rytale.pixelart.history.PixelDelta;
+import net.rytale.pixelart.layers.BlendMode;
+import net.rytale.pixelart.layers.Layer;
+import net.rytale.pixelart.layers.LayerStack;
+import net.rytale.pixelart.layers.PixelBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of pixel and layer setting edits made since the last autosave checkpoint.
+ * <p>
+ * After an 8-byte header (magic "RPXJ", i32 version) the file is a sequence of entries, each framed
+ * as i32 payload length, i32 CRC-32 of the payload, payload. A runs entry holds the cell values one
+ * edit wrote, already in the order they must be replayed, so undo and redo need no special casing:
+ * <pre>
+ * u8 type (1), i32 layerIndex, i32 width, i32 runCount, runCount x (i32 start, i32 length, i32 argb)
+ * </pre>
+ * A layer entry holds the new settings of one layer, laid out as in the project format:
+ * <pre>
+ * u8 type (3), i32 layerIndex, u8 visible, u8 blendMode, f32 opacity
+ * </pre>
+ * A mark entry (type 2, no data) records a change that a checkpoint already captured, so the
+ * journal still shows there is unsaved work. Replay stops at the first incomplete or damaged entry,
+ * which is what a crash in the middle of an append leaves behind.
+ */
+final class EditJournal {
+    static final int MAGIC = 0x5250584A; // "RPXJ"
+    static final int VERSION = 2; // 2 added layer entries
+    static final int HEADER_SIZE = 8;
+
+    private static final byte ENTRY_RUNS = 1;
+    private static final byte ENTRY_MARK = 2;
+    private static final byte ENTRY_LAYER = 3;
+    private static final int FRAME_SIZE = 8; // Length and checksum
+    private static final int RUN_BYTES = 12;
+
+    private EditJournal() {
+    }
+
+    static ByteBuffer header() {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+    }
+
+    /**
+     * Frames the cells an edit wrote on the layer at {@code layerIndex}: the new values in recording order,
+     * or for an undo the old values in reverse order.
+     */
+    static ByteBuffer encodeRuns(PixelDelta delta, int layerIndex, boolean reverted) {
+        int runCount = delta.getRunCount();
+        ByteBuffer entry = ByteBuffer.allocate(FRAME_SIZE + 1 + 12 + runCount * RUN_BYTES);
+        entry.position(FRAME_SIZE);
+        entry.put(ENTRY_RUNS).putInt(layerIndex).putInt(delta.getWidth()).putInt(runCount);
+        for (int i = 0; i < runCount; i++) {
+            int run = reverted ? runCount - 1 - i : i;
+            entry.putInt(delta.getRunStart(run))
+                    .putInt(delta.getRunLength(run))
+                    .putInt(reverted ? delta.getRunOldColor(run) : delta.getRunNewColor(run));
+        }
+        return frame(entry);
+    }
+
+    static ByteBuffer encodeLayer(int layerIndex, boolean visible, double opacity, BlendMode blendMode) {
+        ByteBuffer entry = ByteBuffer.allocate(FRAME_SIZE + 1 + 4 + 1 + 1 + 4);
+        entry.position(FRAME_SIZE);
+        entry.put(ENTRY_LAYER).putInt(layerIndex)
+                .put((byte) (visible ? 1 : 0))
+                .put((byte) blendMode.ordinal())
+                .putFloat((float) opacity);
+        return frame(entry);
+    }
+
+    static ByteBuffer encodeMark() {
+        ByteBuffer entry = ByteBuffer.allocate(FRAME_SIZE + 1);
+        entry.position(FRAME_SIZE);
+        entry.put(ENTRY_MARK);
+        return frame(entry);
+    }
+
+    // Fill in the length and checksum of an entry whose payload starts after the frame
+    private static ByteBuffer frame(ByteBuffer entry) {
+        int payloadLength = entry.position() - FRAME_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(entry.array(), FRAME_SIZE, payloadLength);
+        entry.putInt(0, payloadLength).putInt(4, (int) crc.getValue());
+        return entry.flip();
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Whether the journal holds at least one intact entry
+    static boolean hasEntries(Path journal) throws IOException {
+        if (!Files.isRegularFile(journal)) {
+            return false;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(journal));
+        return readHeader(data) && nextEntry(data) != null;
+    }
+
+    /**
+     * Applies every intact entry to {@code layers}, in order.
+     *
+     * @return The number of entries replayed.
+     */
+    static int replay(Path journal, LayerStack layers) throws IOException {
+        if (!Files.isRegularFile(journal)) {
+            return 0;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(journal));
+        if (!readHeader(data)) {
+            return 0;
+        }
+
+        int replayed = 0;
+        ByteBuffer entry;
+        while ((entry = nextEntry(data)) != null) {
+            boolean applied = switch (entry.get()) {
+                case ENTRY_RUNS -> applyRuns(entry, layers);
+                case ENTRY_LAYER -> applyLayer(entry, layers);
+                default -> true;
+            };
+            if (!applied) {
+                break; // Written against a different document, so nothing after it can apply either
+            }
+            replayed++;
+        }
+        return replayed;
+    }
+
+    private static boolean readHeader(ByteBuffer data) {
+        return data.remaining() >= HEADER_SIZE && data.getInt() == MAGIC && data.getInt() <= VERSION;
+    }
+
+    // The payload of the next entry, or null at the end of the log or at a torn or corrupt entry
+    private static ByteBuffer nextEntry(ByteBuffer data) {
+        if (data.remaining() < FRAME_SIZE) {
+            return null;
+        }
+        int length = data.getInt();
+        int checksum = data.getInt();
+        if (length <= 0 || length > data.remaining()) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), data.position(), length);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        ByteBuffer payload = data.slice(data.position(), length);
+        data.position(data.position() + length);
+        return payload;
+    }
+
+    private static boolean applyLayer(ByteBuffer entry, LayerStack layers) {
+        int layerIndex = entry.getInt();
+        boolean visible = entry.get() != 0;
+        int blendMode = entry.get() & 0xFF;
+        float opacity = entry.getFloat();
+        if (layerIndex < 0 || layerIndex >= layers.size() || blendMode >= BlendMode.values().length) {
+            return false;
+        }
+
+        Layer layer = layers.getLayer(layerIndex);
+        layer.setVisible(visible);
+        layer.setOpacity(opacity);
+        layer.setBlendMode(BlendMode.values()[blendMode]);
+        return true;
+    }
+
+    private static boolean applyRuns(ByteBuffer entry, LayerStack layers) {
+        int layerIndex = entry.getInt();
+        int width = entry.getInt();
+        int runCount = entry.getInt();
+        if (layerIndex < 0 || layerIndex >= layers.size() || width != layers.getWidth()
+                || entry.remaining() != runCount * RUN_BYTES) {
+            return false;
+        }
+
+        PixelBuffer pixels = layers.getLayer(layerIndex).getPixels();
+        long cells = (long) width * layers.getHeight();
+        for (int i = 0; i < runCount; i++) {
+            int start = entry.getInt();
+            int length = entry.getInt();
+            int argb = entry.getInt();
+            if (start < 0 || length < 0 || start + (long) length > cells) {
+                return false;
+            }
+            // A run may continue onto following rows
+            while (length > 0) {
+                int y = start / width;
+                int x = start - y * width;
+                int count = Math.min(length, width - x);
+                pixels.fillSpan(y, x, x + count - 1, argb);
+                start += count;
+                length -= count;
+            }
+        }
+        return true;
+    }
+}
@@ -1,10 +1,14 @@
 package net.rytale.pixelart.file;
 
 import net.rytale.pixelart.layers.PixelCanvas;
-import java.io.*;
+import net.rytale.pixelart.utils.ColorUtils;
+
+import java.io.File;
+import java.io.IOException;
 
 /**
  * Handles file operations such as saving and loading project files.
+ * Projects are stored in the binary format described by {@link ProjectFormat}.
  */
 public class FileHandler {
 
@@ -16,24 +20,29 @@ public class FileHandler {
      * @throws IOException If an error occurs during saving.
      */
     public void saveProject(File file, PixelCanvas canvas) throws IOException {
-        ProjectFile projectFile = new ProjectFile(canvas);
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
-            out.writeObject(projectFile);
-        }
+        saveProject(file, new ProjectFile(canvas.getLayers(), canvas.getGridSize(),
+                ColorUtils.toArgb(canvas.getBackgroundColor())));
+    }
+
+    /**
+     * Saves a project to a file.
+     *
+     * @param file    The file to save the project to.
+     * @param project The project to save.
+     * @throws IOException If an error occurs during saving.
+     */
+    public void saveProject(File file, ProjectFile project) throws IOException {
+        ProjectFormat.write(file.toPath(), project);
     }
 
     /**
      * Loads a project from a file.
      *
      * @param file The file to load the project from.
-     * @return The loaded canvas.
-     * @throws IOException If an error occurs during loading.
-     * @throws ClassNotFoundException If the class is not found.
+     * @return The loaded project.
+     * @throws IOException If the file cannot be read or is not a valid project.
      */
-    public PixelCanvas loadProject(File file) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
-            ProjectFile projectFile = (ProjectFile) in.readObject();
-            return projectFile.canvas();
-        }
+    public ProjectFile loadProject(File file) throws IOException {
+        return ProjectFormat.read(file.toPath());
     }
 }
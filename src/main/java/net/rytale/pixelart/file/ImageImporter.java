@@ -0,0 +1,48 @@
+package net.rytale.pixelart.file;
+
+import net.rytale.pixelart.layers.Layer;
+import net.rytale.pixelart.layers.LayerStack;
+import net.rytale.pixelart.layers.PixelBuffer;
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.Imaging;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads a PNG, GIF, BMP or other image supported by Commons Imaging as a single-layer project,
+ * one pixel per cell.
+ */
+public class ImageImporter {
+    public static final int DEFAULT_GRID_SIZE = 16;
+    public static final int DEFAULT_BACKGROUND = 0xFFFFFFFF;
+
+    public ProjectFile importImage(File file) throws IOException {
+        BufferedImage image;
+        try {
+            image = Imaging.getBufferedImage(file);
+        } catch (ImageReadException e) {
+            throw new IOException("Unreadable image " + file + ": " + e.getMessage(), e);
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        PixelBuffer pixels = new PixelBuffer(width, height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                if ((row[x] >>> 24) == 0) {
+                    row[x] = PixelBuffer.TRANSPARENT; // Fully transparent cells count as unpainted whatever their color
+                }
+            }
+            pixels.writeRegion(0, y, width, 1, row, 0, width);
+        }
+
+        String name = file.getName();
+        LayerStack layers = new LayerStack(width, height, List.of(new Layer(name, pixels)));
+        return new ProjectFile(layers, DEFAULT_GRID_SIZE, DEFAULT_BACKGROUND);
+    }
+}
@@ -0,0 +1,285 @@
+package net.rytale.pixelart.file;
+
+import net.rytale.pixelart.layers.PixelBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Adler32;
+
+/**
+ * Writes a {@link PixelBuffer} as an RGBA PNG, one cell per pixel or scaled up by a whole factor with
+ * nearest-neighbour sampling.
+ * <p>
+ * The image is encoded one row at a time straight from the buffer, so memory use does not depend on
+ * the output size: only a single scaled row is ever held. Each cell row is written once with the Sub
+ * filter, which turns the horizontal repeats of the scale-up into zeros, and repeated
+ * {@code scale - 1} times with the Up filter, which is all zeros, so the scale-up costs almost
+ * nothing in file size. Those repeats are identical for every row, so they are compressed once and
+ * the compressed bytes are spliced in after each row, with the compressor's dictionary reset on
+ * both sides of the splice; only one row in {@code scale} is actually run through deflate.
+ */
+public class PngExporter {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final byte[] ZLIB_HEADER = {0x78, 0x01}; // Deflate with a 32K window, no preset dictionary
+    private static final Set<PosixFilePermission> EXPORT_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+    // Exports run one at a time, away from the JavaFX application thread
+    private static final ExecutorService EXPORT_WORKER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "png-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private int compressionLevel = Deflater.BEST_SPEED;
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    // Deflate level from 0 (store) to 9 (smallest); the default favours speed
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, compressionLevel));
+    }
+
+    /**
+     * Exports on a background thread. The buffer must not change until the returned future completes,
+     * so pass a copy of a live document.
+     */
+    public CompletableFuture<Void> exportAsync(PixelBuffer image, int scale, Path path) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                export(image, scale, path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, EXPORT_WORKER);
+    }
+
+    /**
+     * Writes to a uniquely named temporary file next to the target and moves it into place once complete,
+     * so concurrent exports to the same directory cannot collide. The temporary file is deleted if
+     * anything fails.
+     */
+    public void export(PixelBuffer image, int scale, Path path) throws IOException {
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName() + ".", ".tmp");
+        try {
+            if (temp.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(temp, EXPORT_PERMISSIONS); // Temporary files are private to the owner
+            }
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                write(image, scale, out);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Throwable e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    public void write(PixelBuffer image, int scale, OutputStream out) throws IOException {
+        if (scale < 1) {
+            throw new IllegalArgumentException("Scale must be at least 1: " + scale);
+        }
+        long outputWidth = (long) image.getWidth() * scale;
+        long outputHeight = (long) image.getHeight() * scale;
+        if (outputWidth * BYTES_PER_PIXEL + 1 > Integer.MAX_VALUE || outputHeight > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image too large at " + scale + "x: " + outputWidth + "x" + outputHeight);
+        }
+
+        out.write(SIGNATURE);
+        writeHeader(out, (int) outputWidth, (int) outputHeight);
+
+        int[] cells = new int[image.getWidth()];
+        byte[] row = new byte[1 + (int) outputWidth * BYTES_PER_PIXEL]; // Filter type byte, then RGBA samples
+        byte[] upRow = new byte[row.length]; // Identical to the row above: all zero after the Up filter
+        upRow[0] = FILTER_UP;
+
+        // Raw deflate with the zlib header and checksum written by hand, since the repeats bypass the deflater
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            byte[] repeats = scale > 1 ? compressRepeats(upRow, scale - 1) : null;
+            byte[] buffer = new byte[IDAT_CHUNK_SIZE];
+            Adler32 checksum = new Adler32();
+            IdatOutputStream idat = new IdatOutputStream(out);
+            idat.write(ZLIB_HEADER);
+
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.copyRegion(0, y, image.getWidth(), 1, cells, 0, image.getWidth());
+                encodeRow(cells, scale, row);
+                checksum.update(row);
+                if (repeats == null) {
+                    deflate(deflater, row, Deflater.NO_FLUSH, buffer, idat);
+                } else {
+                    deflate(deflater, row, Deflater.FULL_FLUSH, buffer, idat);
+                    idat.write(repeats);
+                    for (int repeat = 1; repeat < scale; repeat++) {
+                        checksum.update(upRow);
+                    }
+                }
+            }
+
+            deflater.finish();
+            while (!deflater.finished()) {
+                idat.write(buffer, 0, deflater.deflate(buffer));
+            }
+            byte[] trailer = new byte[4];
+            putInt(trailer, 0, (int) checksum.getValue());
+            idat.write(trailer);
+            idat.close(); // Emits the last IDAT chunk, not the underlying stream
+        } finally {
+            deflater.end();
+        }
+        writeChunk(out, "IEND", new byte[0], 0);
+    }
+
+    // Compress count copies of the Up row into a self-contained run of deflate blocks that can be spliced in anywhere
+    private byte[] compressRepeats(byte[] upRow, int count) throws IOException {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            byte[] buffer = new byte[IDAT_CHUNK_SIZE];
+            for (int i = 0; i < count; i++) {
+                deflate(deflater, upRow, i == count - 1 ? Deflater.FULL_FLUSH : Deflater.NO_FLUSH, buffer, compressed);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void deflate(Deflater deflater, byte[] input, int flush, byte[] buffer, OutputStream out) throws IOException {
+        deflater.setInput(input);
+        while (!deflater.needsInput()) {
+            out.write(buffer, 0, deflater.deflate(buffer, 0, buffer.length, Deflater.NO_FLUSH));
+        }
+        if (flush != Deflater.NO_FLUSH) {
+            int length;
+            do {
+                length = deflater.deflate(buffer, 0, buffer.length, flush);
+                out.write(buffer, 0, length);
+            } while (length == buffer.length);
+        }
+    }
+
+    // Scale one row of cells into RGBA samples and apply the Sub filter
+    private static void encodeRow(int[] cells, int scale, byte[] row) {
+        row[0] = FILTER_SUB;
+        int pos = 1;
+        int previous = 0; // ARGB of the pixel to the left, 0 before the first one
+        for (int argb : cells) {
+            // Only the first copy of a cell differs from its left neighbour; the repeats filter to zero
+            row[pos] = (byte) ((argb >> 16) - (previous >> 16));
+            row[pos + 1] = (byte) ((argb >> 8) - (previous >> 8));
+            row[pos + 2] = (byte) (argb - previous);
+            row[pos + 3] = (byte) ((argb >>> 24) - (previous >>> 24));
+            int repeats = (scale - 1) * BYTES_PER_PIXEL;
+            Arrays.fill(row, pos + BYTES_PER_PIXEL, pos + BYTES_PER_PIXEL + repeats, (byte) 0);
+            pos += BYTES_PER_PIXEL + repeats;
+            previous = argb;
+        }
+    }
+
+    private static void writeHeader(OutputStream out, int width, int height) throws IOException {
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;  // Bits per sample
+        header[9] = 6;  // Color type: RGBA
+        header[10] = 0; // Deflate compression
+        header[11] = 0; // Adaptive filtering
+        header[12] = 0; // No interlacing
+        writeChunk(out, "IHDR", header, header.length);
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] lengthBytes = new byte[4];
+        putInt(lengthBytes, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        byte[] crcBytes = new byte[4];
+        putInt(crcBytes, 0, (int) crc.getValue());
+
+        out.write(lengthBytes);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.write(crcBytes);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    // Collects compressed image data and emits it as a sequence of IDAT chunks
+    private static final class IdatOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[IDAT_CHUNK_SIZE];
+        private int count;
+
+        IdatOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(out, "IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
@@ -1,13 +1,22 @@
 package net.rytale.pixelart.file;
 
-import java.io.Serial;
-import java.io.Serializable;
-import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.layers.LayerStack;
 
 /**
- * Represents a project file, which includes the canvas and its layers.
+ * Represents a project file: the document's layers plus the view settings saved with them.
+ * Holds no JavaFX types, so projects can be read and written without a running UI.
+ *
+ * @param layers          The layers, bottom to top, with their pixels.
+ * @param gridSize        Size of each grid cell in pixels at 100% zoom.
+ * @param backgroundColor Background shown behind the pixels, as packed ARGB.
  */
-public record ProjectFile(PixelCanvas canvas) implements Serializable {
-    @Serial
-    private static final long serialVersionUID = 1L;
+public record ProjectFile(LayerStack layers, int gridSize, int backgroundColor) {
+
+    public int width() {
+        return layers.getWidth();
+    }
+
+    public int height() {
+        return layers.getHeight();
+    }
 }
@@ -0,0 +1,341 @@
+package net.rytale.pixelart.file;
+
+import net.rytale.pixelart.layers.BlendMode;
+import net.rytale.pixelart.layers.Layer;
+import net.rytale.pixelart.layers.LayerStack;
+import net.rytale.pixelart.layers.PixelBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes the binary project format.
+ * <p>
+ * A file is a fixed header followed by one block per layer. Only painted tiles are stored, each as
+ * its own chunk, encoded as raw ARGB ints or as runs of equal colors and optionally deflated,
+ * whichever is smallest. All values are big-endian.
+ * <pre>
+ * header:  magic "RPXA", u16 version, u16 flags (0),
+ *          i32 width, i32 height, i32 gridSize, i32 background ARGB, i32 tileSize,
+ *          i32 layerCount, i32 activeLayer
+ * layer:   u16 nameLength, UTF-8 name, u8 visible, u8 blendMode, f32 opacity, i32 tileCount
+ * tile:    i32 tileIndex (row-major), u8 encoding, i32 storedLength, i32 decodedLength, payload
+ * </pre>
+ * Tiles are encoded and decoded in parallel; the file is written through a {@link FileChannel}
+ * and read into memory in one go. It is not memory-mapped, since a mapping keeps the file locked on
+ * some platforms until it is garbage collected, which would stop it from being saved over or deleted.
+ */
+public final class ProjectFormat {
+    public static final int MAGIC = 0x52505841; // "RPXA"
+    public static final int VERSION = 1;
+
+    static final int ENCODING_RLE = 1;     // Payload is (u16 length, i32 argb) runs instead of raw ints
+    static final int ENCODING_DEFLATE = 2; // Payload is deflated
+
+    private static final int HEADER_SIZE = 4 + 2 + 2 + 7 * 4;
+    private static final int TILE_CHUNK_HEADER_SIZE = 4 + 1 + 4 + 4;
+    private static final int TILE_CELLS = PixelBuffer.TILE_SIZE * PixelBuffer.TILE_SIZE;
+    private static final int RAW_TILE_BYTES = TILE_CELLS * 4;
+    private static final int RLE_RUN_BYTES = 2 + 4;
+    private static final int MIN_DEFLATE_BYTES = 256; // Smaller payloads are not worth deflating
+
+    private ProjectFormat() {
+    }
+
+    /**
+     * Writes a project to {@code path}. The data goes to a temporary file next to it first, which then
+     * replaces the target, so an interrupted save never leaves a truncated project behind.
+     */
+    public static void write(Path path, ProjectFile project) throws IOException {
+        LayerStack layers = project.layers();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0)
+                    .putInt(project.width()).putInt(project.height())
+                    .putInt(project.gridSize()).putInt(project.backgroundColor())
+                    .putInt(PixelBuffer.TILE_SIZE)
+                    .putInt(layers.size()).putInt(layers.getActiveIndex());
+            writeFully(channel, header.flip());
+
+            for (Layer layer : layers.getLayers()) {
+                writeLayer(channel, layer);
+            }
+            channel.force(false);
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING); // Not every file system can rename atomically
+        }
+    }
+
+    public static ProjectFile read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Project file too large: " + path);
+            }
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // Keep reading until the buffer is full or the file ends early
+            }
+            data.flip();
+            try {
+                return read(data);
+            } catch (RuntimeException e) {
+                // Truncated or corrupt data surfaces as buffer underflows or bad arguments
+                throw new IOException("Corrupt project file " + path + ": " + e, e);
+            }
+        }
+    }
+
+    private static ProjectFile read(ByteBuffer data) throws IOException {
+        if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC) {
+            throw new IOException("Not a Pixel Art Creator project");
+        }
+        int version = data.getShort() & 0xFFFF;
+        if (version > VERSION) {
+            throw new IOException("Project was saved by a newer version (format " + version + ")");
+        }
+        data.getShort(); // Flags, none defined yet
+        int width = data.getInt();
+        int height = data.getInt();
+        int gridSize = data.getInt();
+        int backgroundColor = data.getInt();
+        int tileSize = data.getInt();
+        int layerCount = data.getInt();
+        int activeLayer = data.getInt();
+        if (tileSize != PixelBuffer.TILE_SIZE) {
+            throw new IOException("Unsupported tile size " + tileSize);
+        }
+
+        List<Layer> layers = new ArrayList<>(layerCount);
+        for (int i = 0; i < layerCount; i++) {
+            layers.add(readLayer(data, width, height));
+        }
+
+        LayerStack stack = new LayerStack(width, height, layers);
+        if (activeLayer >= 0 && activeLayer < stack.size()) {
+            stack.setActiveIndex(activeLayer);
+        }
+        return new ProjectFile(stack, gridSize, backgroundColor);
+    }
+
+    private static void writeLayer(FileChannel channel, Layer layer) throws IOException {
+        PixelBuffer pixels = layer.getPixels();
+        int tileCount = pixels.getTilesX() * pixels.getTilesY();
+        int[] painted = IntStream.range(0, tileCount)
+                .filter(i -> !pixels.isTileEmpty(i % pixels.getTilesX(), i / pixels.getTilesX()))
+                .toArray();
+
+        // Encoding dominates the cost of a save, so tiles are compressed in parallel and written in order
+        byte[][] chunks = new byte[painted.length][];
+        IntStream.range(0, painted.length).parallel().forEach(i -> {
+            int tileIndex = painted[i];
+            chunks[i] = encodeTile(tileIndex, pixels.getTile(tileIndex % pixels.getTilesX(), tileIndex / pixels.getTilesX()));
+        });
+
+        byte[] name = layer.getName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(2 + name.length + 1 + 1 + 4 + 4);
+        header.putShort((short) name.length).put(name)
+                .put((byte) (layer.isVisible() ? 1 : 0))
+                .put((byte) layer.getBlendMode().ordinal())
+                .putFloat((float) layer.getOpacity())
+                .putInt(painted.length);
+        writeFully(channel, header.flip());
+
+        ByteBuffer[] batch = new ByteBuffer[Math.min(64, Math.max(1, chunks.length))];
+        for (int i = 0; i < chunks.length; i += batch.length) {
+            int count = Math.min(batch.length, chunks.length - i);
+            for (int j = 0; j < count; j++) {
+                batch[j] = ByteBuffer.wrap(chunks[i + j]);
+            }
+            // Gathering writes hand several chunks to the OS per call
+            long remaining = 0;
+            for (int j = 0; j < count; j++) {
+                remaining += batch[j].remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(batch, 0, count);
+            }
+        }
+    }
+
+    private static Layer readLayer(ByteBuffer data, int width, int height) throws IOException {
+        byte[] name = new byte[data.getShort() & 0xFFFF];
+        data.get(name);
+        boolean visible = data.get() != 0;
+        int blendMode = data.get() & 0xFF;
+        float opacity = data.getFloat();
+        int tileCount = data.getInt();
+        if (blendMode >= BlendMode.values().length) {
+            throw new IOException("Unknown blend mode " + blendMode);
+        }
+
+        PixelBuffer pixels = new PixelBuffer(width, height);
+        int totalTiles = pixels.getTilesX() * pixels.getTilesY();
+
+        // Find every chunk first so the tiles can be decoded in parallel straight from the buffer
+        int[] tileIndices = new int[tileCount];
+        int[] encodings = new int[tileCount];
+        int[] positions = new int[tileCount];
+        int[] storedLengths = new int[tileCount];
+        int[] decodedLengths = new int[tileCount];
+        for (int i = 0; i < tileCount; i++) {
+            tileIndices[i] = data.getInt();
+            encodings[i] = data.get() & 0xFF;
+            storedLengths[i] = data.getInt();
+            decodedLengths[i] = data.getInt();
+            positions[i] = data.position();
+            if (tileIndices[i] < 0 || tileIndices[i] >= totalTiles) {
+                throw new IOException("Tile index " + tileIndices[i] + " out of range");
+            }
+            data.position(positions[i] + storedLengths[i]);
+        }
+
+        // Each task writes a different tile, so no synchronisation is needed
+        IntStream.range(0, tileCount).parallel().forEach(i -> {
+            int tileIndex = tileIndices[i];
+            int[] tile = pixels.getWritableTile(tileIndex % pixels.getTilesX(), tileIndex / pixels.getTilesX());
+            decodeTile(data.slice(positions[i], storedLengths[i]), encodings[i], decodedLengths[i], tile);
+        });
+        pixels.trim();
+
+        Layer layer = new Layer(new String(name, StandardCharsets.UTF_8), pixels);
+        layer.setVisible(visible);
+        layer.setOpacity(opacity);
+        layer.setBlendMode(BlendMode.values()[blendMode]);
+        return layer;
+    }
+
+    // Encode one tile into a complete chunk, header included
+    static byte[] encodeTile(int tileIndex, int[] tile) {
+        int runs = countRuns(tile);
+        int encoding = 0;
+        byte[] payload;
+        if (runs * RLE_RUN_BYTES < RAW_TILE_BYTES) {
+            encoding |= ENCODING_RLE;
+            ByteBuffer rle = ByteBuffer.allocate(runs * RLE_RUN_BYTES);
+            for (int i = 0; i < TILE_CELLS; ) {
+                int argb = tile[i];
+                int length = 1;
+                while (i + length < TILE_CELLS && tile[i + length] == argb) {
+                    length++;
+                }
+                rle.putShort((short) length).putInt(argb); // Lengths up to 4096 fit an unsigned short
+                i += length;
+            }
+            payload = rle.array();
+        } else {
+            ByteBuffer raw = ByteBuffer.allocate(RAW_TILE_BYTES);
+            raw.asIntBuffer().put(tile);
+            payload = raw.array();
+        }
+
+        int decodedLength = payload.length;
+        if (payload.length >= MIN_DEFLATE_BYTES) {
+            byte[] deflated = deflate(payload);
+            if (deflated != null) {
+                encoding |= ENCODING_DEFLATE;
+                payload = deflated;
+            }
+        }
+
+        ByteBuffer chunk = ByteBuffer.allocate(TILE_CHUNK_HEADER_SIZE + payload.length);
+        chunk.putInt(tileIndex).put((byte) encoding).putInt(payload.length).putInt(decodedLength).put(payload);
+        return chunk.array();
+    }
+
+    static void decodeTile(ByteBuffer payload, int encoding, int decodedLength, int[] tile) {
+        if ((encoding & ENCODING_DEFLATE) != 0) {
+            payload = ByteBuffer.wrap(inflate(payload, decodedLength));
+        }
+        if ((encoding & ENCODING_RLE) != 0) {
+            int cell = 0;
+            while (payload.hasRemaining()) {
+                int length = payload.getShort() & 0xFFFF;
+                int argb = payload.getInt();
+                if (cell + length > TILE_CELLS) {
+                    throw new IllegalArgumentException("Run overflows its tile");
+                }
+                Arrays.fill(tile, cell, cell + length, argb);
+                cell += length;
+            }
+        } else {
+            IntBuffer ints = payload.asIntBuffer();
+            ints.get(tile, 0, Math.min(TILE_CELLS, ints.remaining()));
+        }
+    }
+
+    private static int countRuns(int[] tile) {
+        int runs = 1;
+        for (int i = 1; i < TILE_CELLS; i++) {
+            if (tile[i] != tile[i - 1]) {
+                runs++;
+            }
+        }
+        return runs;
+    }
+
+    // Deflate at the fastest level; returns null if that does not make the payload smaller
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] output = new byte[input.length];
+            int length = 0;
+            while (!deflater.finished() && length < output.length) {
+                length += deflater.deflate(output, length, output.length - length);
+            }
+            return deflater.finished() ? Arrays.copyOf(output, length) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(ByteBuffer input, int decodedLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            byte[] output = new byte[decodedLength];
+            int length = 0;
+            while (length < decodedLength && !inflater.finished()) {
+                int inflated = inflater.inflate(output, length, decodedLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated tile data");
+                }
+                length += inflated;
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt tile data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package net.rytale.pixelart.gui;
 
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -10,21 +12,47 @@ import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
-
+import javafx.util.StringConverter;
+
+import net.rytale.pixelart.file.AutosaveService;
+import net.rytale.pixelart.file.FileHandler;
+import net.rytale.pixelart.file.PngExporter;
+import net.rytale.pixelart.file.ProjectFile;
+import net.rytale.pixelart.layers.BlendMode;
+import net.rytale.pixelart.layers.Layer;
+import net.rytale.pixelart.layers.LayerStack;
 import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.metrics.Counter;
+import net.rytale.pixelart.metrics.LatencyHistogram;
+import net.rytale.pixelart.metrics.Metrics;
 import net.rytale.pixelart.tools.*;
 import net.rytale.pixelart.utils.AppLogger;
+import net.rytale.pixelart.utils.ColorUtils;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.logging.Logger;
 
 public class MainWindow extends Application {
     private static final Logger logger = AppLogger.getLogger();
+    private static final String PROJECT_EXTENSION = ".rpxa";
+    private static final LatencyHistogram MOUSE_PRESSED_TIME = Metrics.histogram("input.mousePressed");
+    private static final LatencyHistogram MOUSE_DRAGGED_TIME = Metrics.histogram("input.mouseDragged");
+    private static final LatencyHistogram MOUSE_RELEASED_TIME = Metrics.histogram("input.mouseReleased");
+    private static final LatencyHistogram DRAG_BATCH_TIME = Metrics.histogram("input.dragBatch");
+    private static final Counter DRAG_SAMPLES = Metrics.counter("input.dragSamples"); // New cells reached while dragging
+    private static final Counter DRAG_BATCHES = Metrics.counter("input.dragBatches"); // Pulses that handed them to the tool
     private ToolLoader toolLoader;
     private AbstractDrawingTool activeTool;
     private ColorPicker colorPicker;
@@ -32,23 +60,44 @@ public class MainWindow extends Application {
     private Label coordinateLabel;
     private VBox toolOptionsPanel;
     private VBox toolBox;
+    private Stage primaryStage;
+    private final FileHandler fileHandler = new FileHandler();
+    private File projectFile; // Where the project was last saved or opened from, or null
+    private AutosaveService autosave;
+    private final PngExporter pngExporter = new PngExporter();
+    private ListView<String> layerList;   // Layer names, top layer first
+    private CheckBox layerVisibleToggle;
+    private Slider layerOpacitySlider;
+    private ChoiceBox<BlendMode> layerBlendChoice;
+    private boolean refreshingLayers;     // Set while the layer controls are synced to the model
+    private MetricsHud metricsHud;
+    private final Map<AbstractDrawingTool, VBox> optionsPanels = new HashMap<>(); // Built once per tool instance
+    private final StrokeSamples dragSamples = new StrokeSamples(); // Drag positions not yet handed to the active tool
+    private final Runnable flushDragSamples = this::flushDragSamples; // Created once rather than per drag event
+    private int shownX, shownY; // Coordinates in the label
+    private final BooleanProperty metricsShown = new SimpleBooleanProperty(); // Metrics are only collected while the HUD is shown
 
     private VBox settingsPanel;  // The settings panel to toggle visibility
     private BorderPane rootPane;  // Store reference to the root BorderPane
 
     @Override
     public void start(Stage primaryStage) {
+        long startNanos = System.nanoTime();
         try {
+            this.primaryStage = primaryStage;
             pixelCanvas = new PixelCanvas(32, 32, 16);  // 32x32 grid with an initial grid size of 16 pixels
             colorPicker = new ColorPicker(Color.BLACK); // Start with black color
+            setUpMetrics();
 
+            long toolsStart = System.nanoTime();
             toolLoader = new ToolLoader();
+            logger.info(String.format("Registered %d tools in %d ms", toolLoader.getTools().size(), (System.nanoTime() - toolsStart) / 1_000_000));
 
             // Initialize with the first available tool, if any
-            Map<String, Class<? extends AbstractDrawingTool>> tools = toolLoader.getTools();
+            Map<String, ToolDescriptor> tools = toolLoader.getTools();
             if (!tools.isEmpty()) {
                 String firstToolName = tools.keySet().iterator().next();
-                activeTool = toolLoader.createTool(firstToolName, pixelCanvas, colorPicker.getValue());
+                activeTool = toolLoader.getTool(firstToolName, pixelCanvas, colorPicker.getValue());
             }
 
             colorPicker.setOnAction(e -> {
@@ -60,6 +109,7 @@ public class MainWindow extends Application {
             toolBox = new VBox(10);
             toolBox.setStyle("-fx-padding: 10; -fx-background-color: #2C2C2C; -fx-background-radius: 10;");
             updateToolSelector();
+            toolLoader.startWatching(Platform::runLater, this::toolsChanged);
 
             VBox controls = createControls();
 
@@ -83,8 +133,11 @@ public class MainWindow extends Application {
             rootPane = new BorderPane();
             rootPane.setTop(createTopMenu());
             rootPane.setLeft(createRoundedContainer(toolBox));
-            rootPane.setCenter(createRoundedContainer(pixelCanvas));
-            rootPane.setRight(createRoundedContainer(toolOptionsPanel));
+            StackPane canvasPane = new StackPane(pixelCanvas, metricsHud);
+            StackPane.setAlignment(metricsHud, Pos.TOP_LEFT);
+            rootPane.setCenter(createRoundedContainer(canvasPane));
+            VBox.setVgrow(canvasPane, Priority.ALWAYS); // Let the viewport take all the space the window offers
+            rootPane.setRight(createRoundedContainer(new VBox(10, toolOptionsPanel, createLayersPanel())));
             rootPane.setBottom(createRoundedContainer(coordinateLabel));
             BorderPane.setAlignment(coordinateLabel, Pos.CENTER);
 
@@ -97,16 +150,35 @@ public class MainWindow extends Application {
             Scene scene = new Scene(rootPane, 1200, 600);
             applyDarkTheme(scene);  // Apply dark theme initially
 
+            // Undo and redo shortcuts
+            scene.getAccelerators().put(new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN), pixelCanvas::undo);
+            scene.getAccelerators().put(new KeyCodeCombination(KeyCode.Y, KeyCombination.SHORTCUT_DOWN), pixelCanvas::redo);
+            scene.getAccelerators().put(new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN), pixelCanvas::redo);
+
+            // Selection and clipboard shortcuts
+            scene.getAccelerators().put(new KeyCodeCombination(KeyCode.C, KeyCombination.SHORTCUT_DOWN), pixelCanvas::copySelection);
+            scene.getAccelerators().put(new KeyCodeCombination(KeyCode.X, KeyCombination.SHORTCUT_DOWN), pixelCanvas::cutSelection);
+            scene.getAccelerators().put(new KeyCodeCombination(KeyCode.V, KeyCombination.SHORTCUT_DOWN), pixelCanvas::paste);
+            scene.getAccelerators().put(new KeyCodeCombination(KeyCode.A, KeyCombination.SHORTCUT_DOWN), pixelCanvas::selectAll);
+            scene.getAccelerators().put(new KeyCodeCombination(KeyCode.DELETE), pixelCanvas::deleteSelection);
+            scene.getAccelerators().put(new KeyCodeCombination(KeyCode.ESCAPE), () -> pixelCanvas.setSelection(null));
+
             primaryStage.setTitle("Pixel Art Creator");
             primaryStage.setScene(scene);
 
             primaryStage.setOnCloseRequest((WindowEvent event) -> {
                 logger.info("Application is closing.");
+                if (autosave != null) { // Only started once the window is shown
+                    autosave.close(); // Flush the journal; unsaved work is offered again on the next start
+                }
+                toolLoader.close();
                 Platform.exit();
                 System.exit(0);
             });
 
+            reportFirstFrame(scene, startNanos);
             primaryStage.show();
+            startAutosave();
 
             logger.info("Pixel Art Creator started successfully.");
         } catch (Exception e) {
@@ -114,6 +186,21 @@ public class MainWindow extends Application {
         }
     }
 
+    // Log how long the first frame took, from JVM start and from the start of start(), once it has been laid out
+    private void reportFirstFrame(Scene scene, long startNanos) {
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                scene.removePostLayoutPulseListener(this);
+                long sinceStart = (System.nanoTime() - startNanos) / 1_000_000;
+                long sinceLaunch = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+                Metrics.gauge("startup.firstFrameMs", () -> sinceLaunch);
+                logger.info(String.format("First frame %d ms after launch, %d ms after start", sinceLaunch, sinceStart));
+            }
+        };
+        scene.addPostLayoutPulseListener(listener);
+    }
+
     private HBox createTopMenu() {
         HBox topMenu = new HBox(10);
         topMenu.setAlignment(Pos.CENTER_LEFT);
@@ -122,6 +209,26 @@ public class MainWindow extends Application {
         Label titleLabel = new Label("Pixel Art Creator");
         titleLabel.setStyle("-fx-text-fill: #fff;");
 
+        Button openButton = new Button("Open");
+        openButton.setStyle("-fx-background-color: #555; -fx-text-fill: #fff;");
+        openButton.setOnAction(e -> openProject());
+
+        Button saveButton = new Button("Save");
+        saveButton.setStyle("-fx-background-color: #555; -fx-text-fill: #fff;");
+        saveButton.setOnAction(e -> saveProject());
+
+        Button exportButton = new Button("Export PNG");
+        exportButton.setStyle("-fx-background-color: #555; -fx-text-fill: #fff;");
+        exportButton.setOnAction(e -> exportPng());
+
+        Button undoButton = new Button("Undo");
+        undoButton.setStyle("-fx-background-color: #555; -fx-text-fill: #fff;");
+        undoButton.setOnAction(e -> pixelCanvas.undo());
+
+        Button redoButton = new Button("Redo");
+        redoButton.setStyle("-fx-background-color: #555; -fx-text-fill: #fff;");
+        redoButton.setOnAction(e -> pixelCanvas.redo());
+
         // Add a spacer to push the icon to the right
         Region spacer = new Region();
         HBox.setHgrow(spacer, Priority.ALWAYS);
@@ -130,14 +237,153 @@ public class MainWindow extends Application {
         ImageView settingsIcon = loadSettingsIcon();
         if (settingsIcon != null) {
             settingsIcon.setOnMouseClicked(event -> openSettingsSidebar());
-            topMenu.getChildren().addAll(titleLabel, spacer, settingsIcon);  // Add spacer before the icon to keep it on the right
+            topMenu.getChildren().addAll(titleLabel, openButton, saveButton, exportButton, undoButton, redoButton, spacer, settingsIcon);  // Add spacer before the icon to keep it on the right
         } else {
-            topMenu.getChildren().add(titleLabel);
+            topMenu.getChildren().addAll(titleLabel, openButton, saveButton, exportButton, undoButton, redoButton);
         }
 
         return topMenu;
     }
 
+    // Offer to restore what a previous session left unsaved, then keep autosaving the open document
+    private void startAutosave() {
+        autosave = new AutosaveService(AutosaveService.DEFAULT_ROOT, () -> new ProjectFile(
+                pixelCanvas.getLayers().copy(), pixelCanvas.getGridSize(), ColorUtils.toArgb(pixelCanvas.getBackgroundColor())));
+        pixelCanvas.setDocumentListener(autosave);
+        if (!offerRecovery(autosave.open(null))) {
+            autosave.reset();
+        }
+    }
+
+    // Ask whether to load work a previous session left unsaved; returns whether it was loaded
+    private boolean offerRecovery(ProjectFile recovered) {
+        if (recovered == null) {
+            return false;
+        }
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION,
+                "The last session ended with unsaved changes. Recover them?", ButtonType.YES, ButtonType.NO);
+        alert.setHeaderText("Recover unsaved work");
+        alert.initOwner(primaryStage);
+        if (alert.showAndWait().orElse(ButtonType.NO) != ButtonType.YES) {
+            return false;
+        }
+        // Loading reports a document change, so the recovered work stays marked as unsaved
+        pixelCanvas.loadDocument(recovered.layers(), recovered.gridSize(), ColorUtils.toColor(recovered.backgroundColor()));
+        refreshLayers();
+        return true;
+    }
+
+    private void setUpMetrics() {
+        Runtime runtime = Runtime.getRuntime();
+        Metrics.gauge("memory.heapUsedMB", () -> (runtime.totalMemory() - runtime.freeMemory()) / (1024.0 * 1024));
+        Metrics.gauge("history.memoryMB", () -> pixelCanvas.getHistory().getMemoryUsed() / (1024.0 * 1024));
+        Metrics.gauge("canvas.layers", () -> pixelCanvas.getLayers().size());
+        Metrics.gauge("canvas.zoomPercent", () -> pixelCanvas.getZoomLevel() * 100);
+        Metrics.gauge("log.dropped", AppLogger::getDroppedCount);
+
+        metricsHud = new MetricsHud(Metrics.registry());
+        metricsShown.addListener((observable, wasShown, shown) -> {
+            Metrics.setEnabled(shown);
+            metricsHud.setVisible(shown);
+        });
+    }
+
+    private void dumpMetrics() {
+        FileChooser chooser = new FileChooser();
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("CSV", "*.csv"),
+                new FileChooser.ExtensionFilter("JSON", "*.json"));
+        File file = chooser.showSaveDialog(primaryStage);
+        if (file == null) {
+            return;
+        }
+        try {
+            Metrics.registry().dump(file.toPath());
+            logger.info("Wrote metrics to " + file);
+        } catch (Exception ex) {
+            logger.severe("Failed to write metrics: " + ex.getMessage());
+        }
+    }
+
+    private FileChooser createProjectChooser() {
+        FileChooser chooser = new FileChooser();
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Pixel Art Project", "*" + PROJECT_EXTENSION));
+        if (projectFile != null) {
+            chooser.setInitialDirectory(projectFile.getParentFile());
+            chooser.setInitialFileName(projectFile.getName());
+        }
+        return chooser;
+    }
+
+    private void saveProject() {
+        File file = createProjectChooser().showSaveDialog(primaryStage);
+        if (file == null) {
+            return;
+        }
+        if (!file.getName().endsWith(PROJECT_EXTENSION)) {
+            file = new File(file.getParentFile(), file.getName() + PROJECT_EXTENSION);
+        }
+        // Written on the autosave thread from a snapshot, so editing can go on while it saves
+        File target = file;
+        long start = System.nanoTime();
+        autosave.save(file.toPath()).whenComplete((ignored, ex) -> Platform.runLater(() -> {
+            if (ex != null) {
+                logger.severe("Failed to save project: " + ex.getMessage());
+                return;
+            }
+            projectFile = target;
+            logger.info(String.format("Saved project to %s in %d ms", target, (System.nanoTime() - start) / 1_000_000));
+        }));
+    }
+
+    private void openProject() {
+        File file = createProjectChooser().showOpenDialog(primaryStage);
+        if (file == null) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            ProjectFile project = fileHandler.loadProject(file);
+            pixelCanvas.loadDocument(project.layers(), project.gridSize(), ColorUtils.toColor(project.backgroundColor()));
+            projectFile = file;
+            refreshLayers();
+            if (!offerRecovery(autosave.open(file.toPath()))) {
+                autosave.reset();
+            }
+            logger.info(String.format("Opened project %s in %d ms", file, (System.nanoTime() - start) / 1_000_000));
+        } catch (Exception ex) {
+            logger.severe("Failed to open project: " + ex.getMessage());
+        }
+    }
+
+    private void exportPng() {
+        ChoiceDialog<Integer> scaleDialog = new ChoiceDialog<>(1, 1, 2, 4, 8, 16, 32);
+        scaleDialog.setHeaderText("Export PNG");
+        scaleDialog.setContentText("Pixels per cell:");
+        scaleDialog.initOwner(primaryStage);
+        Integer scale = scaleDialog.showAndWait().orElse(null);
+        if (scale == null) {
+            return;
+        }
+
+        FileChooser chooser = new FileChooser();
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PNG Image", "*.png"));
+        File file = chooser.showSaveDialog(primaryStage);
+        if (file == null) {
+            return;
+        }
+
+        // Encode a copy on the export thread so editing can continue meanwhile
+        long start = System.nanoTime();
+        pngExporter.exportAsync(pixelCanvas.copyComposite(), scale, file.toPath()).whenComplete((result, error) -> {
+            if (error != null) {
+                logger.severe("Failed to export PNG: " + error.getMessage());
+            } else {
+                logger.info(String.format("Exported %s at %dx in %d ms", file, scale, (System.nanoTime() - start) / 1_000_000));
+            }
+        });
+    }
+
     private ImageView loadSettingsIcon() {
         try {
             Image image = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/settings.png")));
@@ -192,7 +438,7 @@ public class MainWindow extends Application {
         toolOptionsPanel.getChildren().clear();
 
         if (activeTool != null) {
-            VBox optionsPanel = activeTool.createOptionsPanel();
+            VBox optionsPanel = optionsPanels.computeIfAbsent(activeTool, AbstractDrawingTool::createOptionsPanel);
             if (optionsPanel != null) {
                 toolOptionsPanel.getChildren().add(optionsPanel);
             } else {
@@ -203,18 +449,41 @@ public class MainWindow extends Application {
         }
     }
 
+    // Plugin tools were reloaded: drop instances of replaced or removed tools and rebuild the selector
+    private void toolsChanged() {
+        optionsPanels.keySet().removeIf(tool -> !toolLoader.isCurrent(tool));
+        if (activeTool != null && !toolLoader.isCurrent(activeTool)) {
+            String toolName = activeTool.getClass().getName();
+            Map<String, ToolDescriptor> tools = toolLoader.getTools();
+            if (!tools.containsKey(toolName)) {
+                toolName = tools.keySet().iterator().next(); // Removed, so fall back to the first tool
+            }
+            activeTool = toolLoader.getTool(toolName, pixelCanvas, colorPicker.getValue());
+            if (activeTool != null) {
+                activeTool.setColor(colorPicker.getValue());
+            }
+            updateToolOptionsPanel();
+        }
+        updateToolSelector();
+    }
+
     private void updateToolSelector() {
         toolBox.getChildren().clear();
 
-        Map<String, Class<? extends AbstractDrawingTool>> tools = toolLoader.getTools();
+        Map<String, ToolDescriptor> tools = toolLoader.getTools();
 
-        tools.forEach((toolName, toolClass) -> {
-            Button toolButton = new Button(toolClass.getSimpleName());
+        tools.forEach((toolName, descriptor) -> {
+            Button toolButton = new Button(descriptor.displayName());
             toolButton.setStyle("-fx-background-color: #555; -fx-text-fill: #fff;");
             toolButton.setOnAction(e -> {
-                activeTool = toolLoader.createTool(toolName, pixelCanvas, colorPicker.getValue());
+                AbstractDrawingTool tool = toolLoader.getTool(toolName, pixelCanvas, colorPicker.getValue());
+                if (tool == activeTool) {
+                    return;
+                }
+                activeTool = tool;
                 if (activeTool != null) {
-                    logger.info("Selected tool: " + toolName);
+                    activeTool.setColor(colorPicker.getValue()); // A reused tool still has the color it was last used with
+                    logger.fine(() -> "Selected tool: " + toolName);
                     updateToolOptionsPanel();
                 } else {
                     logger.warning("Failed to select tool: " + toolName);
@@ -226,6 +495,119 @@ public class MainWindow extends Application {
         toolBox.getChildren().add(colorPicker);
     }
 
+    private VBox createLayersPanel() {
+        Label layersLabel = new Label("Layers");
+        layersLabel.setStyle("-fx-text-fill: #fff;");
+
+        layerList = new ListView<>();
+        layerList.setPrefHeight(150);
+        layerList.setStyle("-fx-control-inner-background: #333;");
+        layerList.getSelectionModel().selectedIndexProperty().addListener((observable, oldValue, newValue) -> {
+            if (!refreshingLayers && newValue.intValue() >= 0) {
+                pixelCanvas.setActiveLayer(toLayerIndex(newValue.intValue()));
+                refreshLayers();
+            }
+        });
+
+        layerVisibleToggle = new CheckBox("Visible");
+        layerVisibleToggle.setStyle("-fx-text-fill: #fff;");
+        layerVisibleToggle.setOnAction(e -> {
+            pixelCanvas.setLayerVisible(pixelCanvas.getLayers().getActiveIndex(), layerVisibleToggle.isSelected());
+            refreshLayers();
+        });
+
+        Label opacityLabel = new Label("Opacity:");
+        opacityLabel.setStyle("-fx-text-fill: #fff;");
+        layerOpacitySlider = new Slider(0, 100, 100);
+        layerOpacitySlider.setStyle("-fx-control-inner-background: #333;");
+        // Recompositing every layer is not free, so only apply the opacity once a drag settles
+        layerOpacitySlider.valueProperty().addListener((observable, oldValue, newValue) -> {
+            if (!layerOpacitySlider.isValueChanging()) {
+                applyLayerOpacity();
+            }
+        });
+        layerOpacitySlider.valueChangingProperty().addListener((observable, wasChanging, changing) -> {
+            if (!changing) {
+                applyLayerOpacity();
+            }
+        });
+
+        layerBlendChoice = new ChoiceBox<>();
+        layerBlendChoice.getItems().addAll(BlendMode.values());
+        layerBlendChoice.setOnAction(e -> {
+            if (!refreshingLayers && layerBlendChoice.getValue() != null) {
+                pixelCanvas.setLayerBlendMode(pixelCanvas.getLayers().getActiveIndex(), layerBlendChoice.getValue());
+            }
+        });
+
+        Button addButton = createLayerButton("Add", () -> pixelCanvas.addLayer());
+        Button removeButton = createLayerButton("Remove", () -> pixelCanvas.removeLayer(pixelCanvas.getLayers().getActiveIndex()));
+        Button upButton = createLayerButton("Up", () -> {
+            LayerStack layers = pixelCanvas.getLayers();
+            if (layers.getActiveIndex() < layers.size() - 1) {
+                pixelCanvas.moveLayer(layers.getActiveIndex(), layers.getActiveIndex() + 1);
+            }
+        });
+        Button downButton = createLayerButton("Down", () -> {
+            LayerStack layers = pixelCanvas.getLayers();
+            if (layers.getActiveIndex() > 0) {
+                pixelCanvas.moveLayer(layers.getActiveIndex(), layers.getActiveIndex() - 1);
+            }
+        });
+
+        VBox layersPanel = new VBox(10, layersLabel, layerList,
+                new HBox(5, addButton, removeButton, upButton, downButton),
+                layerVisibleToggle, opacityLabel, layerOpacitySlider, layerBlendChoice);
+        layersPanel.setPadding(new Insets(10));
+        layersPanel.setStyle("-fx-background-color: #3A3A3A; -fx-background-radius: 10; -fx-border-color: #555;");
+        refreshLayers();
+        return layersPanel;
+    }
+
+    private Button createLayerButton(String text, Runnable action) {
+        Button button = new Button(text);
+        button.setStyle("-fx-background-color: #555; -fx-text-fill: #fff;");
+        button.setOnAction(e -> {
+            action.run();
+            refreshLayers();
+        });
+        return button;
+    }
+
+    private void applyLayerOpacity() {
+        if (refreshingLayers) {
+            return;
+        }
+        int activeIndex = pixelCanvas.getLayers().getActiveIndex();
+        double opacity = layerOpacitySlider.getValue() / 100;
+        if (Math.abs(opacity - pixelCanvas.getLayers().getLayer(activeIndex).getOpacity()) > 1e-9) {
+            pixelCanvas.setLayerOpacity(activeIndex, opacity);
+        }
+    }
+
+    // Sync the layer list and the active layer's controls with the canvas
+    private void refreshLayers() {
+        refreshingLayers = true;
+        LayerStack layers = pixelCanvas.getLayers();
+        layerList.getItems().clear();
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            Layer layer = layers.getLayer(i);
+            layerList.getItems().add(layer.isVisible() ? layer.getName() : layer.getName() + " (hidden)");
+        }
+        layerList.getSelectionModel().select(toLayerIndex(layers.getActiveIndex()));
+
+        Layer active = layers.getActiveLayer();
+        layerVisibleToggle.setSelected(active.isVisible());
+        layerOpacitySlider.setValue(active.getOpacity() * 100);
+        layerBlendChoice.setValue(active.getBlendMode());
+        refreshingLayers = false;
+    }
+
+    // The list shows the top layer first, so list rows and stack indices run in opposite directions
+    private int toLayerIndex(int row) {
+        return pixelCanvas.getLayers().size() - 1 - row;
+    }
+
     private VBox createControls() {
         Label widthLabel = new Label("Canvas Width:");
         widthLabel.setStyle("-fx-text-fill: #fff;");
@@ -237,19 +619,46 @@ public class MainWindow extends Application {
         TextField heightField = new TextField("32");
         heightField.setStyle("-fx-background-color: #333; -fx-text-fill: #fff;");
 
-        Label zoomLabel = new Label("Zoom:");
+        Label zoomLabel = new Label(formatZoom(pixelCanvas.getZoomLevel()));
         zoomLabel.setStyle("-fx-text-fill: #fff;");
-        Slider zoomSlider = new Slider(0.5, 2.0, 1.0); // Range from 50% to 200% zoom
+
+        // The slider works in powers of two so every doubling of the zoom gets the same travel
+        Slider zoomSlider = new Slider(log2(pixelCanvas.getMinZoomLevel()), log2(pixelCanvas.getMaxZoomLevel()), log2(pixelCanvas.getZoomLevel()));
         zoomSlider.setStyle("-fx-control-inner-background: #333; -fx-text-fill: #fff;");
         zoomSlider.setShowTickLabels(true);
         zoomSlider.setShowTickMarks(true);
-        zoomSlider.setMajorTickUnit(0.5);
-        zoomSlider.setBlockIncrement(0.1);
+        zoomSlider.setMajorTickUnit(2);
+        zoomSlider.setBlockIncrement(0.25);
+        zoomSlider.setLabelFormatter(new StringConverter<>() {
+            @Override
+            public String toString(Double value) {
+                return String.format("%.0f%%", Math.pow(2, value) * 100);
+            }
+
+            @Override
+            public Double fromString(String string) {
+                return null;
+            }
+        });
 
         zoomSlider.valueProperty().addListener((observable, oldValue, newValue) -> {
-            pixelCanvas.setZoomLevel(newValue.doubleValue());
+            double zoomLevel = Math.pow(2, newValue.doubleValue());
+            if (Math.abs(zoomLevel - pixelCanvas.getZoomLevel()) > 1e-9) {
+                pixelCanvas.setZoomLevel(zoomLevel);
+            }
+        });
+
+        // Ctrl + scroll zooms the canvas directly, so keep the slider in step
+        pixelCanvas.zoomLevelProperty().addListener((observable, oldValue, newValue) -> {
+            zoomSlider.setValue(log2(newValue.doubleValue()));
+            zoomLabel.setText(formatZoom(newValue.doubleValue()));
         });
 
+        Label undoMemoryLabel = new Label("Undo Memory (MB):");
+        undoMemoryLabel.setStyle("-fx-text-fill: #fff;");
+        TextField undoMemoryField = new TextField(String.valueOf(pixelCanvas.getHistory().getMemoryLimit() / (1024 * 1024)));
+        undoMemoryField.setStyle("-fx-background-color: #333; -fx-text-fill: #fff;");
+
         Button applyButton = new Button("Apply");
         applyButton.setStyle("-fx-background-color: #555; -fx-text-fill: #fff;");
         applyButton.setOnAction(e -> {
@@ -257,18 +666,45 @@ public class MainWindow extends Application {
                 int newWidth = Integer.parseInt(widthField.getText());
                 int newHeight = Integer.parseInt(heightField.getText());
 
-                pixelCanvas.resizeCanvasTo(newWidth, newHeight);
+                if (newWidth != pixelCanvas.getCanvasWidth() || newHeight != pixelCanvas.getCanvasHeight()) {
+                    pixelCanvas.resizeCanvasTo(newWidth, newHeight);
+                }
+
+                long undoMemory = Long.parseLong(undoMemoryField.getText());
+                pixelCanvas.getHistory().setMemoryLimit(undoMemory * 1024 * 1024);
 
             } catch (Exception ex) {
                 logger.severe("Failed to apply settings: " + ex.getMessage());
             }
         });
 
-        VBox controls = new VBox(10, widthLabel, widthField, heightLabel, heightField, zoomLabel, zoomSlider, applyButton);
+        // Shared by every copy of these controls, so the main panel and the settings sidebar stay in step
+        CheckBox metricsToggle = new CheckBox("Performance HUD");
+        metricsToggle.setStyle("-fx-text-fill: #fff;");
+        metricsToggle.selectedProperty().bindBidirectional(metricsShown);
+
+        Button dumpMetricsButton = new Button("Save Metrics");
+        dumpMetricsButton.setStyle("-fx-background-color: #555; -fx-text-fill: #fff;");
+        dumpMetricsButton.setOnAction(e -> dumpMetrics());
+
+        Button resetMetricsButton = new Button("Reset Metrics");
+        resetMetricsButton.setStyle("-fx-background-color: #555; -fx-text-fill: #fff;");
+        resetMetricsButton.setOnAction(e -> Metrics.registry().reset());
+
+        VBox controls = new VBox(10, widthLabel, widthField, heightLabel, heightField, zoomLabel, zoomSlider, undoMemoryLabel, undoMemoryField, applyButton,
+                metricsToggle, new HBox(5, dumpMetricsButton, resetMetricsButton));
         controls.setStyle("-fx-padding: 10; -fx-background-color: #2C2C2C; -fx-background-radius: 10;");
         return controls;
     }
 
+    private static double log2(double value) {
+        return Math.log(value) / Math.log(2);
+    }
+
+    private static String formatZoom(double zoomLevel) {
+        return String.format("Zoom: %.0f%%", zoomLevel * 100);
+    }
+
     private VBox createRoundedContainer(javafx.scene.Node content) {
         VBox container = new VBox(content);
         container.setPadding(new Insets(10));
@@ -285,35 +721,77 @@ public class MainWindow extends Application {
 
     private void handleMousePressed(MouseEvent event) {
         if (event.getButton() == MouseButton.PRIMARY && activeTool != null) {
-            int[] gridCoords = pixelCanvas.mapMouseToGrid(event);
-            activeTool.onMousePressed(gridCoords[0], gridCoords[1]);
-            handleMouseMoved(event); // Update coordinates on mouse press
+            long start = Metrics.start();
+            long cell = pixelCanvas.mapMouseToCell(event);
+            int gridX = PixelCanvas.cellX(cell);
+            int gridY = PixelCanvas.cellY(cell);
+            pixelCanvas.beginEdit(); // Everything up to the release is one undo step
+            dragSamples.start(gridX, gridY);
+            activeTool.onMousePressed(gridX, gridY);
+            showCoordinates(gridX, gridY);
+            pixelCanvas.inputHandled(start);
+            MOUSE_PRESSED_TIME.recordSince(start);
         }
     }
 
     private void handleMouseDragged(MouseEvent event) {
         if (event.getButton() == MouseButton.PRIMARY && activeTool != null) {
-            int[] gridCoords = pixelCanvas.mapMouseToGrid(event);
-            activeTool.onMouseDragged(gridCoords[0], gridCoords[1]);
-            handleMouseMoved(event); // Update coordinates on mouse drag
+            long start = Metrics.start();
+            long cell = pixelCanvas.mapMouseToCell(event);
+            int gridX = PixelCanvas.cellX(cell);
+            int gridY = PixelCanvas.cellY(cell);
+            // Gather positions until the next pulse; the first new one of a frame schedules the batch
+            if (dragSamples.add(gridX, gridY) && dragSamples.size() == 1) {
+                pixelCanvas.scheduleInput(flushDragSamples);
+            }
+            showCoordinates(gridX, gridY);
+            pixelCanvas.inputHandled(start);
+            MOUSE_DRAGGED_TIME.recordSince(start);
         }
     }
 
     private void handleMouseReleased(MouseEvent event) {
         if (event.getButton() == MouseButton.PRIMARY && activeTool != null) {
-            int[] gridCoords = pixelCanvas.mapMouseToGrid(event);
-            activeTool.onMouseReleased(gridCoords[0], gridCoords[1]);
-            handleMouseMoved(event); // Update coordinates on mouse release
+            long start = Metrics.start();
+            long cell = pixelCanvas.mapMouseToCell(event);
+            int gridX = PixelCanvas.cellX(cell);
+            int gridY = PixelCanvas.cellY(cell);
+            flushDragSamples(); // The stroke must reach the last dragged position before it ends
+            activeTool.onMouseReleased(gridX, gridY);
+            pixelCanvas.endEdit();
+            showCoordinates(gridX, gridY);
+            pixelCanvas.inputHandled(start);
+            MOUSE_RELEASED_TIME.recordSince(start);
         }
     }
 
-    private void handleMouseMoved(MouseEvent event) {
-        int[] gridCoords = pixelCanvas.mapMouseToGrid(event);
+    // Hand the drag positions gathered since the last pulse to the active tool in one call
+    private void flushDragSamples() {
+        if (!dragSamples.isEmpty() && activeTool != null) {
+            long start = Metrics.start();
+            DRAG_SAMPLES.add(dragSamples.size());
+            DRAG_BATCHES.increment();
+            activeTool.onMouseDragged(dragSamples);
+            DRAG_BATCH_TIME.recordSince(start);
+        }
+        dragSamples.clear();
+    }
 
-        int x = gridCoords[0] + 1;
-        int y = pixelCanvas.getCanvasHeight() - gridCoords[1]; // Updated to reflect new grid system
+    private void handleMouseMoved(MouseEvent event) {
+        long cell = pixelCanvas.mapMouseToCell(event);
+        showCoordinates(PixelCanvas.cellX(cell), PixelCanvas.cellY(cell));
+    }
 
-        coordinateLabel.setText(String.format("Coordinates: (%d, %d)", x, y));
+    // Only a move onto another cell changes the text, so moving within a cell builds no new label
+    private void showCoordinates(int gridX, int gridY) {
+        int x = gridX + 1;
+        int y = pixelCanvas.getCanvasHeight() - gridY; // Updated to reflect new grid system
+        if (x == shownX && y == shownY) {
+            return;
+        }
+        shownX = x;
+        shownY = y;
+        coordinateLabel.setText("Coordinates: (" + x + ", " + y + ")");
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,58 @@
+package net.rytale.pixelart.gui;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.control.Label;
+import javafx.util.Duration;
+import net.rytale.pixelart.metrics.Counter;
+import net.rytale.pixelart.metrics.Gauge;
+import net.rytale.pixelart.metrics.LatencyHistogram;
+import net.rytale.pixelart.metrics.MetricsRegistry;
+
+import java.util.Locale;
+
+/**
+ * Semi-transparent text overlay with the current metrics, refreshed twice a second while shown.
+ */
+public class MetricsHud extends Label {
+    private static final Duration REFRESH_INTERVAL = Duration.millis(500);
+
+    private final MetricsRegistry registry;
+    private final Timeline refresh;
+
+    public MetricsHud(MetricsRegistry registry) {
+        this.registry = registry;
+        setStyle("-fx-background-color: rgba(0, 0, 0, 0.7); -fx-text-fill: #9f9; -fx-padding: 6;"
+                + "-fx-font-family: monospace; -fx-font-size: 11px; -fx-background-radius: 5;");
+        setMouseTransparent(true); // Never steal input from the canvas underneath
+        setVisible(false);
+
+        refresh = new Timeline(new KeyFrame(REFRESH_INTERVAL, e -> update()));
+        refresh.setCycleCount(Timeline.INDEFINITE);
+        visibleProperty().addListener((observable, wasVisible, visible) -> {
+            if (visible) {
+                update();
+                refresh.play();
+            } else {
+                refresh.stop();
+            }
+        });
+    }
+
+    private void update() {
+        StringBuilder text = new StringBuilder(String.format(Locale.ROOT, "%-32s %7s %8s %8s %8s%n", "ms", "count", "p50", "p99", "max"));
+        for (LatencyHistogram histogram : registry.getHistograms()) {
+            if (histogram.getCount() > 0) {
+                text.append(String.format(Locale.ROOT, "%-32s %7d %8.3f %8.3f %8.3f%n", histogram.getName(), histogram.getCount(),
+                        histogram.getPercentileNanos(50) / 1e6, histogram.getPercentileNanos(99) / 1e6, histogram.getMaxNanos() / 1e6));
+            }
+        }
+        for (Counter counter : registry.getCounters()) {
+            text.append(String.format(Locale.ROOT, "%-32s %7d%n", counter.getName(), counter.getCount()));
+        }
+        for (Gauge gauge : registry.getGauges()) {
+            text.append(String.format(Locale.ROOT, "%-32s %7.1f%n", gauge.getName(), gauge.getValue()));
+        }
+        setText(text.toString().stripTrailing());
+    }
+}
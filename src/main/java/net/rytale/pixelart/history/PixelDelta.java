@@ -0,0 +1,181 @@
+package net.rytale.pixelart.history;
+
+import net.rytale.pixelart.layers.Layer;
+import net.rytale.pixelart.layers.PixelBuffer;
+
+import java.util.Arrays;
+
+/**
+ * The cells changed by one edit, with their values before and after.
+ * <p>
+ * Changes are stored as runs of consecutive cell indices ({@code y * width + x}) that share the
+ * same old and new color, so a fill or rectangle over a uniform area costs a handful of runs
+ * rather than one entry per cell. Runs are kept in recording order: reverting walks them backwards
+ * and reapplying walks them forwards, so a cell written twice in one edit restores correctly.
+ */
+public class PixelDelta {
+    private static final int RUN_FIELDS = 4; // start index, length, old color, new color
+
+    private final Layer layer; // Layer the edit was made on, or null for a partial delta
+    private final int width; // Canvas width the indices were recorded against
+    private boolean continued; // Undone and redone in one step with the edit recorded before it
+    private int[] runs = new int[RUN_FIELDS * 16];
+    private int runCount;
+    private long cellCount;
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+
+    public PixelDelta(int width) {
+        this(null, width);
+    }
+
+    public PixelDelta(Layer layer, int width) {
+        this.layer = layer;
+        this.width = width;
+    }
+
+    public void record(int x, int y, int oldArgb, int newArgb) {
+        int index = y * width + x;
+        cellCount++;
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+
+        if (runCount > 0) {
+            int last = (runCount - 1) * RUN_FIELDS;
+            if (runs[last] + runs[last + 1] == index && runs[last + 2] == oldArgb && runs[last + 3] == newArgb) {
+                runs[last + 1]++;
+                return;
+            }
+        }
+        addRun(index, 1, oldArgb, newArgb);
+    }
+
+    /**
+     * Appends every run of {@code other}, which must have been recorded against the same width.
+     * Used to merge deltas that were recorded in parallel.
+     */
+    public void append(PixelDelta other) {
+        for (int i = 0; i < other.runCount; i++) {
+            int o = i * RUN_FIELDS;
+            addRun(other.runs[o], other.runs[o + 1], other.runs[o + 2], other.runs[o + 3]);
+        }
+        cellCount += other.cellCount;
+        minX = Math.min(minX, other.minX);
+        minY = Math.min(minY, other.minY);
+        maxX = Math.max(maxX, other.maxX);
+        maxY = Math.max(maxY, other.maxY);
+    }
+
+    // Restore every cell to the value it had before the edit
+    public void revert(PixelBuffer buffer) {
+        for (int i = runCount - 1; i >= 0; i--) {
+            int o = i * RUN_FIELDS;
+            fillRun(buffer, runs[o], runs[o + 1], runs[o + 2]);
+        }
+    }
+
+    // Write every cell's value from after the edit again
+    public void reapply(PixelBuffer buffer) {
+        for (int i = 0; i < runCount; i++) {
+            int o = i * RUN_FIELDS;
+            fillRun(buffer, runs[o], runs[o + 1], runs[o + 3]);
+        }
+    }
+
+    public boolean isEmpty() {
+        return runCount == 0;
+    }
+
+    public int getRunCount() {
+        return runCount;
+    }
+
+    public long getCellCount() {
+        return cellCount;
+    }
+
+    public boolean isContinued() {
+        return continued;
+    }
+
+    public void setContinued(boolean continued) {
+        this.continued = continued;
+    }
+
+    public Layer getLayer() {
+        return layer;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getRunStart(int index) {
+        return runs[index * RUN_FIELDS];
+    }
+
+    public int getRunLength(int index) {
+        return runs[index * RUN_FIELDS + 1];
+    }
+
+    public int getRunOldColor(int index) {
+        return runs[index * RUN_FIELDS + 2];
+    }
+
+    public int getRunNewColor(int index) {
+        return runs[index * RUN_FIELDS + 3];
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    // Approximate heap footprint, used to enforce the history's memory limit
+    public long getMemoryUsage() {
+        return 64L + runs.length * 4L;
+    }
+
+    // Drop unused capacity once recording is finished
+    public void trim() {
+        if (runs.length > runCount * RUN_FIELDS) {
+            runs = Arrays.copyOf(runs, runCount * RUN_FIELDS);
+        }
+    }
+
+    private void addRun(int start, int length, int oldArgb, int newArgb) {
+        if ((runCount + 1) * RUN_FIELDS > runs.length) {
+            runs = Arrays.copyOf(runs, Math.max(RUN_FIELDS * 16, runs.length * 2));
+        }
+        int o = runCount * RUN_FIELDS;
+        runs[o] = start;
+        runs[o + 1] = length;
+        runs[o + 2] = oldArgb;
+        runs[o + 3] = newArgb;
+        runCount++;
+    }
+
+    // A run may continue onto following rows, so split it at row ends
+    private void fillRun(PixelBuffer buffer, int start, int length, int argb) {
+        while (length > 0) {
+            int y = start / width;
+            int x = start - y * width;
+            int count = Math.min(length, width - x);
+            buffer.fillSpan(y, x, x + count - 1, argb);
+            start += count;
+            length -= count;
+        }
+    }
+}
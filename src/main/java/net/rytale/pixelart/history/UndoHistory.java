@@ -0,0 +1,182 @@
+package net.rytale.pixelart.history;
+
+import net.rytale.pixelart.layers.Layer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Undo and redo stacks of {@link PixelDelta}s, one per edit.
+ * <p>
+ * An edit is opened with {@link #begin(Layer, int)}, collects changes through {@link #getCurrent()} and is
+ * pushed by {@link #end()}. An edit that changes several layers is recorded as one delta per layer,
+ * each after the first marked {@linkplain PixelDelta#isContinued() continued}, and the caller undoes
+ * and redoes such a group as one step. The combined size of both stacks is kept under a memory limit
+ * by evicting the oldest undo steps; the most recent step is always kept.
+ */
+public class UndoHistory {
+    public static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024; // 64 MB
+
+    private final Deque<PixelDelta> undoStack = new ArrayDeque<>();
+    private final Deque<PixelDelta> redoStack = new ArrayDeque<>();
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+    private long memoryUsed;
+    private PixelDelta current; // Edit being recorded, or null
+
+    // Start recording an edit to a layer of a canvas with the given width; an edit still open is committed first
+    public void begin(Layer layer, int canvasWidth) {
+        begin(layer, canvasWidth, false);
+    }
+
+    // Start recording an edit that is undone and redone in one step with the previous one
+    public void begin(Layer layer, int canvasWidth, boolean continued) {
+        end();
+        current = new PixelDelta(layer, canvasWidth);
+        current.setContinued(continued);
+    }
+
+    /**
+     * Finishes the open edit and pushes it if it changed anything.
+     *
+     * @return The edit that was pushed, or null if there was no open edit or it changed nothing.
+     */
+    public PixelDelta end() {
+        if (current == null) {
+            return null;
+        }
+        PixelDelta finished = current;
+        current = null;
+        if (finished.isEmpty()) {
+            return null;
+        }
+
+        finished.trim();
+        undoStack.push(finished);
+        memoryUsed += finished.getMemoryUsage();
+        for (PixelDelta discarded : redoStack) {
+            memoryUsed -= discarded.getMemoryUsage();
+        }
+        redoStack.clear();
+        evict();
+        return finished;
+    }
+
+    public boolean isRecording() {
+        return current != null;
+    }
+
+    public PixelDelta getCurrent() {
+        return current;
+    }
+
+    /**
+     * Moves the newest edit onto the redo stack.
+     *
+     * @return The edit to revert, or null if there is nothing to undo or an edit is still open.
+     */
+    public PixelDelta undo() {
+        if (current != null || undoStack.isEmpty()) {
+            return null;
+        }
+        PixelDelta delta = undoStack.pop();
+        redoStack.push(delta);
+        return delta;
+    }
+
+    /**
+     * Moves the most recently undone edit back onto the undo stack.
+     *
+     * @return The edit to reapply, or null if there is nothing to redo or an edit is still open.
+     */
+    public PixelDelta redo() {
+        if (current != null || redoStack.isEmpty()) {
+            return null;
+        }
+        PixelDelta delta = redoStack.pop();
+        undoStack.push(delta);
+        return delta;
+    }
+
+    // Whether the next edit to redo belongs to the same step as the one just redone
+    public boolean isRedoContinued() {
+        return !redoStack.isEmpty() && redoStack.peek().isContinued();
+    }
+
+    /**
+     * Drops every edit made to a layer that was removed from the document, so undo never spends a
+     * step on it. An edit that continued a dropped one starts its step instead.
+     */
+    public void removeLayer(Layer layer) {
+        removeLayer(undoStack.descendingIterator(), layer); // Oldest first
+        removeLayer(redoStack.iterator(), layer);           // Next to redo first
+    }
+
+    private void removeLayer(Iterator<PixelDelta> edits, Layer layer) {
+        boolean stepStartRemoved = false;
+        while (edits.hasNext()) {
+            PixelDelta delta = edits.next();
+            if (delta.getLayer() == layer) {
+                stepStartRemoved |= !delta.isContinued();
+                memoryUsed -= delta.getMemoryUsage();
+                edits.remove();
+            } else {
+                if (stepStartRemoved && delta.isContinued()) {
+                    delta.setContinued(false);
+                }
+                stepStartRemoved = false;
+            }
+        }
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = Math.max(0, memoryLimit);
+        evict();
+    }
+
+    public void clear() {
+        current = null;
+        undoStack.clear();
+        redoStack.clear();
+        memoryUsed = 0;
+    }
+
+    // Drop the oldest entries until the history fits, redo entries first since they are the least likely to be used
+    private void evict() {
+        while (memoryUsed > memoryLimit && !redoStack.isEmpty()) {
+            memoryUsed -= redoStack.removeLast().getMemoryUsage();
+        }
+        while (memoryUsed > memoryLimit && hasOlderStep()) {
+            // Evict whole steps, so a group is never left partly undoable
+            do {
+                memoryUsed -= undoStack.removeLast().getMemoryUsage();
+            } while (!undoStack.isEmpty() && undoStack.peekLast().isContinued());
+        }
+    }
+
+    // Whether the undo stack holds more than the most recent step
+    private boolean hasOlderStep() {
+        for (PixelDelta delta : undoStack) {
+            if (!delta.isContinued()) {
+                return delta != undoStack.peekLast();
+            }
+        }
+        return false;
+    }
+}
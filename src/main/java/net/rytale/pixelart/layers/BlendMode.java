@@ -0,0 +1,62 @@
+package net.rytale.pixelart.layers;
+
+/**
+ * How a layer's colors combine with the layers beneath it.
+ * <p>
+ * Colors are non-premultiplied ARGB. The blend only affects the part of a cell where both the
+ * layer and its backdrop are opaque; elsewhere the layer's own color shows through, as in
+ * ordinary source-over compositing.
+ */
+public enum BlendMode {
+    NORMAL("Normal"),
+    MULTIPLY("Multiply"),
+    SCREEN("Screen"),
+    ADDITIVE("Additive");
+
+    private final String displayName;
+
+    BlendMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    /**
+     * Composites {@code src} over {@code dst} after scaling its alpha by {@code opacity} (0 to 255).
+     */
+    public int composite(int dst, int src, int opacity) {
+        int sa = ((src >>> 24) * opacity + 127) / 255;
+        if (sa == 0) {
+            return dst;
+        }
+        int da = dst >>> 24;
+        if (da == 0) {
+            return (sa << 24) | (src & 0x00FFFFFF);
+        }
+
+        int outA = sa + (da * (255 - sa) + 127) / 255;
+        int dstWeight = da * (255 - sa); // Backdrop contribution, scaled by 255
+        int r = channel((src >> 16) & 0xFF, (dst >> 16) & 0xFF, sa, da, dstWeight, outA);
+        int g = channel((src >> 8) & 0xFF, (dst >> 8) & 0xFF, sa, da, dstWeight, outA);
+        int b = channel(src & 0xFF, dst & 0xFF, sa, da, dstWeight, outA);
+        return (outA << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private int channel(int cs, int cd, int sa, int da, int dstWeight, int outA) {
+        // Mix the source with the blend result where the backdrop is opaque, then source-over
+        int mixed = this == NORMAL ? cs : ((255 - da) * cs + da * blend(cs, cd) + 127) / 255;
+        return Math.min(255, (mixed * sa * 255 + cd * dstWeight + (outA * 255) / 2) / (outA * 255));
+    }
+
+    private int blend(int cs, int cd) {
+        return switch (this) {
+            case NORMAL -> cs;
+            case MULTIPLY -> (cs * cd + 127) / 255;
+            case SCREEN -> cs + cd - (cs * cd + 127) / 255;
+            case ADDITIVE -> Math.min(255, cs + cd);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
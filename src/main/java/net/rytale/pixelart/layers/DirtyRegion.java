@@ -0,0 +1,94 @@
+package net.rytale.pixelart.layers;
+
+/**
+ * Collects changed grid cells as a small set of merged rectangles.
+ * <p>
+ * Rectangles are stored as inclusive cell bounds in a flat {@code int[]} so that marking cells
+ * dirty never allocates. A new rectangle is merged into an existing one when the union wastes
+ * little area; once {@link #MAX_RECTS} are in use, it is merged into whichever rectangle grows least.
+ */
+public class DirtyRegion {
+    public static final int MAX_RECTS = 16;
+    private static final int MERGE_SLACK = 64; // Extra cells we accept repainting to avoid another rectangle
+
+    private final int[] rects = new int[MAX_RECTS * 4]; // minX, minY, maxX, maxY per rectangle
+    private int count;
+
+    public void addCell(int x, int y) {
+        add(x, y, x, y);
+    }
+
+    /**
+     * Marks the inclusive cell range [minX, maxX] x [minY, maxY] as dirty.
+     */
+    public void add(int minX, int minY, int maxX, int maxY) {
+        int best = -1;
+        long bestGrowth = Long.MAX_VALUE;
+
+        for (int i = 0; i < count; i++) {
+            int o = i * 4;
+            long growth = unionArea(o, minX, minY, maxX, maxY) - area(rects[o], rects[o + 1], rects[o + 2], rects[o + 3]);
+            if (growth <= 0) {
+                return; // Already covered
+            }
+            if (growth < bestGrowth) {
+                bestGrowth = growth;
+                best = i;
+            }
+        }
+
+        long added = area(minX, minY, maxX, maxY);
+        if (best >= 0 && (bestGrowth <= added + MERGE_SLACK || count == MAX_RECTS)) {
+            int o = best * 4;
+            rects[o] = Math.min(rects[o], minX);
+            rects[o + 1] = Math.min(rects[o + 1], minY);
+            rects[o + 2] = Math.max(rects[o + 2], maxX);
+            rects[o + 3] = Math.max(rects[o + 3], maxY);
+            return;
+        }
+
+        int o = count * 4;
+        rects[o] = minX;
+        rects[o + 1] = minY;
+        rects[o + 2] = maxX;
+        rects[o + 3] = maxY;
+        count++;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getMinX(int index) {
+        return rects[index * 4];
+    }
+
+    public int getMinY(int index) {
+        return rects[index * 4 + 1];
+    }
+
+    public int getMaxX(int index) {
+        return rects[index * 4 + 2];
+    }
+
+    public int getMaxY(int index) {
+        return rects[index * 4 + 3];
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    private long unionArea(int o, int minX, int minY, int maxX, int maxY) {
+        return area(Math.min(rects[o], minX), Math.min(rects[o + 1], minY),
+                Math.max(rects[o + 2], maxX), Math.max(rects[o + 3], maxY));
+    }
+
+    private static long area(int minX, int minY, int maxX, int maxY) {
+        return (long) (maxX - minX + 1) * (maxY - minY + 1);
+    }
+}
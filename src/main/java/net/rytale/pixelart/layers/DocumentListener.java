@@ -0,0 +1,29 @@
+package net.rytale.pixelart.layers;
+
+import net.rytale.pixelart.history.PixelDelta;
+
+/**
+ * Notified by a {@link PixelCanvas} whenever its document changes. Calls are made on the JavaFX
+ * application thread.
+ */
+public interface DocumentListener {
+
+    /**
+     * An edit was committed or redone ({@code reverted} is false), or undone ({@code reverted} is true).
+     * The delta is no longer modified once it is reported, so it may be read from another thread.
+     *
+     * @param layerIndex Index of the edited layer in the stack at the time of the call.
+     */
+    void pixelsChanged(PixelDelta delta, int layerIndex, boolean reverted);
+
+    /**
+     * A layer's visibility, opacity or blend mode changed. Its pixels and its place in the stack did not.
+     */
+    void layerChanged(int layerIndex, boolean visible, double opacity, BlendMode blendMode);
+
+    /**
+     * The document changed in some other way, or was replaced entirely: layers were added, removed or
+     * reordered, the background changed, or the canvas was resized or loaded.
+     */
+    void documentChanged();
+}
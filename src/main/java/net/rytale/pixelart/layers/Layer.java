@@ -0,0 +1,79 @@
+package net.rytale.pixelart.layers;
+
+/**
+ * One layer of a document: its pixels plus how it is composited onto the layers below.
+ * <p>
+ * Changing visibility, opacity or blend mode does not repaint anything by itself; go through
+ * {@link PixelCanvas} or call {@link LayerStack#invalidateCaches()} afterwards.
+ */
+public class Layer {
+    private String name;
+    private PixelBuffer pixels;
+    private boolean visible = true;
+    private double opacity = 1.0; // 0.0 (invisible) to 1.0 (opaque)
+    private BlendMode blendMode = BlendMode.NORMAL;
+
+    public Layer(String name, PixelBuffer pixels) {
+        this.name = name;
+        this.pixels = pixels;
+    }
+
+    // A layer with the same settings and its own copy of the pixels
+    public Layer copy() {
+        Layer copy = new Layer(name, pixels.copy());
+        copy.visible = visible;
+        copy.opacity = opacity;
+        copy.blendMode = blendMode;
+        return copy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public PixelBuffer getPixels() {
+        return pixels;
+    }
+
+    void setPixels(PixelBuffer pixels) {
+        this.pixels = pixels;
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    public double getOpacity() {
+        return opacity;
+    }
+
+    public void setOpacity(double opacity) {
+        this.opacity = Math.max(0, Math.min(1, opacity));
+    }
+
+    // Opacity scaled to 0..255 for the compositing loops
+    int getOpacity255() {
+        return (int) Math.round(opacity * 255);
+    }
+
+    public BlendMode getBlendMode() {
+        return blendMode;
+    }
+
+    public void setBlendMode(BlendMode blendMode) {
+        this.blendMode = blendMode;
+    }
+
+    // Whether the layer contributes anything to the composite
+    boolean isShown() {
+        return visible && getOpacity255() > 0;
+    }
+}
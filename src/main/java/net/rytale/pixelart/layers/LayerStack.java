@@ -0,0 +1,343 @@
+package net.rytale.pixelart.layers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static net.rytale.pixelart.layers.PixelBuffer.TILE_SHIFT;
+import static net.rytale.pixelart.layers.PixelBuffer.TILE_SIZE;
+
+/**
+ * The layers of a document, bottom to top, and their flattened composite.
+ * <p>
+ * Edits go to the active layer. The visible layers below it are kept pre-flattened in one buffer,
+ * and so are the layers above it as long as they all blend normally, so refreshing the composite
+ * after an edit blends at most three buffers over the changed cells however many layers there are.
+ * If a layer above the active one uses another blend mode, the layers above are blended one by one.
+ * The cached buffers are rebuilt after {@link #invalidateCaches()}, which must be called whenever
+ * anything other than the active layer's pixels changes. Picking another active layer changes
+ * nothing on screen, so it only re-splits the stack around it, lazily before the next update.
+ */
+public class LayerStack {
+    private final List<Layer> layers = new ArrayList<>(); // Bottom to top
+    private int activeIndex;
+    private int width, height;
+    private int nextLayerNumber = 1; // For default layer names
+
+    private PixelBuffer composite;   // Every visible layer flattened; what the view shows
+    private PixelBuffer below;       // Visible layers under the active one flattened, or null if there are none
+    private PixelBuffer above;       // Visible layers over the active one flattened, or null if there are none
+    private boolean aboveFlattened;  // False if a layer above needs its own blend pass
+    private boolean cachesValid;     // False if below and above no longer match the active layer
+    private boolean compositeValid;  // False if the whole composite must be flattened again
+
+    // Buffers blended into the composite, bottom to top, with their opacity (0 to 255) and blend mode
+    private PixelBuffer[] sources = new PixelBuffer[4];
+    private int[] sourceOpacities = new int[4];
+    private BlendMode[] sourceModes = new BlendMode[4];
+    private int sourceCount;
+
+    public LayerStack(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.composite = new PixelBuffer(width, height);
+        addLayer();
+    }
+
+    // A stack of existing layers, bottom to top, with the top one active
+    public LayerStack(int width, int height, List<Layer> layers) {
+        this.width = width;
+        this.height = height;
+        this.composite = new PixelBuffer(width, height);
+        for (Layer layer : layers) {
+            addLayer(layer);
+        }
+        if (this.layers.isEmpty()) {
+            addLayer();
+        }
+        nextLayerNumber = this.layers.size() + 1;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int size() {
+        return layers.size();
+    }
+
+    public Layer getLayer(int index) {
+        return layers.get(index);
+    }
+
+    // Bottom to top
+    public List<Layer> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    public int getActiveIndex() {
+        return activeIndex;
+    }
+
+    public Layer getActiveLayer() {
+        return layers.get(activeIndex);
+    }
+
+    public void setActiveIndex(int index) {
+        if (index < 0 || index >= layers.size()) {
+            throw new IndexOutOfBoundsException("No layer at index " + index);
+        }
+        if (index != activeIndex) {
+            activeIndex = index;
+            cachesValid = false; // The composite stays as it is
+        }
+    }
+
+    // Add an empty layer directly above the active one and make it active
+    public Layer addLayer() {
+        return addLayer(new Layer("Layer " + nextLayerNumber++, new PixelBuffer(width, height)));
+    }
+
+    public Layer addLayer(Layer layer) {
+        if (layer.getPixels().getWidth() != width || layer.getPixels().getHeight() != height) {
+            throw new IllegalArgumentException("Layer size does not match the document: "
+                    + layer.getPixels().getWidth() + "x" + layer.getPixels().getHeight());
+        }
+        int index = layers.isEmpty() ? 0 : activeIndex + 1;
+        layers.add(index, layer);
+        activeIndex = index;
+        invalidateCaches();
+        return layer;
+    }
+
+    // Remove a layer; the last remaining layer cannot be removed
+    public boolean removeLayer(int index) {
+        if (layers.size() <= 1) {
+            return false;
+        }
+        layers.remove(index);
+        if (activeIndex > index || activeIndex == layers.size()) {
+            activeIndex--;
+        }
+        invalidateCaches();
+        return true;
+    }
+
+    // Move a layer to another position in the stack; the active layer stays active
+    public void moveLayer(int fromIndex, int toIndex) {
+        if (fromIndex == toIndex) {
+            return;
+        }
+        Layer active = getActiveLayer();
+        layers.add(toIndex, layers.remove(fromIndex));
+        activeIndex = layers.indexOf(active);
+        invalidateCaches();
+    }
+
+    // Resize every layer, keeping existing cells anchored top-left
+    public void resize(int newWidth, int newHeight) {
+        width = newWidth;
+        height = newHeight;
+        for (Layer layer : layers) {
+            layer.setPixels(layer.getPixels().resized(newWidth, newHeight));
+        }
+        composite = new PixelBuffer(newWidth, newHeight);
+        below = null;
+        above = null;
+        invalidateCaches();
+    }
+
+    /**
+     * Returns an independent copy of the layers and their settings, for example to save in the
+     * background while editing continues. Only the pixels are copied, not the composite, and their
+     * tiles are shared until either side writes to them, see {@link PixelBuffer#copy()}.
+     */
+    public LayerStack copy() {
+        List<Layer> copies = new ArrayList<>(layers.size());
+        for (Layer layer : layers) {
+            copies.add(layer.copy());
+        }
+        LayerStack copy = new LayerStack(width, height, copies);
+        copy.activeIndex = activeIndex;
+        copy.nextLayerNumber = nextLayerNumber;
+        return copy;
+    }
+
+    public void clear() {
+        for (Layer layer : layers) {
+            layer.getPixels().clear();
+        }
+        invalidateCaches();
+    }
+
+    // Mark the flattened buffers stale; the next update rebuilds them and the whole composite
+    public void invalidateCaches() {
+        cachesValid = false;
+        compositeValid = false;
+    }
+
+    /**
+     * Returns the flattened image. It reflects every change up to the last
+     * {@link #updateComposite} call covering the changed cells.
+     */
+    public PixelBuffer getComposite() {
+        return composite;
+    }
+
+    /**
+     * Recomputes the composite over the inclusive cell range [minX, maxX] x [minY, maxY] after the
+     * active layer changed there. If the caches are stale they are rebuilt first, and so is the whole
+     * composite if it was invalidated too.
+     */
+    public void updateComposite(int minX, int minY, int maxX, int maxY) {
+        if (!cachesValid) {
+            rebuildCaches();
+        }
+        if (!compositeValid) {
+            flatten(composite, 0, 0, width - 1, height - 1);
+            compositeValid = true;
+            return;
+        }
+        flatten(composite, Math.max(0, minX), Math.max(0, minY), Math.min(width - 1, maxX), Math.min(height - 1, maxY));
+    }
+
+    private void rebuildCaches() {
+        below = flattenLayers(below, 0, activeIndex);
+
+        aboveFlattened = true;
+        for (int i = activeIndex + 1; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            if (layer.isShown() && layer.getBlendMode() != BlendMode.NORMAL) {
+                aboveFlattened = false; // Blending depends on the backdrop, so it cannot be done ahead of time
+            }
+        }
+        above = aboveFlattened ? flattenLayers(above, activeIndex + 1, layers.size()) : null;
+        cachesValid = true;
+
+        // Sources for every later composite update
+        sourceCount = 0;
+        if (below != null) {
+            addSource(below, 255, BlendMode.NORMAL);
+        }
+        Layer active = getActiveLayer();
+        if (active.isShown()) {
+            addSource(active.getPixels(), active.getOpacity255(), active.getBlendMode());
+        }
+        if (aboveFlattened) {
+            if (above != null) {
+                addSource(above, 255, BlendMode.NORMAL);
+            }
+        } else {
+            addLayerSources(activeIndex + 1, layers.size());
+        }
+    }
+
+    // Flatten the visible layers in [fromIndex, toIndex) into target, reusing it if possible; null if none are visible
+    private PixelBuffer flattenLayers(PixelBuffer target, int fromIndex, int toIndex) {
+        sourceCount = 0;
+        addLayerSources(fromIndex, toIndex);
+        if (sourceCount == 0) {
+            return null;
+        }
+        if (target == null) {
+            target = new PixelBuffer(width, height);
+        }
+        flatten(target, 0, 0, width - 1, height - 1);
+        return target;
+    }
+
+    private void addLayerSources(int fromIndex, int toIndex) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            Layer layer = layers.get(i);
+            if (layer.isShown()) {
+                addSource(layer.getPixels(), layer.getOpacity255(), layer.getBlendMode());
+            }
+        }
+    }
+
+    private void addSource(PixelBuffer buffer, int opacity, BlendMode mode) {
+        if (sourceCount == sources.length) {
+            sources = Arrays.copyOf(sources, sourceCount * 2);
+            sourceOpacities = Arrays.copyOf(sourceOpacities, sourceCount * 2);
+            sourceModes = Arrays.copyOf(sourceModes, sourceCount * 2);
+        }
+        sources[sourceCount] = buffer;
+        sourceOpacities[sourceCount] = opacity;
+        sourceModes[sourceCount] = mode;
+        sourceCount++;
+    }
+
+    // Blend the current sources over transparency into target, one tile at a time, skipping tiles no source painted
+    private void flatten(PixelBuffer target, int minX, int minY, int maxX, int maxY) {
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+        for (int tileY = minY >> TILE_SHIFT; tileY <= maxY >> TILE_SHIFT; tileY++) {
+            int originY = tileY << TILE_SHIFT;
+            int fromRow = Math.max(minY, originY) - originY;
+            int toRow = Math.min(maxY, originY + TILE_SIZE - 1) - originY;
+
+            for (int tileX = minX >> TILE_SHIFT; tileX <= maxX >> TILE_SHIFT; tileX++) {
+                int originX = tileX << TILE_SHIFT;
+                int fromColumn = Math.max(minX, originX) - originX;
+                int toColumn = Math.min(maxX, originX + TILE_SIZE - 1) - originX;
+
+                int first = 0;
+                while (first < sourceCount && sources[first].isTileEmpty(tileX, tileY)) {
+                    first++;
+                }
+                if (first == sourceCount) {
+                    if (!target.isTileEmpty(tileX, tileY)) {
+                        clearTile(target.getWritableTile(tileX, tileY), fromRow, toRow, fromColumn, toColumn);
+                    }
+                    continue;
+                }
+
+                int[] out = target.getWritableTile(tileX, tileY);
+                int[] in = sources[first].getTile(tileX, tileY);
+                if (sourceOpacities[first] == 255) {
+                    // Nothing to blend with yet, so the lowest source is copied as it is
+                    for (int row = fromRow; row <= toRow; row++) {
+                        int start = (row << TILE_SHIFT) + fromColumn;
+                        System.arraycopy(in, start, out, start, toColumn - fromColumn + 1);
+                    }
+                } else {
+                    clearTile(out, fromRow, toRow, fromColumn, toColumn);
+                    blendTile(out, in, sourceOpacities[first], sourceModes[first], fromRow, toRow, fromColumn, toColumn);
+                }
+
+                for (int s = first + 1; s < sourceCount; s++) {
+                    if (!sources[s].isTileEmpty(tileX, tileY)) {
+                        blendTile(out, sources[s].getTile(tileX, tileY), sourceOpacities[s], sourceModes[s],
+                                fromRow, toRow, fromColumn, toColumn);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void blendTile(int[] out, int[] in, int opacity, BlendMode mode,
+                                  int fromRow, int toRow, int fromColumn, int toColumn) {
+        for (int row = fromRow; row <= toRow; row++) {
+            int end = (row << TILE_SHIFT) + toColumn;
+            for (int i = (row << TILE_SHIFT) + fromColumn; i <= end; i++) {
+                int src = in[i];
+                if (src != PixelBuffer.TRANSPARENT) {
+                    out[i] = mode.composite(out[i], src, opacity);
+                }
+            }
+        }
+    }
+
+    private static void clearTile(int[] tile, int fromRow, int toRow, int fromColumn, int toColumn) {
+        for (int row = fromRow; row <= toRow; row++) {
+            int rowStart = row << TILE_SHIFT;
+            Arrays.fill(tile, rowStart + fromColumn, rowStart + toColumn + 1, PixelBuffer.TRANSPARENT);
+        }
+    }
+}
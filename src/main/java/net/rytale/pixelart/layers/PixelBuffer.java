@@ -0,0 +1,310 @@
+package net.rytale.pixelart.layers;
+
+import java.util.Arrays;
+
+/**
+ * Packed ARGB pixel storage for a canvas, one {@code int} per grid cell.
+ * <p>
+ * Cells are grouped into square tiles of {@link #TILE_SIZE} x {@link #TILE_SIZE}, each stored
+ * row-major in its own {@code int[]}. Tiles that have never been painted all share
+ * {@link #EMPTY_TILE}, so memory grows with the painted area rather than the canvas extent.
+ * A value of {@link #TRANSPARENT} means the cell has not been painted.
+ * <p>
+ * {@link #copy()} shares the painted tiles with the copy instead of duplicating them. A shared tile is
+ * never written to; whichever buffer writes to it first replaces it with its own clone, so a copy can
+ * be read on another thread while this buffer keeps being edited.
+ */
+public class PixelBuffer {
+    public static final int TRANSPARENT = 0;
+    public static final int TILE_SHIFT = 6;
+    public static final int TILE_SIZE = 1 << TILE_SHIFT; // 64 cells per tile edge
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    // Shared stand-in for every unpainted tile; must never be written to
+    private static final int[] EMPTY_TILE = new int[TILE_SIZE * TILE_SIZE];
+
+    private final int width;   // Number of columns
+    private final int height;  // Number of rows
+    private final int tilesX;  // Number of tile columns
+    private final int tilesY;  // Number of tile rows
+    private final int[][] tiles; // Row-major tile grid
+    private final boolean[] shared; // Tiles that a copy may also reference; cloned before the next write
+
+    public PixelBuffer(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_MASK) >> TILE_SHIFT;
+        this.tilesY = (height + TILE_MASK) >> TILE_SHIFT;
+        this.tiles = new int[tilesX * tilesY][];
+        this.shared = new boolean[tiles.length];
+        Arrays.fill(tiles, EMPTY_TILE);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    public boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    public int getPixel(int x, int y) {
+        return tiles[(y >> TILE_SHIFT) * tilesX + (x >> TILE_SHIFT)][((y & TILE_MASK) << TILE_SHIFT) | (x & TILE_MASK)];
+    }
+
+    public void setPixel(int x, int y, int argb) {
+        int tileIndex = (y >> TILE_SHIFT) * tilesX + (x >> TILE_SHIFT);
+        int[] tile = tiles[tileIndex];
+        if (tile == EMPTY_TILE) {
+            if (argb == TRANSPARENT) {
+                return;
+            }
+            tile = allocateTile(tileIndex);
+        } else if (shared[tileIndex]) {
+            tile = unshareTile(tileIndex);
+        }
+        tile[((y & TILE_MASK) << TILE_SHIFT) | (x & TILE_MASK)] = argb;
+    }
+
+    // Fill the inclusive range [startX, endX] on row y
+    public void fillSpan(int y, int startX, int endX, int argb) {
+        int tileRow = (y >> TILE_SHIFT) * tilesX;
+        int rowOffset = (y & TILE_MASK) << TILE_SHIFT;
+
+        int x = startX;
+        while (x <= endX) {
+            int tileIndex = tileRow + (x >> TILE_SHIFT);
+            int segmentEnd = Math.min(endX, (x | TILE_MASK));
+            int[] tile = tiles[tileIndex];
+            if (tile == EMPTY_TILE && argb != TRANSPARENT) {
+                tile = allocateTile(tileIndex);
+            } else if (shared[tileIndex]) {
+                tile = unshareTile(tileIndex);
+            }
+            if (tile != EMPTY_TILE) {
+                Arrays.fill(tile, rowOffset + (x & TILE_MASK), rowOffset + (segmentEnd & TILE_MASK) + 1, argb);
+            }
+            x = segmentEnd + 1;
+        }
+    }
+
+    public void fill(int argb) {
+        if (argb == TRANSPARENT) {
+            Arrays.fill(tiles, EMPTY_TILE);
+            Arrays.fill(shared, false);
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            fillSpan(y, 0, width - 1, argb);
+        }
+    }
+
+    public void clear() {
+        fill(TRANSPARENT);
+    }
+
+    /**
+     * Copies a rectangular region into {@code dst}, starting at {@code offset} and advancing
+     * {@code scanlineStride} ints per row.
+     */
+    public void copyRegion(int x, int y, int w, int h, int[] dst, int offset, int scanlineStride) {
+        for (int row = 0; row < h; row++) {
+            int cy = y + row;
+            int tileRow = (cy >> TILE_SHIFT) * tilesX;
+            int rowOffset = (cy & TILE_MASK) << TILE_SHIFT;
+            int dstPos = offset + row * scanlineStride;
+
+            int cx = x;
+            int endX = x + w - 1;
+            while (cx <= endX) {
+                int segmentEnd = Math.min(endX, (cx | TILE_MASK));
+                int length = segmentEnd - cx + 1;
+                System.arraycopy(tiles[tileRow + (cx >> TILE_SHIFT)], rowOffset + (cx & TILE_MASK), dst, dstPos, length);
+                dstPos += length;
+                cx = segmentEnd + 1;
+            }
+        }
+    }
+
+    /**
+     * Copies a rectangular region from {@code src} into the buffer, the counterpart of {@link #copyRegion}.
+     * Transparent segments that land on unpainted tiles do not allocate them.
+     */
+    public void writeRegion(int x, int y, int w, int h, int[] src, int offset, int scanlineStride) {
+        for (int row = 0; row < h; row++) {
+            int cy = y + row;
+            int tileRow = (cy >> TILE_SHIFT) * tilesX;
+            int rowOffset = (cy & TILE_MASK) << TILE_SHIFT;
+            int srcPos = offset + row * scanlineStride;
+
+            int cx = x;
+            int endX = x + w - 1;
+            while (cx <= endX) {
+                int segmentEnd = Math.min(endX, (cx | TILE_MASK));
+                int length = segmentEnd - cx + 1;
+                int tileIndex = tileRow + (cx >> TILE_SHIFT);
+                int[] tile = tiles[tileIndex];
+                if (tile == EMPTY_TILE && !isBlank(src, srcPos, length)) {
+                    tile = allocateTile(tileIndex);
+                } else if (shared[tileIndex]) {
+                    tile = unshareTile(tileIndex);
+                }
+                if (tile != EMPTY_TILE) {
+                    System.arraycopy(src, srcPos, tile, rowOffset + (cx & TILE_MASK), length);
+                }
+                srcPos += length;
+                cx = segmentEnd + 1;
+            }
+        }
+    }
+
+    /**
+     * Returns a new buffer of the given size holding this buffer's content anchored at the top-left corner.
+     * Cells outside the old bounds are transparent.
+     */
+    public PixelBuffer resized(int newWidth, int newHeight) {
+        PixelBuffer resized = new PixelBuffer(newWidth, newHeight);
+        int copyTilesX = Math.min(tilesX, resized.tilesX);
+        int copyTilesY = Math.min(tilesY, resized.tilesY);
+
+        // Both tile grids start at the origin, so painted tiles carry over one to one
+        for (int ty = 0; ty < copyTilesY; ty++) {
+            for (int tx = 0; tx < copyTilesX; tx++) {
+                int[] tile = tiles[ty * tilesX + tx];
+                if (tile != EMPTY_TILE) {
+                    resized.tiles[ty * resized.tilesX + tx] = tile.clone();
+                }
+            }
+        }
+
+        // Edge tiles may still hold cells past the new bounds; clear them so they cannot reappear when growing again
+        for (int ty = 0; ty < copyTilesY; ty++) {
+            int rowsInside = Math.min(TILE_SIZE, newHeight - (ty << TILE_SHIFT));
+            for (int tx = 0; tx < copyTilesX; tx++) {
+                int[] tile = resized.tiles[ty * resized.tilesX + tx];
+                int columnsInside = Math.min(TILE_SIZE, newWidth - (tx << TILE_SHIFT));
+                if (tile == EMPTY_TILE || (rowsInside == TILE_SIZE && columnsInside == TILE_SIZE)) {
+                    continue;
+                }
+                for (int row = 0; row < TILE_SIZE; row++) {
+                    int from = row < rowsInside ? columnsInside : 0;
+                    Arrays.fill(tile, (row << TILE_SHIFT) + from, (row + 1) << TILE_SHIFT, TRANSPARENT);
+                }
+            }
+        }
+        resized.trim();
+        return resized;
+    }
+
+    // An independent copy that shares the painted tiles until either buffer writes to them
+    public PixelBuffer copy() {
+        PixelBuffer copy = new PixelBuffer(width, height);
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != EMPTY_TILE) {
+                copy.tiles[i] = tiles[i];
+                copy.shared[i] = true;
+                shared[i] = true;
+            }
+        }
+        return copy;
+    }
+
+    public boolean isTileEmpty(int tileX, int tileY) {
+        return tiles[tileY * tilesX + tileX] == EMPTY_TILE;
+    }
+
+    /**
+     * Returns the backing array of a tile, row-major with {@link #TILE_SIZE} ints per row.
+     * The array must not be modified, since it may be the shared empty tile or shared with a copy;
+     * use {@link #getWritableTile} to write.
+     */
+    public int[] getTile(int tileX, int tileY) {
+        return tiles[tileY * tilesX + tileX];
+    }
+
+    // Returns the backing array of a tile, allocating it first if it is still empty or cloning it if it is shared
+    public int[] getWritableTile(int tileX, int tileY) {
+        int tileIndex = tileY * tilesX + tileX;
+        int[] tile = tiles[tileIndex];
+        if (tile == EMPTY_TILE) {
+            return allocateTile(tileIndex);
+        }
+        return shared[tileIndex] ? unshareTile(tileIndex) : tile;
+    }
+
+    // Replace a tile's content; the array is copied
+    public void setTile(int tileX, int tileY, int[] data) {
+        int tileIndex = tileY * tilesX + tileX;
+        if (isBlank(data)) {
+            tiles[tileIndex] = EMPTY_TILE;
+        } else {
+            tiles[tileIndex] = data.clone();
+        }
+        shared[tileIndex] = false;
+    }
+
+    public int getPaintedTileCount() {
+        int count = 0;
+        for (int[] tile : tiles) {
+            if (tile != EMPTY_TILE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Releases tiles that have been fully erased back to the shared empty tile.
+     */
+    public void trim() {
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != EMPTY_TILE && isBlank(tiles[i])) {
+                tiles[i] = EMPTY_TILE;
+                shared[i] = false;
+            }
+        }
+    }
+
+    private int[] allocateTile(int tileIndex) {
+        int[] tile = new int[TILE_SIZE * TILE_SIZE];
+        tiles[tileIndex] = tile;
+        shared[tileIndex] = false;
+        return tile;
+    }
+
+    // Give this buffer its own copy of a tile that a copy may still be reading
+    private int[] unshareTile(int tileIndex) {
+        int[] tile = tiles[tileIndex].clone();
+        tiles[tileIndex] = tile;
+        shared[tileIndex] = false;
+        return tile;
+    }
+
+    private static boolean isBlank(int[] tile) {
+        return isBlank(tile, 0, tile.length);
+    }
+
+    private static boolean isBlank(int[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (data[i] != TRANSPARENT) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,114 +1,1010 @@
 package net.rytale.pixelart.layers;
 
+import javafx.animation.AnimationTimer;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
-import javafx.geometry.Pos;
+import javafx.scene.paint.ImagePattern;
+import javafx.scene.transform.NonInvertibleTransformException;
+import javafx.scene.transform.Transform;
+import net.rytale.pixelart.history.PixelDelta;
+import net.rytale.pixelart.history.UndoHistory;
+import net.rytale.pixelart.metrics.Counter;
+import net.rytale.pixelart.metrics.LatencyHistogram;
+import net.rytale.pixelart.metrics.Metrics;
+import net.rytale.pixelart.tools.raster.ColorReplace;
+import net.rytale.pixelart.tools.raster.FloodFill;
+import net.rytale.pixelart.utils.ColorUtils;
 
+import java.util.Arrays;
+
+/**
+ * Editable view of a {@link LayerStack}.
+ * <p>
+ * Edits are written to the active layer and shown through the stack's flattened composite, which
+ * is brought up to date over the changed cells once per pulse, just before they are repainted.
+ * <p>
+ * The three drawing surfaces (pixels, grid and tool preview overlay) are only as large as the
+ * visible area of this pane. The document is drawn at {@code gridSize * zoomLevel} screen pixels
+ * per cell, offset by the current pan, and only the visible cells are ever uploaded or drawn.
+ */
 public class PixelCanvas extends StackPane {
+    private static final double ZOOM_STEP = 1.25;      // Zoom factor per ctrl + scroll notch
+    private static final double PREFERRED_VIEWPORT = 800; // Largest size the pane asks its parent for
+    private static final Color GRID_COLOR = Color.LIGHTGRAY;
+    private static final double GRID_FADE_START = 4; // Cell size in screen pixels at which the grid disappears
+    private static final double GRID_FADE_END = 8;   // Cell size in screen pixels at which the grid is fully opaque
+    private static final Color SELECTION_COLOR = Color.rgb(0, 120, 215, 0.3);
+
+    private static final LatencyHistogram REPAINT_TIME = Metrics.histogram("canvas.repaint");
+    private static final LatencyHistogram INPUT_TO_PIXEL = Metrics.histogram("canvas.inputToPixel");
+    private static final LatencyHistogram SNAPSHOT_TIME = Metrics.histogram("canvas.snapshot");
+    private static final LatencyHistogram GRID_TIME = Metrics.histogram("canvas.gridRedraw");
+    private static final Counter PIXEL_WRITES = Metrics.counter("canvas.pixelWrites");
+    private static final Counter FULL_REPAINTS = Metrics.counter("canvas.fullRepaints");
+
     private int canvasWidth;  // Number of columns (width in grid units)
     private int canvasHeight; // Number of rows (height in grid units)
-    private int gridSize;     // Size of each grid cell in pixels
-    private double zoomLevel; // Zoom level, where 1.0 is 100% (no zoom)
-    private final double minZoomLevel = 0.5;  // Minimum zoom level (50%)
-    private final double maxZoomLevel = 2.0;  // Maximum zoom level (200%)
+    private int gridSize;     // Size of each grid cell in pixels at 100% zoom
+    private final ReadOnlyDoubleWrapper zoomLevel = new ReadOnlyDoubleWrapper(1.0); // 1.0 is 100% (no zoom)
+    private double minZoomLevel; // Zoom at which one cell covers one screen pixel
+    private final double maxZoomLevel = 64.0;
+
+    private double offsetX, offsetY; // Screen position of the document's top-left corner (pan)
+    private int visibleMinX, visibleMinY, visibleMaxX, visibleMaxY; // Cells at least partly on screen
+    private double panAnchorX, panAnchorY; // Pointer position relative to the offset when a middle-button pan starts
 
     private boolean showGrid; // Flag to control grid visibility
-    private WritableImage canvasSnapshot; // To store canvas state
+    private WritableImage gridTile; // Cached one-cell grid image for the current cell size
+    private LayerStack layers; // Document model, one ARGB value per cell and layer
+
+    // Cache of the visible cells, addressed modulo its size so a pan only uploads the newly exposed strip
+    private WritableImage viewImage;
+    private int viewImageWidth, viewImageHeight;
+    private int cachedMinX, cachedMinY, cachedMaxX, cachedMaxY; // Cells currently valid in viewImage
+    private boolean cacheValid;
+    // Scene to cell coordinates, cached until the layout, pan or zoom changes: cell = floor(scene * matrix + translation)
+    private double pointerXX, pointerXY, pointerX, pointerYX, pointerYY, pointerY;
+    private boolean pointerMappingValid;
+
+    private final UndoHistory history = new UndoHistory(); // Per-edit pixel deltas for undo and redo
+    private DocumentListener documentListener; // Told about every committed change, or null
+    private final ColorReplace colorReplace = new ColorReplace(); // Parallel whole-canvas color swap
+    private final DirtyRegion dirtyRegion = new DirtyRegion(); // Cells changed since the last repaint
+    private Selection selection; // Cells drawing is restricted to, or null for the whole canvas
+    private PixelClip clipboard; // Cells last copied or cut, or null
+    private final SpanList clippedSpans = new SpanList(); // Reused for clipping writes to the selection
+    private int[] clipRow = new int[0]; // Reused for the old cells under a dropped clip
+    private final AnimationTimer repaintTimer; // Flushes pending repaints once per pulse
+    private boolean repaintScheduled;
+    private Runnable pendingInput; // Coalesced pointer input to apply at the start of the next pulse, or null
+    private boolean viewChanged; // Pan, zoom or viewport size changed since the last repaint
+    private int[] repaintBuffer = new int[0]; // Reused row data for uploading cells
+    private long pendingInputStart; // Metrics.start() of the oldest input still waiting to be painted, or 0
 
     private final Canvas canvas;       // Main drawing canvas
     private final Canvas gridCanvas;   // Canvas for the grid overlay
+    private final Canvas selectionCanvas; // Canvas tinting the selected cells
     private final Canvas overlayCanvas; // Canvas for the preview overlay
+    private boolean previewShown; // A tool preview is on the overlay
+    private boolean previewBounded; // Its cells were reported, so only they need erasing
+    private int previewMinX, previewMinY, previewMaxX, previewMaxY;
     private Color backgroundColor;     // Background color of the canvas
 
     public PixelCanvas(int width, int height, int gridSize) {
         this.canvasWidth = width;  // Number of columns
         this.canvasHeight = height; // Number of rows
         this.gridSize = gridSize;  // Size of each cell in pixels
-        this.zoomLevel = 1.0;  // Start with no zoom (100%)
+        this.minZoomLevel = 1.0 / gridSize;
 
         this.showGrid = true;
         this.backgroundColor = Color.WHITE;
+        this.layers = new LayerStack(width, height);
 
-        this.canvas = new Canvas(width * gridSize, height * gridSize);
-        this.gridCanvas = new Canvas(width * gridSize, height * gridSize);
-        this.overlayCanvas = new Canvas(width * gridSize, height * gridSize);
-        this.canvasSnapshot = new WritableImage(width * gridSize, height * gridSize);
+        // The surfaces are sized to the viewport by hand, so they must not drive the pane's layout
+        this.canvas = new Canvas();
+        this.gridCanvas = new Canvas();
+        this.selectionCanvas = new Canvas();
+        this.overlayCanvas = new Canvas();
+        canvas.setManaged(false);
+        gridCanvas.setManaged(false);
+        selectionCanvas.setManaged(false);
+        overlayCanvas.setManaged(false);
 
-        // Add the canvases to the stack pane
-        this.getChildren().addAll(canvas, gridCanvas, overlayCanvas);
-        clearCanvas();
-        drawGrid();
+        this.repaintTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                flushRepaint();
+            }
+        };
 
-        // Center the canvas within its parent
-        setAlignment(Pos.CENTER);
+        // Add the canvases to the stack pane
+        this.getChildren().addAll(canvas, gridCanvas, selectionCanvas, overlayCanvas);
 
-        // Ensure the canvas stays centered and updates correctly
+        // Keep the surfaces matched to the visible area
         widthProperty().addListener((obs, oldVal, newVal) -> updateCanvasSize());
+        canvas.localToSceneTransformProperty().addListener(obs -> pointerMappingValid = false);
         heightProperty().addListener((obs, oldVal, newVal) -> updateCanvasSize());
+
+        // Scroll to pan, ctrl + scroll to zoom around the pointer, middle button to drag the view
+        addEventHandler(ScrollEvent.SCROLL, this::handleScroll);
+        addEventHandler(MouseEvent.MOUSE_PRESSED, this::handlePanStart);
+        addEventHandler(MouseEvent.MOUSE_DRAGGED, this::handlePanDrag);
     }
+
+    // Capture what is currently shown on the main canvas, background included
     public WritableImage getCanvasSnapshot() {
-        return canvasSnapshot;
+        long start = Metrics.start();
+        flushRepaint();
+        WritableImage snapshot = canvas.snapshot(null, null);
+        SNAPSHOT_TIME.recordSince(start);
+        return snapshot;
+    }
+
+    // A copy of the visible layers flattened, one cell per pixel and without the background
+    public PixelBuffer copyComposite() {
+        flushRepaint(); // Brings the composite up to date with pending edits
+        return layers.getComposite().copy();
+    }
+
+    // Pixels of the active layer, which every edit goes to
+    public PixelBuffer getPixels() {
+        return layers.getActiveLayer().getPixels();
+    }
+
+    public LayerStack getLayers() {
+        return layers;
+    }
+
+    // Add an empty layer above the active one and make it active
+    public Layer addLayer() {
+        Layer layer = layers.addLayer();
+        layersChanged();
+        return layer;
+    }
+
+    public boolean removeLayer(int index) {
+        commitEdit(); // Before the layer goes, so an open edit on it is dropped with the rest
+        Layer removed = layers.getLayer(index);
+        if (!layers.removeLayer(index)) {
+            return false;
+        }
+        history.removeLayer(removed);
+        layersChanged();
+        return true;
+    }
+
+    public void moveLayer(int fromIndex, int toIndex) {
+        layers.moveLayer(fromIndex, toIndex);
+        layersChanged();
+    }
+
+    // Nothing on screen or in the document changes, so nothing is repainted or reported
+    public void setActiveLayer(int index) {
+        commitEdit(); // An open edit belongs to the layer it started on
+        layers.setActiveIndex(index);
+    }
+
+    public void setLayerVisible(int index, boolean visible) {
+        layers.getLayer(index).setVisible(visible);
+        layerSettingsChanged(index);
+    }
+
+    public void setLayerOpacity(int index, double opacity) {
+        layers.getLayer(index).setOpacity(opacity);
+        layerSettingsChanged(index);
+    }
+
+    public void setLayerBlendMode(int index, BlendMode blendMode) {
+        layers.getLayer(index).setBlendMode(blendMode);
+        layerSettingsChanged(index);
+    }
+
+    // The flattened layers no longer match, so rebuild them and repaint everything on the next pulse
+    private void layersChanged() {
+        commitEdit(); // An open edit belongs to the layer it started on
+        layers.invalidateCaches();
+        restoreCanvasContent();
+        fireDocumentChanged();
     }
-    private void updateCanvasSize() {
-        double scaledWidth = canvasWidth * gridSize * zoomLevel;
-        double scaledHeight = canvasHeight * gridSize * zoomLevel;
 
-        canvas.setWidth(scaledWidth);
-        canvas.setHeight(scaledHeight);
-        gridCanvas.setWidth(scaledWidth);
-        gridCanvas.setHeight(scaledHeight);
-        overlayCanvas.setWidth(scaledWidth);
-        overlayCanvas.setHeight(scaledHeight);
+    // Like layersChanged, but the stack itself is unchanged, so only the layer's new settings are reported
+    private void layerSettingsChanged(int index) {
+        commitEdit();
+        layers.invalidateCaches();
+        restoreCanvasContent();
+        if (documentListener != null) {
+            Layer layer = layers.getLayer(index);
+            documentListener.layerChanged(index, layer.isVisible(), layer.getOpacity(), layer.getBlendMode());
+        }
+    }
 
-        redrawGrid(); // Ensure grid is redrawn after resizing
-        restoreCanvasContent(); // Restore canvas content after resize
+    @Override
+    protected double computeMinWidth(double height) {
+        return 0;
     }
 
+    @Override
+    protected double computeMinHeight(double width) {
+        return 0;
+    }
+
+    @Override
+    protected double computePrefWidth(double height) {
+        return Math.min(canvasWidth * getCellSize(), PREFERRED_VIEWPORT);
+    }
+
+    @Override
+    protected double computePrefHeight(double width) {
+        return Math.min(canvasHeight * getCellSize(), PREFERRED_VIEWPORT);
+    }
+
+    private void updateCanvasSize() {
+        double viewWidth = Math.floor(getWidth());
+        double viewHeight = Math.floor(getHeight());
+
+        canvas.setWidth(viewWidth);
+        canvas.setHeight(viewHeight);
+        gridCanvas.setWidth(viewWidth);
+        gridCanvas.setHeight(viewHeight);
+        selectionCanvas.setWidth(viewWidth);
+        selectionCanvas.setHeight(viewHeight);
+        overlayCanvas.setWidth(viewWidth);
+        overlayCanvas.setHeight(viewHeight);
+
+        updateView();
+    }
 
     public void setZoomLevel(double zoomLevel) {
-        this.zoomLevel = Math.max(minZoomLevel, Math.min(maxZoomLevel, zoomLevel));  // Constrain zoom level
-        updateCanvasSize();  // Update the canvas size and redraw content based on zoom level
+        zoomAt(canvas.getWidth() / 2, canvas.getHeight() / 2, zoomLevel);
+    }
+
+    // Change the zoom while keeping the document point under (viewX, viewY) in place
+    public void zoomAt(double viewX, double viewY, double newZoomLevel) {
+        double oldCellSize = getCellSize();
+        double documentX = (viewX - offsetX) / oldCellSize;
+        double documentY = (viewY - offsetY) / oldCellSize;
+
+        double clampedZoom = Math.max(minZoomLevel, Math.min(maxZoomLevel, newZoomLevel));  // Constrain zoom level
+        offsetX = viewX - documentX * gridSize * clampedZoom;
+        offsetY = viewY - documentY * gridSize * clampedZoom;
+
+        zoomLevel.set(clampedZoom); // Listeners see the new offsets too
+        updateView();
     }
 
     public double getZoomLevel() {
-        return zoomLevel;
+        return zoomLevel.get();
+    }
+
+    public ReadOnlyDoubleProperty zoomLevelProperty() {
+        return zoomLevel.getReadOnlyProperty();
+    }
+
+    public double getMinZoomLevel() {
+        return minZoomLevel;
+    }
+
+    public double getMaxZoomLevel() {
+        return maxZoomLevel;
+    }
+
+    // Screen pixels per cell at the current zoom
+    public double getCellSize() {
+        return gridSize * zoomLevel.get();
+    }
+
+    // Left edge of cell column x on the view surfaces
+    public double cellToViewX(int x) {
+        return Math.round(offsetX + x * getCellSize());
+    }
+
+    // Top edge of cell row y on the view surfaces
+    public double cellToViewY(int y) {
+        return Math.round(offsetY + y * getCellSize());
+    }
+
+    public void panBy(double dx, double dy) {
+        offsetX += dx;
+        offsetY += dy;
+        updateView();
+    }
+
+    private void handleScroll(ScrollEvent event) {
+        if (event.isControlDown()) {
+            if (event.getDeltaY() == 0) {
+                return;
+            }
+            double factor = event.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP;
+            zoomAt(event.getX(), event.getY(), getZoomLevel() * factor);
+        } else {
+            panBy(event.getDeltaX(), event.getDeltaY());
+        }
+        event.consume();
+    }
+
+    private void handlePanStart(MouseEvent event) {
+        if (event.getButton() == MouseButton.MIDDLE) {
+            panAnchorX = event.getX() - offsetX;
+            panAnchorY = event.getY() - offsetY;
+        }
     }
 
+    private void handlePanDrag(MouseEvent event) {
+        if (event.isMiddleButtonDown()) {
+            offsetX = event.getX() - panAnchorX;
+            offsetY = event.getY() - panAnchorY;
+            updateView();
+        }
+    }
+
+    // Re-clamp the pan, work out which cells are visible and schedule a redraw of the view
+    private void updateView() {
+        double viewWidth = canvas.getWidth();
+        double viewHeight = canvas.getHeight();
+        double documentWidth = canvasWidth * getCellSize();
+        double documentHeight = canvasHeight * getCellSize();
+
+        // Center documents smaller than the view, otherwise keep the view inside the document
+        offsetX = documentWidth <= viewWidth
+                ? (viewWidth - documentWidth) / 2
+                : Math.max(viewWidth - documentWidth, Math.min(0, offsetX));
+        offsetY = documentHeight <= viewHeight
+                ? (viewHeight - documentHeight) / 2
+                : Math.max(viewHeight - documentHeight, Math.min(0, offsetY));
+        offsetX = Math.round(offsetX);
+        offsetY = Math.round(offsetY);
+
+        double cellSize = getCellSize();
+        visibleMinX = Math.max(0, (int) Math.floor(-offsetX / cellSize));
+        visibleMinY = Math.max(0, (int) Math.floor(-offsetY / cellSize));
+        visibleMaxX = Math.min(canvasWidth - 1, (int) Math.ceil((viewWidth - offsetX) / cellSize) - 1);
+        visibleMaxY = Math.min(canvasHeight - 1, (int) Math.ceil((viewHeight - offsetY) / cellSize) - 1);
+
+        viewChanged = true;
+        pointerMappingValid = false;
+        scheduleRepaint();
+    }
+
+    private boolean hasVisibleCells() {
+        return visibleMinX <= visibleMaxX && visibleMinY <= visibleMaxY;
+    }
+
+    // Every layer is cleared as a delta of its own, and all of them are undone as one step
     public void clearCanvas() {
-        GraphicsContext gc = canvas.getGraphicsContext2D();
-        gc.setFill(backgroundColor);
-        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        saveCanvasSnapshot();  // Save the cleared state
+        commitEdit();
+        boolean continued = false;
+        for (Layer layer : layers.getLayers()) {
+            history.begin(layer, canvasWidth, continued);
+            recordClear(layer.getPixels(), history.getCurrent());
+            layer.getPixels().clear();
+            continued |= commitEdit() != null;
+        }
+        layers.invalidateCaches();
+        restoreCanvasContent();
+    }
+
+    // Record every painted cell as becoming transparent; unpainted tiles are skipped
+    private static void recordClear(PixelBuffer pixels, PixelDelta delta) {
+        for (int y = 0; y < pixels.getHeight(); y++) {
+            int tileY = y >> PixelBuffer.TILE_SHIFT;
+            int rowOffset = (y & (PixelBuffer.TILE_SIZE - 1)) << PixelBuffer.TILE_SHIFT;
+            for (int tileX = 0; tileX < pixels.getTilesX(); tileX++) {
+                if (pixels.isTileEmpty(tileX, tileY)) {
+                    continue;
+                }
+                int[] tile = pixels.getTile(tileX, tileY);
+                int originX = tileX << PixelBuffer.TILE_SHIFT;
+                int columns = Math.min(PixelBuffer.TILE_SIZE, pixels.getWidth() - originX);
+                for (int column = 0; column < columns; column++) {
+                    int argb = tile[rowOffset + column];
+                    if (argb != PixelBuffer.TRANSPARENT) {
+                        delta.record(originX + column, y, argb, PixelBuffer.TRANSPARENT);
+                    }
+                }
+            }
+        }
     }
 
     public void drawPixel(int x, int y, Color color) {
-        GraphicsContext gc = canvas.getGraphicsContext2D();
-        gc.setFill(color);
+        setPixel(x, y, ColorUtils.toArgb(color));
+    }
+
+    public void erasePixel(int x, int y) {
+        setPixel(x, y, PixelBuffer.TRANSPARENT);
+    }
+
+    // Write a cell into the model; the view catches up on the next pulse. Cells outside the canvas are ignored
+    public void setPixel(int x, int y, int argb) {
+        PixelBuffer pixels = getPixels();
+        if (!pixels.contains(x, y) || (selection != null && !selection.contains(x, y))) {
+            return;
+        }
+        int oldArgb = pixels.getPixel(x, y);
+        if (oldArgb == argb) {
+            return;
+        }
+
+        boolean implicitEdit = beginImplicitEdit();
+        history.getCurrent().record(x, y, oldArgb, argb);
+        pixels.setPixel(x, y, argb);
+        PIXEL_WRITES.increment();
+        markDirty(x, y, x, y);
+        endImplicitEdit(implicitEdit);
+    }
+
+    /**
+     * Fills every span with one color as a single batch: spans are clipped to the canvas and the
+     * selection, written straight into the model and repainted together on the next pulse.
+     */
+    public void fillSpans(SpanList spans, int argb) {
+        if (selection != null) {
+            clippedSpans.clear();
+            selection.clip(spans, clippedSpans);
+            spans = clippedSpans;
+        }
+        writeSpans(spans, argb);
+    }
 
-        // Calculate the position and size based on the zoom level
-        double zoomedGridSize = gridSize * zoomLevel;
-        double xPos = x * zoomedGridSize;
-        double yPos = y * zoomedGridSize;
+    private void writeSpans(SpanList spans, int argb) {
+        if (spans.isEmpty()) {
+            return;
+        }
+
+        boolean implicitEdit = beginImplicitEdit();
+        PixelDelta delta = history.getCurrent();
+        PixelBuffer pixels = getPixels();
+        for (int i = 0; i < spans.size(); i++) {
+            int y = spans.getY(i);
+            int startX = Math.max(0, spans.getStartX(i));
+            int endX = Math.min(canvasWidth - 1, spans.getEndX(i));
+            if (y < 0 || y >= canvasHeight || startX > endX) {
+                continue;
+            }
+            for (int x = startX; x <= endX; x++) {
+                int oldArgb = pixels.getPixel(x, y);
+                if (oldArgb != argb) {
+                    delta.record(x, y, oldArgb, argb);
+                }
+            }
+            pixels.fillSpan(y, startX, endX, argb);
+            dirtyRegion.add(startX, y, endX, y); // Merged as needed, so a diagonal stroke does not repaint its whole bounding box
+        }
+        scheduleRepaint();
+        endImplicitEdit(implicitEdit);
+    }
+
+    /**
+     * Fills the inclusive cell range [minX, maxX] x [minY, maxY], clipped to the canvas, with one color:
+     * a bulk write per row and a single repaint of the rectangle. With a selection, only its runs
+     * inside the rectangle are written.
+     */
+    public void fillRect(int minX, int minY, int maxX, int maxY, int argb) {
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, canvasWidth - 1);
+        maxY = Math.min(maxY, canvasHeight - 1);
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+        if (selection != null) {
+            clippedSpans.clear();
+            for (int y = minY; y <= maxY; y++) {
+                selection.addRuns(y, minX, maxX, clippedSpans);
+            }
+            writeSpans(clippedSpans, argb);
+            return;
+        }
+
+        boolean implicitEdit = beginImplicitEdit();
+        PixelDelta delta = history.getCurrent();
+        PixelBuffer pixels = getPixels();
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX; x <= maxX; x++) {
+                int oldArgb = pixels.getPixel(x, y);
+                if (oldArgb != argb) {
+                    delta.record(x, y, oldArgb, argb);
+                }
+            }
+            pixels.fillSpan(y, minX, maxX, argb);
+        }
+        markDirty(minX, minY, maxX, maxY);
+        endImplicitEdit(implicitEdit);
+    }
+
+    /**
+     * Replaces {@code from} with {@code to} everywhere on the canvas, matching within {@code tolerance}
+     * per ARGB channel. The model is rewritten in parallel row bands and repainted once.
+     *
+     * @return The number of cells that changed.
+     */
+    public long replaceColor(int from, int to, int tolerance) {
+        if (selection != null) {
+            return replaceColorInSelection(from, to, tolerance);
+        }
+        boolean implicitEdit = beginImplicitEdit();
+        long changed = colorReplace.replace(getPixels(), from, to, tolerance, history.getCurrent());
+        if (changed > 0) {
+            restoreCanvasContent();
+        }
+        endImplicitEdit(implicitEdit);
+        return changed;
+    }
+
+    // Only the selected cells are visited, one run at a time
+    private long replaceColorInSelection(int from, int to, int tolerance) {
+        boolean implicitEdit = beginImplicitEdit();
+        PixelDelta delta = history.getCurrent();
+        PixelBuffer pixels = getPixels();
+        clippedSpans.clear();
+        selection.toSpans(clippedSpans);
+        long changed = 0;
+        for (int i = 0; i < clippedSpans.size(); i++) {
+            int y = clippedSpans.getY(i);
+            for (int x = clippedSpans.getStartX(i); x <= clippedSpans.getEndX(i); x++) {
+                int oldArgb = pixels.getPixel(x, y);
+                if (oldArgb != to && FloodFill.matches(oldArgb, from, tolerance)) {
+                    delta.record(x, y, oldArgb, to);
+                    pixels.setPixel(x, y, to);
+                    changed++;
+                }
+            }
+            dirtyRegion.add(clippedSpans.getStartX(i), y, clippedSpans.getEndX(i), y);
+        }
+        scheduleRepaint();
+        endImplicitEdit(implicitEdit);
+        return changed;
+    }
 
-        // Draw the pixel using logical grid positions
-        gc.fillRect(xPos, yPos, zoomedGridSize, zoomedGridSize);
-        saveCanvasSnapshot();
+    public Selection getSelection() {
+        return selection;
     }
 
-    // Save the current state of the canvas
-    public void saveCanvasSnapshot() {
-        canvas.snapshot(null, canvasSnapshot);
+    /**
+     * Restricts every drawing operation to the selected cells; null or an empty selection removes
+     * the restriction. The selection must cover the whole canvas grid.
+     */
+    public void setSelection(Selection selection) {
+        if (selection != null && (selection.isEmpty()
+                || selection.getWidth() != canvasWidth || selection.getHeight() != canvasHeight)) {
+            selection = null;
+        }
+        this.selection = selection;
+        drawSelection();
+    }
+
+    public void selectAll() {
+        setSelection(Selection.rectangle(canvasWidth, canvasHeight, 0, 0, canvasWidth - 1, canvasHeight - 1));
+    }
+
+    // Copy the selected cells of the active layer to the clipboard
+    public PixelClip copySelection() {
+        if (selection != null) {
+            clipboard = copyClip(selection);
+        }
+        return clipboard;
+    }
+
+    public PixelClip cutSelection() {
+        PixelClip clip = copySelection();
+        deleteSelection();
+        return clip;
+    }
+
+    // Make the selected cells of the active layer transparent
+    public void deleteSelection() {
+        if (selection != null) {
+            fillRect(selection.getMinX(), selection.getMinY(), selection.getMaxX(), selection.getMaxY(), PixelBuffer.TRANSPARENT);
+        }
+    }
+
+    // Paste the clipboard where it was copied from; the pasted cells become the selection
+    public void paste() {
+        if (clipboard != null) {
+            dropClip(clipboard, clipboard.x(), clipboard.y());
+        }
+    }
+
+    /**
+     * Cuts the selected cells out of the active layer to be moved, leaving nothing selected until
+     * they are dropped again with {@link #dropClip}.
+     */
+    public PixelClip liftSelection() {
+        if (selection == null) {
+            return null;
+        }
+        PixelClip clip = copyClip(selection);
+        deleteSelection();
+        setSelection(null);
+        return clip;
     }
 
-    // Restore the canvas content from the saved snapshot
+    /**
+     * Writes the selected cells of a clip onto the active layer with its top-left corner at (x, y),
+     * whatever is selected, and selects them. Each run of cells is one bulk copy into the layer.
+     */
+    public void dropClip(PixelClip clip, int x, int y) {
+        boolean implicitEdit = beginImplicitEdit();
+        PixelDelta delta = history.getCurrent();
+        PixelBuffer pixels = getPixels();
+        if (clipRow.length < clip.width()) {
+            clipRow = new int[clip.width()];
+        }
+
+        clippedSpans.clear();
+        clip.mask().toSpans(clippedSpans);
+        for (int i = 0; i < clippedSpans.size(); i++) {
+            int targetY = y + clippedSpans.getY(i);
+            int startX = Math.max(clippedSpans.getStartX(i), -x); // Clipped to the canvas
+            int endX = Math.min(clippedSpans.getEndX(i), canvasWidth - 1 - x);
+            if (targetY < 0 || targetY >= canvasHeight || startX > endX) {
+                continue;
+            }
+            int length = endX - startX + 1;
+            int offset = clippedSpans.getY(i) * clip.width() + startX;
+            pixels.copyRegion(x + startX, targetY, length, 1, clipRow, 0, length);
+            for (int n = 0; n < length; n++) {
+                if (clipRow[n] != clip.pixels()[offset + n]) {
+                    delta.record(x + startX + n, targetY, clipRow[n], clip.pixels()[offset + n]);
+                }
+            }
+            pixels.writeRegion(x + startX, targetY, length, 1, clip.pixels(), offset, clip.width());
+            dirtyRegion.add(x + startX, targetY, x + endX, targetY);
+        }
+        scheduleRepaint();
+        endImplicitEdit(implicitEdit);
+        setSelection(clip.mask().translated(x, y, canvasWidth, canvasHeight));
+    }
+
+    // The selection's bounding box copied out of the active layer in bulk, with unselected cells cleared
+    private PixelClip copyClip(Selection selection) {
+        int minX = selection.getMinX();
+        int minY = selection.getMinY();
+        int width = selection.getMaxX() - minX + 1;
+        int height = selection.getMaxY() - minY + 1;
+        int[] pixels = new int[width * height];
+        getPixels().copyRegion(minX, minY, width, height, pixels, 0, width);
+
+        Selection mask = selection.translated(-minX, -minY, width, height);
+        SpanList runs = new SpanList();
+        for (int y = 0; y < height; y++) {
+            runs.clear();
+            mask.addRuns(y, 0, width - 1, runs);
+            int x = 0; // First cell not covered by a run yet
+            for (int i = 0; i < runs.size(); i++) {
+                Arrays.fill(pixels, y * width + x, y * width + runs.getStartX(i), PixelBuffer.TRANSPARENT);
+                x = runs.getEndX(i) + 1;
+            }
+            Arrays.fill(pixels, y * width + x, (y + 1) * width, PixelBuffer.TRANSPARENT);
+        }
+        return new PixelClip(minX, minY, width, height, pixels, mask);
+    }
+
+    // Tint the visible selected cells on their own surface, between the grid and the tool overlay
+    private void drawSelection() {
+        GraphicsContext gc = selectionCanvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, selectionCanvas.getWidth(), selectionCanvas.getHeight());
+        if (selection == null || !hasVisibleCells()) {
+            return;
+        }
+        gc.setFill(SELECTION_COLOR);
+        SpanList runs = new SpanList();
+        for (int y = Math.max(visibleMinY, selection.getMinY()); y <= Math.min(visibleMaxY, selection.getMaxY()); y++) {
+            runs.clear();
+            selection.addRuns(y, visibleMinX, visibleMaxX, runs);
+            for (int i = 0; i < runs.size(); i++) {
+                double left = cellToViewX(runs.getStartX(i));
+                double top = cellToViewY(y);
+                gc.fillRect(left, top, cellToViewX(runs.getEndX(i) + 1) - left, cellToViewY(y + 1) - top);
+            }
+        }
+    }
+
+    /**
+     * Starts recording an undoable edit, usually one tool stroke from mouse press to release.
+     * Every change until {@link #endEdit()} is undone and redone as one step.
+     */
+    public void beginEdit() {
+        commitEdit();
+        history.begin(layers.getActiveLayer(), canvasWidth);
+    }
+
+    public void endEdit() {
+        commitEdit();
+    }
+
+    // Close the open edit, if any, and report it once it is on the undo stack; returns it, or null if nothing was pushed
+    private PixelDelta commitEdit() {
+        PixelDelta committed = history.end();
+        if (committed != null && documentListener != null) {
+            documentListener.pixelsChanged(committed, layers.getLayers().indexOf(committed.getLayer()), false);
+        }
+        return committed;
+    }
+
+    // Changes made outside beginEdit/endEdit become an undo step of their own
+    private boolean beginImplicitEdit() {
+        if (history.isRecording()) {
+            return false;
+        }
+        history.begin(layers.getActiveLayer(), canvasWidth);
+        return true;
+    }
+
+    private void endImplicitEdit(boolean implicitEdit) {
+        if (implicitEdit) {
+            commitEdit();
+        }
+    }
+
+    // Revert the most recent step; returns false if there was nothing to undo
+    public boolean undo() {
+        PixelDelta delta = history.undo();
+        if (delta == null) {
+            return false;
+        }
+        while (delta != null) {
+            delta.revert(delta.getLayer().getPixels());
+            deltaApplied(delta, true);
+            delta = delta.isContinued() ? history.undo() : null;
+        }
+        return true;
+    }
+
+    // Reapply the most recently undone step; returns false if there was nothing to redo
+    public boolean redo() {
+        PixelDelta delta = history.redo();
+        if (delta == null) {
+            return false;
+        }
+        while (delta != null) {
+            delta.reapply(delta.getLayer().getPixels());
+            deltaApplied(delta, false);
+            delta = history.isRedoContinued() ? history.redo() : null;
+        }
+        return true;
+    }
+
+    private void deltaApplied(PixelDelta delta, boolean reverted) {
+        if (delta.getLayer() != layers.getActiveLayer()) {
+            layers.invalidateCaches(); // Only the active layer is composited incrementally
+        }
+        markDirty(delta.getMinX(), delta.getMinY(), delta.getMaxX(), delta.getMaxY());
+
+        int layerIndex = layers.getLayers().indexOf(delta.getLayer());
+        if (documentListener != null && layerIndex >= 0) {
+            documentListener.pixelsChanged(delta, layerIndex, reverted);
+        }
+    }
+
+    public UndoHistory getHistory() {
+        return history;
+    }
+
+    public void setDocumentListener(DocumentListener documentListener) {
+        this.documentListener = documentListener;
+    }
+
+    private void fireDocumentChanged() {
+        if (documentListener != null) {
+            documentListener.documentChanged();
+        }
+    }
+
+    /**
+     * Schedules a repaint of the inclusive cell range [minX, maxX] x [minY, maxY].
+     * Callers that write to {@link #getPixels()} directly must report the touched area here.
+     */
+    public void markDirty(int minX, int minY, int maxX, int maxY) {
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        maxX = Math.min(maxX, canvasWidth - 1);
+        maxY = Math.min(maxY, canvasHeight - 1);
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+
+        dirtyRegion.add(minX, minY, maxX, maxY);
+        scheduleRepaint();
+    }
+
+    /**
+     * Runs {@code input} at the start of the next pulse, just before the repaint, so pointer events that
+     * arrive during one frame are applied as a single batch and painted together. Scheduling again before
+     * then replaces the pending input.
+     */
+    public void scheduleInput(Runnable input) {
+        pendingInput = input;
+        scheduleRepaint();
+    }
+
+    private void scheduleRepaint() {
+        if (!repaintScheduled) {
+            repaintScheduled = true;
+            repaintTimer.start();
+        }
+    }
+
+    public int getPixel(int x, int y) {
+        return getPixels().getPixel(x, y);
+    }
+
+    // Schedule a full redraw of the visible cells from the pixel model
     public void restoreCanvasContent() {
+        FULL_REPAINTS.increment();
+        markDirty(0, 0, canvasWidth - 1, canvasHeight - 1);
+    }
+
+    // Bring the view up to date with everything that changed since the last pulse, then go idle
+    private void flushRepaint() {
+        long start = Metrics.start();
+        if (pendingInput != null) {
+            Runnable input = pendingInput;
+            pendingInput = null;
+            input.run(); // Still marked as scheduled, so its changes are painted in this pulse
+        }
+        repaintTimer.stop();
+        repaintScheduled = false;
+
+        for (int i = 0; i < dirtyRegion.size(); i++) {
+            layers.updateComposite(dirtyRegion.getMinX(i), dirtyRegion.getMinY(i), dirtyRegion.getMaxX(i), dirtyRegion.getMaxY(i));
+        }
+
+        // Refresh changed cells that are still cached; anything else is uploaded when it scrolls into view
+        if (cacheValid) {
+            for (int i = 0; i < dirtyRegion.size(); i++) {
+                uploadCells(Math.max(dirtyRegion.getMinX(i), cachedMinX), Math.max(dirtyRegion.getMinY(i), cachedMinY),
+                        Math.min(dirtyRegion.getMaxX(i), cachedMaxX), Math.min(dirtyRegion.getMaxY(i), cachedMaxY));
+            }
+        }
+
+        if (viewChanged) {
+            viewChanged = false;
+            updateViewCache();
+            drawVisibleCells();
+            redrawGrid();
+            drawSelection();
+            clearOverlay();
+        } else {
+            for (int i = 0; i < dirtyRegion.size(); i++) {
+                drawCells(Math.max(dirtyRegion.getMinX(i), visibleMinX), Math.max(dirtyRegion.getMinY(i), visibleMinY),
+                        Math.min(dirtyRegion.getMaxX(i), visibleMaxX), Math.min(dirtyRegion.getMaxY(i), visibleMaxY));
+            }
+        }
+        dirtyRegion.clear();
+
+        REPAINT_TIME.recordSince(start);
+        if (pendingInputStart != 0) {
+            INPUT_TO_PIXEL.recordSince(pendingInputStart);
+            pendingInputStart = 0;
+        }
+    }
+
+    /**
+     * Reports that an input event handled since {@code start}, a {@link Metrics#start()} value, changed
+     * the document, so the time until its change reaches the screen is measured.
+     */
+    public void inputHandled(long start) {
+        if (start != 0 && repaintScheduled && pendingInputStart == 0) {
+            pendingInputStart = start;
+        }
+    }
+
+    // Move the cached window onto the visible cells, uploading only cells it did not already hold
+    private void updateViewCache() {
+        if (!hasVisibleCells()) {
+            cacheValid = false;
+            return;
+        }
+
+        int columns = visibleMaxX - visibleMinX + 1;
+        int rows = visibleMaxY - visibleMinY + 1;
+        if (viewImage == null || columns > viewImageWidth || rows > viewImageHeight) {
+            // Size for the most cells this viewport can show at the current zoom
+            viewImageWidth = Math.min(canvasWidth, (int) Math.ceil(canvas.getWidth() / getCellSize()) + 1);
+            viewImageHeight = Math.min(canvasHeight, (int) Math.ceil(canvas.getHeight() / getCellSize()) + 1);
+            viewImage = new WritableImage(Math.max(columns, viewImageWidth), Math.max(rows, viewImageHeight));
+            viewImageWidth = (int) viewImage.getWidth();
+            viewImageHeight = (int) viewImage.getHeight();
+            cacheValid = false;
+        }
+
+        boolean overlaps = cacheValid
+                && visibleMinX <= cachedMaxX && visibleMaxX >= cachedMinX
+                && visibleMinY <= cachedMaxY && visibleMaxY >= cachedMinY;
+
+        int oldMinX = cachedMinX, oldMinY = cachedMinY, oldMaxX = cachedMaxX, oldMaxY = cachedMaxY;
+        cachedMinX = visibleMinX;
+        cachedMinY = visibleMinY;
+        cachedMaxX = visibleMaxX;
+        cachedMaxY = visibleMaxY;
+        cacheValid = true;
+
+        if (!overlaps) {
+            uploadCells(visibleMinX, visibleMinY, visibleMaxX, visibleMaxY);
+            return;
+        }
+
+        // Columns left and right of the old window, then rows above and below it
+        uploadCells(visibleMinX, visibleMinY, oldMinX - 1, visibleMaxY);
+        uploadCells(oldMaxX + 1, visibleMinY, visibleMaxX, visibleMaxY);
+        int middleMinX = Math.max(visibleMinX, oldMinX);
+        int middleMaxX = Math.min(visibleMaxX, oldMaxX);
+        uploadCells(middleMinX, visibleMinY, middleMaxX, oldMinY - 1);
+        uploadCells(middleMinX, oldMaxY + 1, middleMaxX, visibleMaxY);
+    }
+
+    // Copy composited cells into the view cache, wrapping around its edges
+    private void uploadCells(int minX, int minY, int maxX, int maxY) {
+        for (int y = minY; y <= maxY; ) {
+            int imageY = y % viewImageHeight;
+            int rows = Math.min(maxY - y + 1, viewImageHeight - imageY);
+            for (int x = minX; x <= maxX; ) {
+                int imageX = x % viewImageWidth;
+                int columns = Math.min(maxX - x + 1, viewImageWidth - imageX);
+
+                if (repaintBuffer.length < columns * rows) {
+                    repaintBuffer = new int[columns * rows];
+                }
+                layers.getComposite().copyRegion(x, y, columns, rows, repaintBuffer, 0, columns);
+                viewImage.getPixelWriter().setPixels(imageX, imageY, columns, rows,
+                        PixelFormat.getIntArgbInstance(), repaintBuffer, 0, columns);
+                x += columns;
+            }
+            y += rows;
+        }
+    }
+
+    private void drawVisibleCells() {
         GraphicsContext gc = canvas.getGraphicsContext2D();
         gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
-        gc.drawImage(canvasSnapshot, 0, 0, canvas.getWidth(), canvas.getHeight());
+        if (hasVisibleCells()) {
+            drawCells(visibleMinX, visibleMinY, visibleMaxX, visibleMaxY);
+        }
+    }
+
+    // Paint cached cells onto the main canvas over the background, wrapping around the cache's edges
+    private void drawCells(int minX, int minY, int maxX, int maxY) {
+        if (minX > maxX || minY > maxY || !cacheValid) {
+            return;
+        }
+
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.setImageSmoothing(false); // Keep cells crisp when scaling up
+
+        double left = cellToViewX(minX);
+        double top = cellToViewY(minY);
+        double right = cellToViewX(maxX + 1);
+        double bottom = cellToViewY(maxY + 1);
+        gc.clearRect(left, top, right - left, bottom - top);
+        gc.setFill(backgroundColor);
+        gc.fillRect(left, top, right - left, bottom - top);
+
+        for (int y = minY; y <= maxY; ) {
+            int imageY = y % viewImageHeight;
+            int rows = Math.min(maxY - y + 1, viewImageHeight - imageY);
+            double viewY = cellToViewY(y);
+            double viewHeight = cellToViewY(y + rows) - viewY;
+            for (int x = minX; x <= maxX; ) {
+                int imageX = x % viewImageWidth;
+                int columns = Math.min(maxX - x + 1, viewImageWidth - imageX);
+                double viewX = cellToViewX(x);
+                double viewWidth = cellToViewX(x + columns) - viewX;
+
+                gc.drawImage(viewImage, imageX, imageY, columns, rows, viewX, viewY, viewWidth, viewHeight);
+                x += columns;
+            }
+            y += rows;
+        }
     }
 
     // Method to get the graphics context for drawing previews on the overlay canvas
@@ -119,21 +1015,101 @@ public class PixelCanvas extends StackPane {
     // Method to clear the overlay canvas
     public void clearOverlay() {
         getOverlayGraphicsContext().clearRect(0, 0, overlayCanvas.getWidth(), overlayCanvas.getHeight());
+        previewShown = false;
     }
 
-    public int[] mapMouseToGrid(MouseEvent event) {
-        // Get the local X and Y coordinates, adjusting for zoom
-        double localX = canvas.sceneToLocal(event.getSceneX(), event.getSceneY()).getX() / (gridSize * zoomLevel);
-        double localY = canvas.sceneToLocal(event.getSceneX(), event.getSceneY()).getY() / (gridSize * zoomLevel);
+    /**
+     * Erases the tool preview drawn last and starts a new one on the overlay. Tools report the cells
+     * the new preview covers with {@link #addPreviewBounds}, so that only those are erased next time;
+     * a preview without reported bounds is erased by clearing the whole overlay.
+     */
+    public void startPreview() {
+        clearPreview();
+        previewShown = true;
+        previewBounded = false;
+    }
 
-        int gridX = (int) localX;
-        int gridY = (int) localY;
+    // Extend the current preview's bounds by the inclusive cell range [minX, maxX] x [minY, maxY]
+    public void addPreviewBounds(int minX, int minY, int maxX, int maxY) {
+        if (previewBounded) {
+            previewMinX = Math.min(previewMinX, minX);
+            previewMinY = Math.min(previewMinY, minY);
+            previewMaxX = Math.max(previewMaxX, maxX);
+            previewMaxY = Math.max(previewMaxY, maxY);
+        } else {
+            previewBounded = true;
+            previewMinX = minX;
+            previewMinY = minY;
+            previewMaxX = maxX;
+            previewMaxY = maxY;
+        }
+    }
+
+    // Erase the current preview, if any; the main canvas underneath is never touched
+    public void clearPreview() {
+        if (!previewShown) {
+            return;
+        }
+        if (previewBounded) {
+            double left = cellToViewX(previewMinX);
+            double top = cellToViewY(previewMinY);
+            getOverlayGraphicsContext().clearRect(left, top, cellToViewX(previewMaxX + 1) - left, cellToViewY(previewMaxY + 1) - top);
+            previewShown = false;
+        } else {
+            clearOverlay();
+        }
+    }
+
+    /**
+     * The cell under a pointer event, clamped to the canvas and packed as {@code y << 32 | x}; see
+     * {@link #cellX(long)} and {@link #cellY(long)}. Nothing is allocated while the mapping stays cached.
+     */
+    public long mapMouseToCell(MouseEvent event) {
+        return mapSceneToCell(event.getSceneX(), event.getSceneY());
+    }
+
+    public long mapSceneToCell(double sceneX, double sceneY) {
+        if (!pointerMappingValid) {
+            updatePointerMapping();
+        }
+        int gridX = (int) Math.floor(sceneX * pointerXX + sceneY * pointerXY + pointerX);
+        int gridY = (int) Math.floor(sceneX * pointerYX + sceneY * pointerYY + pointerY);
 
         // Ensure the coordinates stay within the canvas bounds
         gridX = Math.max(0, Math.min(gridX, canvasWidth - 1));
         gridY = Math.max(0, Math.min(gridY, canvasHeight - 1));
+        return packCell(gridX, gridY);
+    }
+
+    public static long packCell(int x, int y) {
+        return ((long) y << 32) | (x & 0xFFFFFFFFL);
+    }
 
-        return new int[]{gridX, gridY};
+    public static int cellX(long cell) {
+        return (int) cell;
+    }
+
+    public static int cellY(long cell) {
+        return (int) (cell >> 32);
+    }
+
+    // Fold the inverse scene transform, the pan and the zoom into one scene-to-cell mapping
+    private void updatePointerMapping() {
+        double cellSize = getCellSize();
+        try {
+            Transform sceneToLocal = canvas.getLocalToSceneTransform().createInverse();
+            pointerXX = sceneToLocal.getMxx() / cellSize;
+            pointerXY = sceneToLocal.getMxy() / cellSize;
+            pointerX = (sceneToLocal.getTx() - offsetX) / cellSize;
+            pointerYX = sceneToLocal.getMyx() / cellSize;
+            pointerYY = sceneToLocal.getMyy() / cellSize;
+            pointerY = (sceneToLocal.getTy() - offsetY) / cellSize;
+        } catch (NonInvertibleTransformException e) {
+            // Scaled to nothing, so nothing can be pointed at either; map everything onto the origin
+            pointerXX = pointerXY = pointerYX = pointerYY = 0;
+            pointerX = pointerY = 0;
+        }
+        pointerMappingValid = true;
     }
 
     public void drawGrid() {
@@ -141,19 +1117,54 @@ public class PixelCanvas extends StackPane {
 
         GraphicsContext gc = gridCanvas.getGraphicsContext2D();
         gc.clearRect(0, 0, gridCanvas.getWidth(), gridCanvas.getHeight());
+        if (!hasVisibleCells()) {
+            return;
+        }
+
+        // Fade the grid out as cells shrink towards the size of the lines themselves
+        double cellSize = getCellSize();
+        double opacity = Math.min(1, (cellSize - GRID_FADE_START) / (GRID_FADE_END - GRID_FADE_START));
+        if (opacity <= 0) {
+            return;
+        }
 
-        gc.setStroke(Color.LIGHTGRAY);
-        gc.setLineWidth(1 / zoomLevel);
+        int tileSize = (int) Math.round(cellSize);
+        if (gridTile == null || (int) gridTile.getWidth() != tileSize) {
+            gridTile = createGridTile(tileSize);
+        }
+
+        double top = Math.max(0, cellToViewY(visibleMinY));
+        double bottom = Math.min(gridCanvas.getHeight(), cellToViewY(visibleMaxY + 1));
+        double left = Math.max(0, cellToViewX(visibleMinX));
+        double right = Math.min(gridCanvas.getWidth(), cellToViewX(visibleMaxX + 1));
 
-        double zoomedGridSize = gridSize * zoomLevel;
+        // One pattern fill draws the top and left border of every visible cell
+        gc.setGlobalAlpha(opacity);
+        gc.setFill(new ImagePattern(gridTile, offsetX, offsetY, cellSize, cellSize, false));
+        gc.fillRect(left, top, right - left, bottom - top);
 
-        for (int x = 0; x <= canvasWidth; x++) {
-            gc.strokeLine(x * zoomedGridSize, 0, x * zoomedGridSize, canvasHeight * zoomedGridSize);
+        // Close off the document's right and bottom edges when they are on screen
+        gc.setFill(GRID_COLOR);
+        double documentRight = cellToViewX(canvasWidth);
+        double documentBottom = cellToViewY(canvasHeight);
+        if (documentRight <= gridCanvas.getWidth()) {
+            gc.fillRect(documentRight, top, 1, bottom - top + 1);
         }
+        if (documentBottom <= gridCanvas.getHeight()) {
+            gc.fillRect(left, documentBottom, right - left + 1, 1);
+        }
+        gc.setGlobalAlpha(1);
+    }
 
-        for (int y = 0; y <= canvasHeight; y++) {
-            gc.strokeLine(0, y * zoomedGridSize, canvasWidth * zoomedGridSize, y * zoomedGridSize);
+    // A single cell with its top and left grid lines, repeated across the view by an ImagePattern
+    private static WritableImage createGridTile(int tileSize) {
+        WritableImage tile = new WritableImage(tileSize, tileSize);
+        PixelWriter writer = tile.getPixelWriter();
+        for (int i = 0; i < tileSize; i++) {
+            writer.setColor(i, 0, GRID_COLOR);
+            writer.setColor(0, i, GRID_COLOR);
         }
+        return tile;
     }
 
     public int getGridSize() {
@@ -161,11 +1172,13 @@ public class PixelCanvas extends StackPane {
     }
 
     public void redrawGrid() {
+        long start = Metrics.start();
         if (showGrid) {
             drawGrid();
         } else {
             gridCanvas.getGraphicsContext2D().clearRect(0, 0, gridCanvas.getWidth(), gridCanvas.getHeight());
         }
+        GRID_TIME.recordSince(start);
     }
 
     public void toggleGridVisibility() {
@@ -176,30 +1189,46 @@ public class PixelCanvas extends StackPane {
     public boolean isGridVisible() {
         return showGrid;
     }
+
     public void resizeCanvasTo(int newWidth, int newHeight) {
         this.canvasWidth = newWidth;
         this.canvasHeight = newHeight;
+        layers.resize(newWidth, newHeight); // Keep existing cells anchored top-left
+        documentReplaced();
+    }
 
-        double scaledWidth = canvasWidth * gridSize * zoomLevel;
-        double scaledHeight = canvasHeight * gridSize * zoomLevel;
-
-        canvas.setWidth(scaledWidth);
-        canvas.setHeight(scaledHeight);
-        gridCanvas.setWidth(scaledWidth);
-        gridCanvas.setHeight(scaledHeight);
-        overlayCanvas.setWidth(scaledWidth);
-        overlayCanvas.setHeight(scaledHeight);
+    /**
+     * Replaces the whole document, for example with a loaded project. Undo history is cleared and the
+     * zoom is re-clamped to the new grid size.
+     */
+    public void loadDocument(LayerStack layers, int gridSize, Color backgroundColor) {
+        this.layers = layers;
+        this.canvasWidth = layers.getWidth();
+        this.canvasHeight = layers.getHeight();
+        this.gridSize = gridSize;
+        this.minZoomLevel = 1.0 / gridSize;
+        this.backgroundColor = backgroundColor;
+        layers.invalidateCaches();
+        documentReplaced();
+        zoomAt(canvas.getWidth() / 2, canvas.getHeight() / 2, getZoomLevel());
+    }
 
-        // Clear the canvas and grid after resizing
-        clearCanvas();
-        redrawGrid();
+    private void documentReplaced() {
+        // Old rectangles, cached cells, recorded deltas and the selection may lie outside the new bounds
+        dirtyRegion.clear();
+        history.clear();
+        selection = null;
+        viewImage = null;
+        cacheValid = false;
+        restoreCanvasContent(); // Rebuilds the composite before the next repaint
 
-        // Restore any previous canvas content if needed
-        restoreCanvasContent();
+        requestLayout(); // The preferred viewport size follows the document size
+        updateView();
+        fireDocumentChanged();
     }
 
     public Color getPixelColor(int x, int y) {
-        return canvasSnapshot.getPixelReader().getColor((int)(x * gridSize * zoomLevel), (int)(y * gridSize * zoomLevel));
+        return ColorUtils.toColor(getPixels().getPixel(x, y));
     }
 
     public GraphicsContext getDrawingGraphicsContext() {
@@ -220,7 +1249,7 @@ public class PixelCanvas extends StackPane {
 
     public void setBackgroundColor(Color backgroundColor) {
         this.backgroundColor = backgroundColor;
-        clearCanvas();
-        redrawGrid();
+        restoreCanvasContent(); // The background sits behind the pixels, so nothing in the model changes
+        fireDocumentChanged();
     }
 }
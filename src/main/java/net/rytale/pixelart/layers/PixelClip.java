@@ -0,0 +1,11 @@
+package net.rytale.pixelart.layers;
+
+/**
+ * Cells copied out of a {@link Selection}: the ARGB pixels of its bounding box, row by row, with the
+ * cells that were not selected left transparent, and a mask of the ones that were, relative to the box.
+ *
+ * @param x Column of the box's left edge in the document it was copied from.
+ * @param y Row of the box's top edge in the document it was copied from.
+ */
+public record PixelClip(int x, int y, int width, int height, int[] pixels, Selection mask) {
+}
@@ -0,0 +1,189 @@
+package net.rytale.pixelart.layers;
+
+/**
+ * A set of selected cells on a grid, one bit per cell.
+ * <p>
+ * Bits are packed into a flat {@code long[]} with every row starting on a new word, so a row is
+ * scanned 64 cells at a time and whole words of it are set at once. Selected cells are read back
+ * as runs of consecutive cells per row, which is how every operation on a selection works: clipping
+ * spans, copying pixels out and writing them back. The bounding box of the selected cells is
+ * tracked as they are added.
+ */
+public class Selection {
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    private final long[] bits;
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+
+    public Selection(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.bits = new long[wordsPerRow * height];
+    }
+
+    public static Selection rectangle(int width, int height, int minX, int minY, int maxX, int maxY) {
+        Selection selection = new Selection(width, height);
+        selection.addRect(minX, minY, maxX, maxY);
+        return selection;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isEmpty() {
+        return maxX < 0;
+    }
+
+    public boolean contains(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return false;
+        }
+        return (bits[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    // Select the inclusive range [startX, endX] on row y; cells outside the grid are ignored
+    public void addSpan(int y, int startX, int endX) {
+        startX = Math.max(startX, 0);
+        endX = Math.min(endX, width - 1);
+        if (y < 0 || y >= height || startX > endX) {
+            return;
+        }
+
+        int rowBase = y * wordsPerRow;
+        int firstWord = startX >>> 6;
+        int lastWord = endX >>> 6;
+        long firstMask = -1L << startX;          // Shifts only use the low six bits
+        long lastMask = -1L >>> (63 - (endX & 63));
+        if (firstWord == lastWord) {
+            bits[rowBase + firstWord] |= firstMask & lastMask;
+        } else {
+            bits[rowBase + firstWord] |= firstMask;
+            for (int word = firstWord + 1; word < lastWord; word++) {
+                bits[rowBase + word] = -1L;
+            }
+            bits[rowBase + lastWord] |= lastMask;
+        }
+
+        minX = Math.min(minX, startX);
+        maxX = Math.max(maxX, endX);
+        minY = Math.min(minY, y);
+        maxY = Math.max(maxY, y);
+    }
+
+    public void addRect(int minX, int minY, int maxX, int maxY) {
+        for (int y = Math.max(minY, 0); y <= Math.min(maxY, height - 1); y++) {
+            addSpan(y, minX, maxX);
+        }
+    }
+
+    public void addSpans(SpanList spans) {
+        for (int i = 0; i < spans.size(); i++) {
+            addSpan(spans.getY(i), spans.getStartX(i), spans.getEndX(i));
+        }
+    }
+
+    /**
+     * Adds to {@code out} the runs of selected cells on row {@code y} between {@code fromX} and
+     * {@code toX} inclusive, left to right.
+     */
+    public void addRuns(int y, int fromX, int toX, SpanList out) {
+        fromX = Math.max(fromX, 0);
+        toX = Math.min(toX, width - 1);
+        if (y < 0 || y >= height) {
+            return;
+        }
+        int rowBase = y * wordsPerRow;
+        int x = fromX;
+        while (x <= toX) {
+            int start = nextSelected(rowBase, x, toX);
+            if (start > toX) {
+                return;
+            }
+            int end = nextUnselected(rowBase, start, toX) - 1;
+            out.add(y, start, end);
+            x = end + 2; // The cell after the run is unselected
+        }
+    }
+
+    // Every run of selected cells, sorted by row and then by x
+    public void toSpans(SpanList out) {
+        for (int y = minY; y <= maxY; y++) {
+            addRuns(y, minX, maxX, out);
+        }
+    }
+
+    // The parts of each span that are selected, added to out
+    public void clip(SpanList spans, SpanList out) {
+        for (int i = 0; i < spans.size(); i++) {
+            addRuns(spans.getY(i), spans.getStartX(i), spans.getEndX(i), out);
+        }
+    }
+
+    /**
+     * The same cells shifted by (dx, dy) on a grid of the given size; cells that end up outside it are
+     * dropped.
+     */
+    public Selection translated(int dx, int dy, int gridWidth, int gridHeight) {
+        Selection moved = new Selection(gridWidth, gridHeight);
+        SpanList runs = new SpanList();
+        for (int y = minY; y <= maxY; y++) {
+            runs.clear();
+            addRuns(y, minX, maxX, runs);
+            for (int i = 0; i < runs.size(); i++) {
+                moved.addSpan(y + dy, runs.getStartX(i) + dx, runs.getEndX(i) + dx);
+            }
+        }
+        return moved;
+    }
+
+    // First selected cell in [x, limit], or limit + 1 if there is none
+    private int nextSelected(int rowBase, int x, int limit) {
+        int word = x >>> 6;
+        long bitsLeft = bits[rowBase + word] & (-1L << x);
+        while (bitsLeft == 0) {
+            word++;
+            if (word << 6 > limit) {
+                return limit + 1;
+            }
+            bitsLeft = bits[rowBase + word];
+        }
+        return Math.min((word << 6) + Long.numberOfTrailingZeros(bitsLeft), limit + 1);
+    }
+
+    // First unselected cell in [x, limit], or limit + 1 if there is none
+    private int nextUnselected(int rowBase, int x, int limit) {
+        int word = x >>> 6;
+        long bitsLeft = ~bits[rowBase + word] & (-1L << x);
+        while (bitsLeft == 0) {
+            word++;
+            if (word << 6 > limit) {
+                return limit + 1;
+            }
+            bitsLeft = ~bits[rowBase + word];
+        }
+        return Math.min((word << 6) + Long.numberOfTrailingZeros(bitsLeft), limit + 1);
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+}
@@ -0,0 +1,119 @@
+package net.rytale.pixelart.layers;
+
+/**
+ * A reusable list of horizontal cell spans, each an inclusive range [startX, endX] on row y.
+ * <p>
+ * Spans are packed into a flat {@code int[]} that only grows, so rasterisers can rebuild
+ * the list on every stroke without allocating. The bounding box of all spans is tracked as they are added.
+ */
+public class SpanList {
+    private int[] spans = new int[3 * 64]; // y, startX, endX per span
+    private int count;
+    private int minX, minY, maxX, maxY;
+
+    public void add(int y, int startX, int endX) {
+        if (startX > endX) {
+            return;
+        }
+        if (count * 3 == spans.length) {
+            int[] grown = new int[spans.length * 2];
+            System.arraycopy(spans, 0, grown, 0, spans.length);
+            spans = grown;
+        }
+
+        int o = count * 3;
+        spans[o] = y;
+        spans[o + 1] = startX;
+        spans[o + 2] = endX;
+
+        if (count == 0) {
+            minX = startX;
+            maxX = endX;
+            minY = y;
+            maxY = y;
+        } else {
+            minX = Math.min(minX, startX);
+            maxX = Math.max(maxX, endX);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int getY(int index) {
+        return spans[index * 3];
+    }
+
+    public int getStartX(int index) {
+        return spans[index * 3 + 1];
+    }
+
+    public int getEndX(int index) {
+        return spans[index * 3 + 2];
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    // Total number of cells covered, assuming spans do not overlap
+    public long cellCount() {
+        long cells = 0;
+        for (int i = 0; i < count; i++) {
+            cells += spans[i * 3 + 2] - spans[i * 3 + 1] + 1;
+        }
+        return cells;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Adds to {@code out} the cells of {@code from} that are not in {@code remove}. Both lists must be
+     * sorted by row and then by x, without overlapping spans; the result is too.
+     */
+    public static void subtract(SpanList from, SpanList remove, SpanList out) {
+        int next = 0; // First span of remove that may still overlap
+        for (int i = 0; i < from.count; i++) {
+            int y = from.getY(i);
+            int startX = from.getStartX(i);
+            int endX = from.getEndX(i);
+            while (next < remove.count && (remove.getY(next) < y
+                    || (remove.getY(next) == y && remove.getEndX(next) < startX))) {
+                next++;
+            }
+
+            int x = startX; // First cell not yet added or removed
+            for (int j = next; j < remove.count && remove.getY(j) == y && remove.getStartX(j) <= endX; j++) {
+                if (remove.getStartX(j) > x) {
+                    out.add(y, x, remove.getStartX(j) - 1);
+                }
+                x = Math.max(x, remove.getEndX(j) + 1);
+            }
+            if (x <= endX) {
+                out.add(y, x, endX);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package net.rytale.pixelart.metrics;
+
+/**
+ * Current value of something, read on demand when metrics are shown or dumped.
+ */
+public final class Gauge {
+
+    @FunctionalInterface
+    public interface Source {
+        double read();
+    }
+
+    private final String name;
+    private final Source source;
+
+    Gauge(String name, Source source) {
+        this.name = name;
+        this.source = source;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getValue() {
+        return source.read();
+    }
+}
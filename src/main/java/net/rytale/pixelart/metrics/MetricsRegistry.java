@@ -0,0 +1,120 @@
+package net.rytale.pixelart.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named counters, gauges and latency histograms. Asking for an existing name returns the same
+ * metric, so short-lived objects such as tools share their metrics with earlier instances.
+ */
+public class MetricsRegistry {
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    // Registers a gauge, replacing any earlier one of the same name
+    public Gauge gauge(String name, Gauge.Source source) {
+        Gauge gauge = new Gauge(name, source);
+        gauges.put(name, gauge);
+        return gauge;
+    }
+
+    public List<Counter> getCounters() {
+        List<Counter> sorted = new ArrayList<>(counters.values());
+        sorted.sort(Comparator.comparing(Counter::getName));
+        return sorted;
+    }
+
+    public List<Gauge> getGauges() {
+        List<Gauge> sorted = new ArrayList<>(gauges.values());
+        sorted.sort(Comparator.comparing(Gauge::getName));
+        return sorted;
+    }
+
+    public List<LatencyHistogram> getHistograms() {
+        List<LatencyHistogram> sorted = new ArrayList<>(histograms.values());
+        sorted.sort(Comparator.comparing(LatencyHistogram::getName));
+        return sorted;
+    }
+
+    // Zero every counter and histogram; gauges have no state of their own
+    public void reset() {
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(LatencyHistogram::reset);
+    }
+
+    /**
+     * Writes every metric to {@code path}, as JSON if the file name ends in ".json" and as CSV otherwise.
+     * Durations are in microseconds.
+     */
+    public void dump(Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            if (path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json")) {
+                writeJson(out);
+            } else {
+                writeCsv(out);
+            }
+        }
+    }
+
+    public void writeCsv(Writer out) throws IOException {
+        out.write("name,type,count,value,mean_us,p50_us,p90_us,p99_us,max_us\n");
+        for (Counter counter : getCounters()) {
+            out.write(String.format(Locale.ROOT, "%s,counter,%d,,,,,,%n", counter.getName(), counter.getCount()));
+        }
+        for (Gauge gauge : getGauges()) {
+            out.write(String.format(Locale.ROOT, "%s,gauge,,%s,,,,,%n", gauge.getName(), gauge.getValue()));
+        }
+        for (LatencyHistogram histogram : getHistograms()) {
+            out.write(String.format(Locale.ROOT, "%s,histogram,%d,,%.3f,%.3f,%.3f,%.3f,%.3f%n",
+                    histogram.getName(), histogram.getCount(), histogram.getMeanNanos() / 1e3,
+                    histogram.getPercentileNanos(50) / 1e3, histogram.getPercentileNanos(90) / 1e3,
+                    histogram.getPercentileNanos(99) / 1e3, histogram.getMaxNanos() / 1e3));
+        }
+    }
+
+    public void writeJson(Writer out) throws IOException {
+        out.write("{\n  \"counters\": {");
+        String separator = "\n";
+        for (Counter counter : getCounters()) {
+            out.write(String.format(Locale.ROOT, "%s    \"%s\": %d", separator, counter.getName(), counter.getCount()));
+            separator = ",\n";
+        }
+        out.write("\n  },\n  \"gauges\": {");
+        separator = "\n";
+        for (Gauge gauge : getGauges()) {
+            double value = gauge.getValue();
+            out.write(String.format(Locale.ROOT, "%s    \"%s\": %s", separator, gauge.getName(),
+                    Double.isFinite(value) ? Double.toString(value) : "null"));
+            separator = ",\n";
+        }
+        out.write("\n  },\n  \"histograms\": {");
+        separator = "\n";
+        for (LatencyHistogram histogram : getHistograms()) {
+            out.write(String.format(Locale.ROOT,
+                    "%s    \"%s\": {\"count\": %d, \"mean_us\": %.3f, \"p50_us\": %.3f, \"p90_us\": %.3f, \"p99_us\": %.3f, \"max_us\": %.3f}",
+                    separator, histogram.getName(), histogram.getCount(), histogram.getMeanNanos() / 1e3,
+                    histogram.getPercentileNanos(50) / 1e3, histogram.getPercentileNanos(90) / 1e3,
+                    histogram.getPercentileNanos(99) / 1e3, histogram.getMaxNanos() / 1e3));
+            separator = ",\n";
+        }
+        out.write("\n  }\n}\n");
+    }
+}
@@ -3,33 +3,67 @@ package net.rytale.pixelart.tools;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.metrics.LatencyHistogram;
+import net.rytale.pixelart.metrics.Metrics;
 
 public abstract class AbstractDrawingTool {
     protected PixelCanvas canvas;
     protected Color color;
     protected int startX, startY;
+    private final LatencyHistogram previewTime; // Shared by every instance of the same tool class
+    private final LatencyHistogram finalTime;
 
     public AbstractDrawingTool(PixelCanvas canvas, Color color) {
         this.canvas = canvas;
         this.color = color;
+        String metricName = "tool." + getClass().getSimpleName();
+        this.previewTime = Metrics.histogram(metricName + ".drawPreview");
+        this.finalTime = Metrics.histogram(metricName + ".drawFinal");
     }
 
     public void onMousePressed(int gridX, int gridY) {
         startX = gridX;
         startY = gridY;
-        canvas.saveCanvasSnapshot();
     }
 
+    // Previews only go on the overlay, so the document needs no restoring while dragging
     public void onMouseDragged(int gridX, int gridY) {
+        renderPreview(startX, startY, gridX, gridY);
+    }
 
-        canvas.restoreCanvasContent();
-        drawPreview(startX, startY, gridX, gridY);
+    // Drag positions gathered over one pulse, in order; tools that only follow the pointer need just the last
+    public void onMouseDragged(StrokeSamples samples) {
+        if (!samples.isEmpty()) {
+            onMouseDragged(samples.getX(samples.size() - 1), samples.getY(samples.size() - 1));
+        }
     }
 
     public void onMouseReleased(int gridX, int gridY) {
+        canvas.clearPreview();
+        renderFinal(startX, startY, gridX, gridY);
+    }
+
+    /**
+     * Timed calls to drawPreview and drawFinal; subclasses that handle the mouse themselves should use these.
+     * The previous preview is erased first, and drawPreview should report what it draws with
+     * {@link PixelCanvas#addPreviewBounds} so that erasing it next time costs no more than drawing it.
+     */
+    protected final void renderPreview(int startX, int startY, int endX, int endY) {
+        long start = Metrics.start();
+        canvas.startPreview();
+        drawPreview(startX, startY, endX, endY);
+        previewTime.recordSince(start);
+    }
+
+    protected final void renderFinal(int startX, int startY, int endX, int endY) {
+        long start = Metrics.start();
+        drawFinal(startX, startY, endX, endY);
+        finalTime.recordSince(start);
+    }
 
-        canvas.restoreCanvasContent();
-        drawFinal(startX, startY, gridX, gridY);
+    // For drawing done outside drawFinal, like a freehand stroke painted while dragging; counts as drawFinal time
+    protected final void recordFinalTime(long start) {
+        finalTime.recordSince(start);
     }
 
     protected abstract void drawPreview(int startX, int startY, int endX, int endY);
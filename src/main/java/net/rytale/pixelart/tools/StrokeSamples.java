@@ -0,0 +1,72 @@
+package net.rytale.pixelart.tools;
+
+/**
+ * Pointer positions gathered between two pulses, in the order they arrived, as grid cells.
+ * <p>
+ * A mouse that reports far more often than the screen refreshes sends many drag events per frame,
+ * most of them for the cell it already reported. Positions are packed as x, y pairs into a flat
+ * {@code int[]} that only grows, and a position equal to the one before it is dropped, including
+ * the last one handed to the tool in an earlier batch.
+ */
+public class StrokeSamples {
+    private int[] samples = new int[2 * 16]; // x, y per sample
+    private int count;
+    private int lastX, lastY; // Most recent position, kept across clear()
+    private boolean hasLast;
+
+    // Start a new stroke at the pressed cell, which the tool handles itself
+    public void start(int x, int y) {
+        count = 0;
+        lastX = x;
+        lastY = y;
+        hasLast = true;
+    }
+
+    // Add a position; returns false if it is the cell the pointer was already on
+    public boolean add(int x, int y) {
+        if (hasLast && x == lastX && y == lastY) {
+            return false;
+        }
+        if (count * 2 == samples.length) {
+            int[] grown = new int[samples.length * 2];
+            System.arraycopy(samples, 0, grown, 0, samples.length);
+            samples = grown;
+        }
+        samples[count * 2] = x;
+        samples[count * 2 + 1] = y;
+        count++;
+        lastX = x;
+        lastY = y;
+        hasLast = true;
+        return true;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int getX(int index) {
+        return samples[index * 2];
+    }
+
+    public int getY(int index) {
+        return samples[index * 2 + 1];
+    }
+
+    public int getLastX() {
+        return lastX;
+    }
+
+    public int getLastY() {
+        return lastY;
+    }
+
+    // Forget the batch once the tool has handled it; the last position still filters out repeats
+    public void clear() {
+        count = 0;
+    }
+}
@@ -0,0 +1,17 @@
+package net.rytale.pixelart.tools;
+
+import java.nio.file.Path;
+
+/**
+ * A tool the editor can offer, known before its class is loaded.
+ *
+ * @param className   Fully qualified name of the {@link AbstractDrawingTool} subclass.
+ * @param displayName Label for the tool's button.
+ * @param source      Class file of a plugin tool, or null for a tool built into the application.
+ */
+public record ToolDescriptor(String className, String displayName, Path source) {
+
+    public boolean isBuiltIn() {
+        return source == null;
+    }
+}
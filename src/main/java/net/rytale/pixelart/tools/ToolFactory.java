@@ -0,0 +1,36 @@
+package net.rytale.pixelart.tools;
+
+import javafx.scene.paint.Color;
+import net.rytale.pixelart.layers.PixelCanvas;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Creates instances of one tool class.
+ */
+@FunctionalInterface
+public interface ToolFactory {
+
+    AbstractDrawingTool create(PixelCanvas canvas, Color color);
+
+    /**
+     * A factory bound once to the public {@code (PixelCanvas, Color)} constructor of {@code toolClass},
+     * so creating a tool is a direct constructor call instead of a reflective lookup.
+     */
+    static ToolFactory forClass(Class<? extends AbstractDrawingTool> toolClass) throws NoSuchMethodException, IllegalAccessException {
+        MethodHandle constructor = MethodHandles.publicLookup()
+                .findConstructor(toolClass, MethodType.methodType(void.class, PixelCanvas.class, Color.class))
+                .asType(MethodType.methodType(AbstractDrawingTool.class, PixelCanvas.class, Color.class));
+        return (canvas, color) -> {
+            try {
+                return (AbstractDrawingTool) constructor.invokeExact(canvas, color);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to create " + toolClass.getName(), e);
+            }
+        };
+    }
+}
@@ -0,0 +1,125 @@
+package net.rytale.pixelart.tools;
+
+import net.rytale.pixelart.utils.AppLogger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * What was learned about each plugin file the last time it was inspected, so files that have not
+ * changed since can be registered without loading them.
+ * <p>
+ * The index is a text file with a version line followed by one tab-separated line per plugin file,
+ * a class file or a jar, with the tools it contains as comma-separated {@code className=displayName} pairs:
+ * <pre>
+ * source  sha256  lastModifiedMillis  size  tools
+ * </pre>
+ * A file without tools is kept with an empty tool list, so it is not inspected again either.
+ */
+final class ToolIndex {
+    private static final Logger logger = AppLogger.getLogger();
+    private static final String HEADER = "# RytalePixels tool index v2";
+
+    record Tool(String className, String displayName) {
+    }
+
+    /**
+     * @param source Path of the plugin file relative to the tool directory, with '/' separators.
+     */
+    record Entry(String source, String hash, long lastModified, long size, List<Tool> tools) {
+
+        boolean matches(long lastModified, long size) {
+            return this.lastModified == lastModified && this.size == size;
+        }
+    }
+
+    private ToolIndex() {
+    }
+
+    // Entries by source; empty if the index is missing, from another version or unreadable
+    static Map<String, Entry> read(Path file) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        if (!Files.isRegularFile(file)) {
+            return entries;
+        }
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+                return entries;
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 5) {
+                    continue;
+                }
+                List<Tool> tools = new ArrayList<>();
+                for (String tool : fields[4].split(",")) {
+                    int separator = tool.indexOf('=');
+                    if (separator > 0) {
+                        tools.add(new Tool(tool.substring(0, separator), tool.substring(separator + 1)));
+                    }
+                }
+                entries.put(fields[0], new Entry(fields[0], fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]), List.copyOf(tools)));
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warning("Ignoring unreadable tool index: " + e.getMessage());
+            entries.clear();
+        }
+        return entries;
+    }
+
+    static void write(Path file, Collection<Entry> entries) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                out.write(HEADER);
+                out.newLine();
+                for (Entry entry : entries) {
+                    StringBuilder tools = new StringBuilder();
+                    for (Tool tool : entry.tools()) {
+                        tools.append(tools.isEmpty() ? "" : ",").append(tool.className()).append('=').append(tool.displayName());
+                    }
+                    out.write(entry.source() + "\t" + entry.hash() + "\t" + entry.lastModified() + "\t" + entry.size() + "\t" + tools);
+                    out.newLine();
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING); // Not every file system can rename atomically
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to write tool index: " + e.getMessage());
+        }
+    }
+
+    static String hash(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+}
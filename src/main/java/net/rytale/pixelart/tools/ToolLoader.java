@@ -1,134 +1,465 @@
 package net.rytale.pixelart.tools;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.logging.Logger;
 
 import net.rytale.pixelart.layers.PixelCanvas;
 import net.rytale.pixelart.utils.AppLogger;
 
-public class ToolLoader {
+/**
+ * Registry of the drawing tools the editor offers.
+ * <p>
+ * Built-in tools come straight from the application's class loader. Plugin tools are class files in
+ * the {@code net/rytale/pixelart/tools/tool} folder under {@link #TOOL_DIRECTORY}, or jars directly in
+ * it. What is known about each plugin file is kept in a {@link ToolIndex}, so files that did not
+ * change since the last launch are registered from a directory listing alone. New or changed files
+ * are hashed, and only loaded to check that they are tools if their contents really changed. Tool
+ * classes are otherwise loaded the first time a tool is created, and bound to a {@link ToolFactory}
+ * at the same time.
+ * <p>
+ * Every plugin tool is loaded by its own class loader. With {@link #startWatching} the tool directory
+ * is watched, and when plugin files are added, changed or removed the registry is rescanned and
+ * replaced as a whole; tools whose files changed get a new class loader, and the old one is closed
+ * so it can be collected along with the classes it loaded.
+ */
+public class ToolLoader implements AutoCloseable {
     private static final Logger logger = AppLogger.getLogger();
     public static final String APP_DATA_DIRECTORY = System.getProperty("user.home") + File.separator + "RytalePixels";
     public static final String TOOL_DIRECTORY = APP_DATA_DIRECTORY + File.separator + "icons";
+    private static final Path INDEX_FILE = Paths.get(APP_DATA_DIRECTORY, "tool-index.txt");
     private static final String TOOL_PACKAGE = "net.rytale.pixelart.tools.tool";
-    private Map<String, Class<? extends AbstractDrawingTool>> tools = new HashMap<>();
+    private static final String[] BUILT_IN_TOOLS = {"PencilTool", "EraserTool", "LineTool", "RectangleTool", "BucketFillTool", "SelectionTool"};
+    private static final long QUIET_PERIOD_MILLIS = 300; // Changes are picked up once the directory has been still this long
+
+    private final Path toolDirectory;
+    private final Path indexFile;
+    private volatile Map<String, ToolEntry> entries; // By class name, built-ins first; replaced whole, never modified
+    // Reused tools per canvas. The tools hold their canvas, so entries stay until discardTools or close
+    private final Map<PixelCanvas, Map<String, CachedTool>> instances = new HashMap<>();
+    private WatchService watchService;
+
+    // A registered tool, with the class loader and factory it gets once first used
+    private static final class ToolEntry {
+        final ToolDescriptor descriptor;
+        final String hash; // Contents of the plugin file it was found in, or null for a built-in tool
+        private final URL classpath;
+        private URLClassLoader classLoader;
+        private Class<? extends AbstractDrawingTool> toolClass;
+        private ToolFactory factory;
+
+        ToolEntry(ToolDescriptor descriptor, String hash, URL classpath) {
+            this.descriptor = descriptor;
+            this.hash = hash;
+            this.classpath = classpath;
+        }
+
+        synchronized ToolFactory factory() throws ReflectiveOperationException {
+            if (factory == null) {
+                ClassLoader loader = ToolLoader.class.getClassLoader();
+                if (classpath != null) {
+                    classLoader = new URLClassLoader(new URL[]{classpath}, loader);
+                    loader = classLoader;
+                }
+                toolClass = Class.forName(descriptor.className(), true, loader).asSubclass(AbstractDrawingTool.class);
+                factory = ToolFactory.forClass(toolClass);
+            }
+            return factory;
+        }
+
+        synchronized boolean created(AbstractDrawingTool tool) {
+            return toolClass == tool.getClass();
+        }
+
+        synchronized void close() {
+            if (classLoader != null) {
+                try {
+                    classLoader.close();
+                } catch (IOException e) {
+                    logger.warning("Failed to close class loader of " + descriptor.className() + ": " + e.getMessage());
+                }
+                classLoader = null;
+            }
+        }
+    }
+
+    private record CachedTool(ToolEntry entry, AbstractDrawingTool tool) {
+    }
+
+    private record Scan(Map<String, ToolEntry> entries, List<ToolEntry> retired) {
+    }
 
     public ToolLoader() {
+        this(Paths.get(TOOL_DIRECTORY), INDEX_FILE);
+    }
+
+    public ToolLoader(Path toolDirectory, Path indexFile) {
+        this.toolDirectory = toolDirectory;
+        this.indexFile = indexFile;
         createDirectories();
-        copyDefaultTools();
-        loadTools();
+        this.entries = scan(Map.of()).entries();
     }
 
     private void createDirectories() {
-        File toolDir = new File(TOOL_DIRECTORY);
-
-        if (!toolDir.exists() && toolDir.mkdirs()) {
-            logger.info("Created directory: " + TOOL_DIRECTORY);
+        Path packageDirectory = pluginPackageDirectory();
+        if (!Files.isDirectory(packageDirectory)) {
+            try {
+                Files.createDirectories(packageDirectory);
+                logger.info("Created plugin tool directory: " + packageDirectory);
+            } catch (IOException e) {
+                logger.warning("Failed to create plugin tool directory: " + e.getMessage());
+            }
         }
     }
 
-    private void copyDefaultTools() {
-        String[] toolNames = {"BucketFillTool", "EraserTool", "LineTool", "PencilTool", "RectangleTool"};
+    /**
+     * Builds the registry from the built-in tools and the plugin files on disk. Entries in
+     * {@code previous} whose files did not change are carried over, with their class loaders;
+     * the rest of {@code previous} is returned as retired.
+     */
+    private Scan scan(Map<String, ToolEntry> previous) {
+        Map<String, ToolEntry> next = new LinkedHashMap<>();
+        for (String toolName : BUILT_IN_TOOLS) {
+            String className = TOOL_PACKAGE + "." + toolName;
+            ToolEntry builtIn = previous.get(className);
+            next.put(className, builtIn != null ? builtIn : new ToolEntry(new ToolDescriptor(className, toolName, null), null, null));
+        }
 
-        for (String toolName : toolNames) {
-            String classFilePath = TOOL_DIRECTORY + File.separator + TOOL_PACKAGE.replace(".", File.separator) + File.separator + toolName + ".class";
-            File classFile = new File(classFilePath);
+        Map<String, ToolIndex.Entry> index = ToolIndex.read(indexFile);
+        Map<String, ToolIndex.Entry> current = new LinkedHashMap<>();
+        List<Path> stale = new ArrayList<>();
+        for (Path file : listPluginFiles()) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                ToolIndex.Entry entry = index.get(source(file));
+                if (entry != null && entry.matches(attributes.lastModifiedTime().toMillis(), attributes.size())) {
+                    current.put(entry.source(), entry);
+                } else {
+                    stale.add(file);
+                }
+            } catch (IOException e) {
+                logger.warning("Failed to read plugin tool " + file + ": " + e.getMessage()); // Removed while listing
+            }
+        }
 
-            if (!classFile.exists()) {
-                try {
-                    copyClassFileFromResources(toolName + ".class", classFilePath);
-                } catch (IOException e) {
-                    logger.severe("Failed to copy class file for " + toolName + ": " + e.getMessage());
-                    e.printStackTrace();
+        // Inspect new and changed files in parallel; they are independent of each other
+        stale.parallelStream()
+                .map(file -> inspect(file, index.get(source(file))))
+                .filter(Objects::nonNull)
+                .toList()
+                .forEach(entry -> current.put(entry.source(), entry));
+
+        for (ToolIndex.Entry entry : current.values()) {
+            Path file = toolDirectory.resolve(entry.source());
+            for (ToolIndex.Tool tool : entry.tools()) {
+                if (next.containsKey(tool.className())) {
+                    logger.warning("Ignoring " + tool.className() + " in " + entry.source() + ": a tool with that name is already registered");
+                    continue;
                 }
+                ToolEntry old = previous.get(tool.className());
+                if (old != null && entry.hash().equals(old.hash) && file.equals(old.descriptor.source())) {
+                    next.put(tool.className(), old);
+                } else {
+                    try {
+                        URL classpath = (isJar(file) ? file : toolDirectory).toUri().toURL();
+                        next.put(tool.className(), new ToolEntry(new ToolDescriptor(tool.className(), tool.displayName(), file), entry.hash(), classpath));
+                    } catch (MalformedURLException e) {
+                        logger.warning("Failed to register " + tool.className() + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        if (!stale.isEmpty() || !current.keySet().equals(index.keySet())) {
+            ToolIndex.write(indexFile, current.values());
+        }
+
+        List<ToolEntry> retired = new ArrayList<>();
+        for (ToolEntry old : previous.values()) {
+            if (next.get(old.descriptor.className()) != old) {
+                retired.add(old);
             }
         }
+        logger.info(String.format("Registered %d plugin tool(s), %d file(s) inspected", next.size() - BUILT_IN_TOOLS.length, stale.size()));
+        return new Scan(Collections.unmodifiableMap(next), retired);
     }
 
-    private void copyClassFileFromResources(String resourceName, String destinationPath) throws IOException {
-        String resourcePath = "/" + TOOL_PACKAGE.replace(".", "/") + "/" + resourceName;
-        InputStream inputStream = getClass().getResourceAsStream(resourcePath);
+    // Class files in the tool package folder, except nested classes, and jars in the tool directory
+    private List<Path> listPluginFiles() {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(pluginPackageDirectory())) {
+            try (DirectoryStream<Path> classFiles = Files.newDirectoryStream(pluginPackageDirectory(), "*.class")) {
+                for (Path file : classFiles) {
+                    String className = TOOL_PACKAGE + "." + stripExtension(file);
+                    // Copies of built-in tools left by older versions are ignored
+                    if (className.indexOf('$') < 0 && !isBuiltIn(className)) {
+                        files.add(file);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warning("Failed to list plugin tools: " + e.getMessage());
+            }
+        }
+        if (Files.isDirectory(toolDirectory)) {
+            try (DirectoryStream<Path> jars = Files.newDirectoryStream(toolDirectory, "*.jar")) {
+                jars.forEach(files::add);
+            } catch (IOException e) {
+                logger.warning("Failed to list plugin jars: " + e.getMessage());
+            }
+        }
+        return files;
+    }
 
-        if (inputStream != null) {
-            File destinationFile = new File(destinationPath);
-            destinationFile.getParentFile().mkdirs(); // Ensure the directories exist
+    // Index entry for a new or changed plugin file, reusing the old one if only its timestamp changed
+    private ToolIndex.Entry inspect(Path file, ToolIndex.Entry previous) {
+        String source = source(file);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            String hash = ToolIndex.hash(file);
+            if (previous != null && previous.hash().equals(hash)) {
+                return new ToolIndex.Entry(source, hash, lastModified, attributes.size(), previous.tools());
+            }
 
-            if (!destinationFile.exists()) {
-                try (FileOutputStream outputStream = new FileOutputStream(destinationFile)) {
-                    Files.copy(inputStream, destinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                    logger.info("Copied " + resourceName + " to " + destinationPath);
+            List<String> classNames = new ArrayList<>();
+            if (isJar(file)) {
+                try (JarFile jar = new JarFile(file.toFile())) {
+                    for (JarEntry entry : Collections.list(jar.entries())) {
+                        String name = entry.getName();
+                        if (name.endsWith(".class") && name.indexOf('$') < 0 && !name.endsWith("module-info.class")) {
+                            classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                        }
+                    }
                 }
             } else {
-                logger.info("File already exists: " + destinationPath + " - Skipping copy.");
+                classNames.add(TOOL_PACKAGE + "." + stripExtension(file));
             }
-        } else {
-            logger.severe("Resource not found: " + resourcePath);
+
+            // A throwaway loader, without initialising anything: enough to check the types, and no plugin code runs
+            List<ToolIndex.Tool> tools = new ArrayList<>();
+            URL classpath = (isJar(file) ? file : toolDirectory).toUri().toURL();
+            try (URLClassLoader loader = new URLClassLoader(new URL[]{classpath}, ToolLoader.class.getClassLoader())) {
+                for (String className : classNames) {
+                    Class<?> loaded = Class.forName(className, false, loader);
+                    if (AbstractDrawingTool.class.isAssignableFrom(loaded) && !Modifier.isAbstract(loaded.getModifiers())) {
+                        tools.add(new ToolIndex.Tool(className, loaded.getSimpleName()));
+                    }
+                }
+            }
+            logger.fine(() -> "Inspected plugin file " + source + ", found " + tools.size() + " tool(s)");
+            return new ToolIndex.Entry(source, hash, lastModified, attributes.size(), List.copyOf(tools));
+        } catch (IOException | ReflectiveOperationException | LinkageError e) {
+            logger.warning("Failed to inspect plugin tool " + source + ": " + e);
+            return null;
         }
     }
 
-    private void loadTools() {
+    /**
+     * Watches the tool directory on a background thread. Once plugin files have been added, changed
+     * or removed and the directory has been still for a moment, the registry is rescanned; the new
+     * registry is swapped in on {@code uiExecutor}, after which {@code onToolsChanged} runs there too.
+     * Tools made stale by the swap should be dropped at that point, see {@link #isCurrent}.
+     */
+    public void startWatching(Executor uiExecutor, Runnable onToolsChanged) {
         try {
-            File toolDir = new File(TOOL_DIRECTORY);
-
-            if (toolDir.exists() && toolDir.isDirectory()) {
-                URL[] urls = {toolDir.toURI().toURL()};
-                URLClassLoader classLoader = new URLClassLoader(urls);
-
-                File baseDir = new File(toolDir, TOOL_PACKAGE.replace(".", File.separator));
-                if (baseDir.exists() && baseDir.isDirectory()) {
-                    File[] toolFiles = baseDir.listFiles((dir, name) -> name.endsWith(".class"));
-                    if (toolFiles != null) {
-                        for (File file : toolFiles) {
-                            String className = TOOL_PACKAGE + "." + file.getName().replace(".class", "");
-                            logger.info("Attempting to load class: " + className);
-                            Class<?> clazz = Class.forName(className, true, classLoader);
-                            if (AbstractDrawingTool.class.isAssignableFrom(clazz)) {
-                                tools.put(className, (Class<? extends AbstractDrawingTool>) clazz);
-                                logger.info("Loaded tool: " + className);
-                            }
-                        }
-                    } else {
-                        logger.warning("No tool files found in directory: " + baseDir.getAbsolutePath());
-                    }
-                } else {
-                    logger.warning("Tool package directory does not exist: " + baseDir.getAbsolutePath());
+            watchService = FileSystems.getDefault().newWatchService();
+            for (Path directory : List.of(toolDirectory, pluginPackageDirectory())) {
+                if (Files.isDirectory(directory)) {
+                    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to watch the tool directory: " + e.getMessage());
+            return;
+        }
+
+        Thread watcher = new Thread(() -> watch(uiExecutor, onToolsChanged), "tool-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch(Executor uiExecutor, Runnable onToolsChanged) {
+        Map<String, ToolEntry> scanned = entries; // The registry as of the last scan, which may not be swapped in yet
+        try {
+            while (true) {
+                boolean changed = pluginFilesChanged(watchService.take());
+                // A compiler or copy writes a file in several steps, so wait for the directory to go quiet
+                WatchKey key;
+                while ((key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= pluginFilesChanged(key);
+                }
+                if (!changed) {
+                    continue;
                 }
+
+                long start = System.nanoTime();
+                Scan scan = scan(scanned);
+                boolean unchanged = scan.retired().isEmpty() && scan.entries().size() == scanned.size();
+                scanned = scan.entries();
+                if (unchanged) {
+                    continue; // Nothing that affects the registered tools
+                }
+                uiExecutor.execute(() -> {
+                    entries = scan.entries();
+                    pruneInstances();
+                    onToolsChanged.run();
+                    scan.retired().forEach(ToolEntry::close); // Nothing uses their classes any more
+                    logger.info(String.format("Reloaded plugin tools in %d ms, %d replaced or removed",
+                            (System.nanoTime() - start) / 1_000_000, scan.retired().size()));
+                });
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped by close()
+        }
+    }
+
+    private static boolean pluginFilesChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path path) {
+                String name = path.toString();
+                changed |= name.endsWith(".class") || name.endsWith(".jar");
             } else {
-                logger.warning("Tool directory does not exist: " + TOOL_DIRECTORY);
+                changed = true; // Events were lost, so anything may have changed
             }
-        } catch (Exception e) {
-            logger.severe("Failed to load tools: " + e.getMessage());
-            e.printStackTrace();
         }
+        key.reset();
+        return changed;
+    }
+
+    // Drop cached instances of tools that were replaced or removed
+    private void pruneInstances() {
+        Map<String, ToolEntry> current = entries;
+        for (Map<String, CachedTool> canvasTools : instances.values()) {
+            canvasTools.values().removeIf(cached -> current.get(cached.entry().descriptor.className()) != cached.entry());
+        }
+    }
+
+    // Whether the tool was created from the currently registered version of its class
+    public boolean isCurrent(AbstractDrawingTool tool) {
+        ToolEntry entry = entries.get(tool.getClass().getName());
+        return entry != null && entry.created(tool);
+    }
+
+    // Every registered tool by class name, built-in tools first
+    public Map<String, ToolDescriptor> getTools() {
+        Map<String, ToolDescriptor> tools = new LinkedHashMap<>();
+        entries.forEach((className, entry) -> tools.put(className, entry.descriptor));
+        return Collections.unmodifiableMap(tools);
+    }
+
+    /**
+     * The tool's instance for {@code canvas}, created on first use and reused afterwards so its
+     * settings and options panel survive switching between tools. The caller should apply the
+     * current color, since the instance keeps the one it last had. Instances are kept until
+     * {@link #discardTools} is called for the canvas.
+     */
+    public AbstractDrawingTool getTool(String fullyQualifiedName, PixelCanvas canvas, javafx.scene.paint.Color color) {
+        ToolEntry entry = entries.get(fullyQualifiedName);
+        if (entry == null) {
+            logger.warning("Tool not found: " + fullyQualifiedName);
+            return null;
+        }
+        Map<String, CachedTool> canvasTools = instances.computeIfAbsent(canvas, key -> new HashMap<>());
+        CachedTool cached = canvasTools.get(fullyQualifiedName);
+        if (cached != null && cached.entry() == entry) {
+            return cached.tool();
+        }
+        AbstractDrawingTool tool = create(entry, canvas, color);
+        if (tool != null) {
+            canvasTools.put(fullyQualifiedName, new CachedTool(entry, tool));
+        }
+        return tool;
+    }
+
+    // Forget the tools made for a canvas that is no longer used, so they and the canvas can be collected
+    public void discardTools(PixelCanvas canvas) {
+        instances.remove(canvas);
     }
 
+    // A new instance of the tool, or null if it is unknown or cannot be created
     public AbstractDrawingTool createTool(String fullyQualifiedName, PixelCanvas canvas, javafx.scene.paint.Color color) {
-        logger.info("Attempting to create tool: " + fullyQualifiedName);
-        Class<? extends AbstractDrawingTool> toolClass = tools.get(fullyQualifiedName);
-        if (toolClass != null) {
+        ToolEntry entry = entries.get(fullyQualifiedName);
+        if (entry == null) {
+            logger.warning("Tool not found: " + fullyQualifiedName);
+            return null;
+        }
+        return create(entry, canvas, color);
+    }
+
+    private AbstractDrawingTool create(ToolEntry entry, PixelCanvas canvas, javafx.scene.paint.Color color) {
+        logger.fine(() -> "Attempting to create tool: " + entry.descriptor.className());
+        try {
+            return entry.factory().create(canvas, color);
+        } catch (Exception | LinkageError e) {
+            logger.severe("Failed to create tool: " + e);
+            return null;
+        }
+    }
+
+    // Stop watching and release every plugin class loader
+    @Override
+    public void close() {
+        if (watchService != null) {
             try {
-                return toolClass.getConstructor(PixelCanvas.class, javafx.scene.paint.Color.class).newInstance(canvas, color);
-            } catch (Exception e) {
-                logger.severe("Failed to create tool: " + e.getMessage());
-                e.printStackTrace();
+                watchService.close();
+            } catch (IOException e) {
+                logger.warning("Failed to stop watching the tool directory: " + e.getMessage());
             }
-        } else {
-            logger.warning("Tool not found: " + fullyQualifiedName);
         }
-        return null;
+        instances.clear();
+        entries.values().forEach(ToolEntry::close);
     }
 
-    public Map<String, Class<? extends AbstractDrawingTool>> getTools() {
-        return tools;
+    private Path pluginPackageDirectory() {
+        return toolDirectory.resolve(TOOL_PACKAGE.replace('.', File.separatorChar));
     }
-}
 
+    private String source(Path file) {
+        return toolDirectory.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private static boolean isBuiltIn(String className) {
+        for (String toolName : BUILT_IN_TOOLS) {
+            if (className.equals(TOOL_PACKAGE + "." + toolName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isJar(Path file) {
+        return file.getFileName().toString().endsWith(".jar");
+    }
+
+    private static String stripExtension(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+}
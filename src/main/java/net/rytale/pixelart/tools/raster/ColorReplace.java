@@ -0,0 +1,155 @@
+package net.rytale.pixelart.tools.raster;
+
+import net.rytale.pixelart.history.PixelDelta;
+import net.rytale.pixelart.layers.PixelBuffer;
+
+import java.io.Serial;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Replaces one color with another across a whole {@link PixelBuffer}.
+ * <p>
+ * The buffer is split into bands of whole tile rows that are processed in parallel on a
+ * {@link ForkJoinPool}. Bands never share tiles, so workers write without synchronisation,
+ * and unpainted tiles are tested once instead of cell by cell.
+ */
+public class ColorReplace {
+    private static final int MIN_BAND_CELLS = 1 << 14; // Below this a band is not worth splitting further
+
+    private final ForkJoinPool pool;
+
+    public ColorReplace() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ColorReplace(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Replaces every cell within {@code tolerance} of {@code from} (per ARGB channel) with {@code to}.
+     *
+     * @return The number of cells that changed.
+     */
+    public long replace(PixelBuffer buffer, int from, int to, int tolerance) {
+        return replace(buffer, from, to, tolerance, null);
+    }
+
+    /**
+     * Like {@link #replace(PixelBuffer, int, int, int)}, additionally recording every changed cell into
+     * {@code recorder} if it is not null. Each band records into its own delta; they are merged in band
+     * order once all bands are done.
+     */
+    public long replace(PixelBuffer buffer, int from, int to, int tolerance, PixelDelta recorder) {
+        if (from == to && tolerance == 0) {
+            return 0;
+        }
+        int tileRowsPerBand = Math.max(1, MIN_BAND_CELLS / (buffer.getWidth() * PixelBuffer.TILE_SIZE));
+        int rowsPerBand = tileRowsPerBand * PixelBuffer.TILE_SIZE;
+        int bands = (buffer.getHeight() + rowsPerBand - 1) / rowsPerBand;
+
+        Job job = new Job(buffer, rowsPerBand, from, to, tolerance, recorder != null ? new PixelDelta[bands] : null);
+        long changed = pool.invoke(new BandTask(job, 0, buffer.getHeight()));
+
+        if (recorder != null) {
+            for (PixelDelta bandDelta : job.bandDeltas()) {
+                if (bandDelta != null) {
+                    recorder.append(bandDelta);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private record Job(PixelBuffer buffer, int rowsPerBand, int from, int to, int tolerance, PixelDelta[] bandDeltas) {
+    }
+
+    private static final class BandTask extends RecursiveTask<Long> {
+        @Serial
+        private static final long serialVersionUID = 1L; // Serializable only through ForkJoinTask; never serialized
+
+        private final Job job;
+        private final int startRow, endRow; // Rows [startRow, endRow)
+
+        BandTask(Job job, int startRow, int endRow) {
+            this.job = job;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected Long compute() {
+            int rows = endRow - startRow;
+            int rowsPerBand = job.rowsPerBand();
+            if (rows > rowsPerBand) {
+                int mid = startRow + (rows / 2 / rowsPerBand) * rowsPerBand;
+                if (mid == startRow) {
+                    mid = startRow + rowsPerBand;
+                }
+                BandTask top = new BandTask(job, startRow, mid);
+                BandTask bottom = new BandTask(job, mid, endRow);
+                top.fork();
+                long changed = bottom.compute();
+                return changed + top.join();
+            }
+            return replaceRows();
+        }
+
+        private long replaceRows() {
+            PixelBuffer buffer = job.buffer();
+            int from = job.from(), to = job.to(), tolerance = job.tolerance();
+            int width = buffer.getWidth();
+            int height = buffer.getHeight();
+            boolean emptyMatches = to != PixelBuffer.TRANSPARENT && FloodFill.matches(PixelBuffer.TRANSPARENT, from, tolerance);
+
+            PixelDelta delta = null;
+            if (job.bandDeltas() != null) {
+                delta = new PixelDelta(width);
+                job.bandDeltas()[startRow / job.rowsPerBand()] = delta;
+            }
+            long changed = 0;
+
+            for (int tileY = startRow >> PixelBuffer.TILE_SHIFT; tileY <= (endRow - 1) >> PixelBuffer.TILE_SHIFT; tileY++) {
+                int originY = tileY << PixelBuffer.TILE_SHIFT;
+                int rows = Math.min(PixelBuffer.TILE_SIZE, height - originY);
+
+                for (int tileX = 0; tileX < buffer.getTilesX(); tileX++) {
+                    int originX = tileX << PixelBuffer.TILE_SHIFT;
+                    int columns = Math.min(PixelBuffer.TILE_SIZE, width - originX);
+
+                    if (buffer.isTileEmpty(tileX, tileY)) {
+                        if (emptyMatches) {
+                            for (int row = 0; row < rows; row++) {
+                                buffer.fillSpan(originY + row, originX, originX + columns - 1, to);
+                                if (delta != null) {
+                                    for (int column = 0; column < columns; column++) {
+                                        delta.record(originX + column, originY + row, PixelBuffer.TRANSPARENT, to);
+                                    }
+                                }
+                            }
+                            changed += (long) rows * columns;
+                        }
+                        continue;
+                    }
+
+                    int[] tile = buffer.getWritableTile(tileX, tileY);
+                    for (int row = 0; row < rows; row++) {
+                        int rowStart = row << PixelBuffer.TILE_SHIFT;
+                        for (int column = 0; column < columns; column++) {
+                            int argb = tile[rowStart + column];
+                            if (argb != to && FloodFill.matches(argb, from, tolerance)) {
+                                tile[rowStart + column] = to;
+                                if (delta != null) {
+                                    delta.record(originX + column, originY + row, argb, to);
+                                }
+                                changed++;
+                            }
+                        }
+                    }
+                }
+            }
+            return changed;
+        }
+    }
+}
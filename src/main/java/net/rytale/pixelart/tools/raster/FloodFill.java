@@ -0,0 +1,153 @@
+package net.rytale.pixelart.tools.raster;
+
+import net.rytale.pixelart.layers.PixelBuffer;
+import net.rytale.pixelart.layers.SpanList;
+
+import java.util.Arrays;
+
+/**
+ * Scanline span flood fill over a {@link PixelBuffer}.
+ * <p>
+ * The fill only reads the buffer: matching cells are reported as horizontal spans so the caller
+ * can commit the whole region in one batch. The seed stack and visited bitmask are kept between
+ * calls, so repeated fills on the same canvas do not allocate. Replacing a color everywhere is a
+ * different operation, see {@link ColorReplace}.
+ */
+public class FloodFill {
+
+    public enum Connectivity {
+        FOUR, EIGHT
+    }
+
+    private int tolerance;          // Maximum per-channel ARGB difference, 0 for an exact match
+    private Connectivity connectivity = Connectivity.FOUR;
+
+    private int[] stack = new int[256]; // Pending seeds as x, y pairs
+    private int stackSize;
+    private long[] visited = new long[0];
+
+    public int getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(int tolerance) {
+        this.tolerance = Math.max(0, Math.min(255, tolerance));
+    }
+
+    public Connectivity getConnectivity() {
+        return connectivity;
+    }
+
+    public void setConnectivity(Connectivity connectivity) {
+        this.connectivity = connectivity;
+    }
+
+    /**
+     * Collects every cell that the fill seeded at (x, y) would cover into {@code out}.
+     * Nothing is collected if the seed is outside the buffer.
+     */
+    public void fill(PixelBuffer buffer, int x, int y, SpanList out) {
+        out.clear();
+        if (!buffer.contains(x, y)) {
+            return;
+        }
+
+        fillContiguous(buffer, x, y, buffer.getPixel(x, y), out);
+    }
+
+    public boolean matches(int argb, int target) {
+        return matches(argb, target, tolerance);
+    }
+
+    public static boolean matches(int argb, int target, int tolerance) {
+        if (argb == target) {
+            return true;
+        }
+        if (tolerance == 0) {
+            return false;
+        }
+        return Math.abs((argb >>> 24) - (target >>> 24)) <= tolerance
+                && Math.abs(((argb >> 16) & 0xFF) - ((target >> 16) & 0xFF)) <= tolerance
+                && Math.abs(((argb >> 8) & 0xFF) - ((target >> 8) & 0xFF)) <= tolerance
+                && Math.abs((argb & 0xFF) - (target & 0xFF)) <= tolerance;
+    }
+
+    private void fillContiguous(PixelBuffer buffer, int seedX, int seedY, int target, SpanList out) {
+        int width = buffer.getWidth();
+        int height = buffer.getHeight();
+        int diagonal = connectivity == Connectivity.EIGHT ? 1 : 0;
+
+        resetVisited(width * height);
+        stackSize = 0;
+        push(seedX, seedY);
+
+        while (stackSize > 0) {
+            int y = stack[--stackSize];
+            int x = stack[--stackSize];
+            if (isVisited(y * width + x) || !matches(buffer.getPixel(x, y), target)) {
+                continue;
+            }
+
+            // Grow the span left and right as far as it matches
+            int left = x;
+            while (left > 0 && !isVisited(y * width + left - 1) && matches(buffer.getPixel(left - 1, y), target)) {
+                left--;
+            }
+            int right = x;
+            while (right < width - 1 && !isVisited(y * width + right + 1) && matches(buffer.getPixel(right + 1, y), target)) {
+                right++;
+            }
+
+            for (int i = left; i <= right; i++) {
+                markVisited(y * width + i);
+            }
+            out.add(y, left, right);
+
+            // Seed one cell per matching run on the rows above and below
+            int scanFrom = Math.max(0, left - diagonal);
+            int scanTo = Math.min(width - 1, right + diagonal);
+            if (y > 0) {
+                seedRow(buffer, y - 1, scanFrom, scanTo, target, width);
+            }
+            if (y < height - 1) {
+                seedRow(buffer, y + 1, scanFrom, scanTo, target, width);
+            }
+        }
+    }
+
+    private void seedRow(PixelBuffer buffer, int y, int fromX, int toX, int target, int width) {
+        boolean inRun = false;
+        for (int x = fromX; x <= toX; x++) {
+            boolean open = !isVisited(y * width + x) && matches(buffer.getPixel(x, y), target);
+            if (open && !inRun) {
+                push(x, y);
+            }
+            inRun = open;
+        }
+    }
+
+    private void push(int x, int y) {
+        if (stackSize + 2 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[stackSize++] = x;
+        stack[stackSize++] = y;
+    }
+
+    private void resetVisited(int cells) {
+        int words = (cells + 63) >>> 6;
+        if (visited.length < words) {
+            visited = new long[words];
+        } else {
+            Arrays.fill(visited, 0, words, 0L);
+        }
+    }
+
+    private boolean isVisited(int index) {
+        return (visited[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private void markVisited(int index) {
+        visited[index >>> 6] |= 1L << index;
+    }
+}
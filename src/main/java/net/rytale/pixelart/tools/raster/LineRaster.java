@@ -0,0 +1,180 @@
+package net.rytale.pixelart.tools.raster;
+
+import net.rytale.pixelart.layers.SpanList;
+
+/**
+ * Bresenham rasterisation of lines between grid cells into {@link SpanList} spans.
+ * <p>
+ * Consecutive cells on the same row are merged into one span, so a shallow line costs a few spans
+ * rather than one per cell. Polylines are built by leaving out the start cell of every segment after
+ * the first, since it is the end cell of the segment before; each cell on the path is then written once.
+ * <p>
+ * Wide and dashed lines, a square brush swept along the path, are rasterised by an instance, which
+ * keeps the traced path between calls. The cells covered on each row are worked out from the path
+ * points within the brush's reach of that row, so every covered cell appears in exactly one span
+ * however much the brush positions overlap.
+ */
+public final class LineRaster {
+    private int radius;     // Cells the brush reaches on each side of the path; 0 for a one-cell line
+    private int dashLength; // Path steps drawn and then skipped in turn, 0 for a solid line
+
+    private int[] pathX = new int[256];
+    private int[] pathY = new int[256];
+    private int pathLength;
+    private int[] rowFirst = new int[256]; // First and last path index on each row the path crosses
+    private int[] rowLast = new int[256];
+
+    public int getRadius() {
+        return radius;
+    }
+
+    public void setRadius(int radius) {
+        this.radius = Math.max(0, radius);
+    }
+
+    public int getDashLength() {
+        return dashLength;
+    }
+
+    public void setDashLength(int dashLength) {
+        this.dashLength = Math.max(0, dashLength);
+    }
+
+    /**
+     * Adds the cells from (x0, y0) to (x1, y1), both inclusive unless {@code includeStart} is false.
+     */
+    public static void addLine(SpanList spans, int x0, int y0, int x1, int y1, boolean includeStart) {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int stepX = x0 < x1 ? 1 : -1;
+        int stepY = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+
+        int x = x0;
+        int y = y0;
+        boolean hasRun = false;
+        int runY = 0, runStartX = 0, runEndX = 0; // Cells on the current row not yet added, as an inclusive range
+        boolean include = includeStart;
+        while (true) {
+            if (include) {
+                if (hasRun && y == runY) {
+                    runStartX = Math.min(runStartX, x);
+                    runEndX = Math.max(runEndX, x);
+                } else {
+                    if (hasRun) {
+                        spans.add(runY, runStartX, runEndX);
+                    }
+                    hasRun = true;
+                    runY = y;
+                    runStartX = x;
+                    runEndX = x;
+                }
+            }
+            include = true;
+            if (x == x1 && y == y1) {
+                break;
+            }
+            int doubled = 2 * error;
+            if (doubled >= dy) {
+                error += dy;
+                x += stepX;
+            }
+            if (doubled <= dx) {
+                error += dx;
+                y += stepY;
+            }
+        }
+        if (hasRun) {
+            spans.add(runY, runStartX, runEndX);
+        }
+    }
+
+    /**
+     * Adds the cells the brush covers along the line from (x0, y0) to (x1, y1). Spans come out sorted
+     * by row and then by x, and never overlap, which is what {@link SpanList#subtract} expects.
+     */
+    public void addWideLine(SpanList spans, int x0, int y0, int x1, int y1) {
+        tracePath(x0, y0, x1, y1);
+        int stepX = x0 < x1 ? 1 : -1;
+        int pathMinY = Math.min(y0, y1);
+        int pathMaxY = Math.max(y0, y1);
+
+        for (int y = pathMinY - radius; y <= pathMaxY + radius; y++) {
+            // The path points within reach of this row are one contiguous part of the path
+            int nearRow = Math.max(pathMinY, y - radius) - pathMinY;
+            int farRow = Math.min(pathMaxY, y + radius) - pathMinY;
+            int firstIndex = Math.min(rowFirst[nearRow], rowFirst[farRow]);
+            int lastIndex = Math.max(rowLast[nearRow], rowLast[farRow]);
+
+            // Walk them left to right, so each brush position either extends the open span or starts the next
+            boolean hasSpan = false;
+            int spanStartX = 0, spanEndX = 0;
+            for (int n = 0; n <= lastIndex - firstIndex; n++) {
+                int i = stepX > 0 ? firstIndex + n : lastIndex - n;
+                if (dashLength > 0 && (i / dashLength) % 2 != 0) {
+                    continue;
+                }
+                int startX = pathX[i] - radius;
+                int endX = pathX[i] + radius;
+                if (hasSpan && startX <= spanEndX + 1) {
+                    spanEndX = Math.max(spanEndX, endX);
+                } else {
+                    if (hasSpan) {
+                        spans.add(y, spanStartX, spanEndX);
+                    }
+                    hasSpan = true;
+                    spanStartX = startX;
+                    spanEndX = endX;
+                }
+            }
+            if (hasSpan) {
+                spans.add(y, spanStartX, spanEndX);
+            }
+        }
+    }
+
+    // Record every Bresenham step and the index range of each row it passes through
+    private void tracePath(int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int stepX = x0 < x1 ? 1 : -1;
+        int stepY = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+
+        int points = Math.max(dx, -dy) + 1;
+        if (pathX.length < points) {
+            pathX = new int[points];
+            pathY = new int[points];
+        }
+        if (rowFirst.length < 1 - dy) {
+            rowFirst = new int[1 - dy];
+            rowLast = new int[1 - dy];
+        }
+
+        int minY = Math.min(y0, y1);
+        int x = x0;
+        int y = y0;
+        pathLength = 0;
+        while (true) {
+            pathX[pathLength] = x;
+            pathY[pathLength] = y;
+            if (pathLength == 0 || y != pathY[pathLength - 1]) {
+                rowFirst[y - minY] = pathLength;
+            }
+            rowLast[y - minY] = pathLength;
+            pathLength++;
+            if (x == x1 && y == y1) {
+                break;
+            }
+            int doubled = 2 * error;
+            if (doubled >= dy) {
+                error += dy;
+                x += stepX;
+            }
+            if (doubled <= dx) {
+                error += dx;
+                y += stepY;
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package net.rytale.pixelart.tools.raster;
+
+import net.rytale.pixelart.layers.SpanList;
+
+import java.util.Arrays;
+
+/**
+ * Scanline rasterisation of a closed polygon through cell centers, as drawn with a lasso.
+ * <p>
+ * A cell is inside when its center is, by the even-odd rule; the outline's own cells are added as
+ * well, so that a thin or self-touching outline still covers what was traced. Crossings are kept in
+ * a {@code double[]} that is reused between calls.
+ */
+public class PolygonRaster {
+    private double[] crossings = new double[16];
+
+    /**
+     * Adds the cells of the polygon with {@code count} vertices, given as x, y pairs in {@code points},
+     * row by row. Interior and outline spans may overlap.
+     */
+    public void fill(int[] points, int count, SpanList out) {
+        if (count == 0) {
+            return;
+        }
+        int minY = Integer.MAX_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            minY = Math.min(minY, points[i * 2 + 1]);
+            maxY = Math.max(maxY, points[i * 2 + 1]);
+        }
+
+        for (int y = minY; y <= maxY; y++) {
+            int crossingCount = 0;
+            for (int i = 0; i < count; i++) {
+                int j = (i + 1) % count; // The last vertex connects back to the first
+                int y0 = points[i * 2 + 1];
+                int y1 = points[j * 2 + 1];
+                // Half-open in y, so a vertex on the scanline is counted once
+                if ((y0 <= y && y < y1) || (y1 <= y && y < y0)) {
+                    int x0 = points[i * 2];
+                    int x1 = points[j * 2];
+                    if (crossingCount == crossings.length) {
+                        crossings = Arrays.copyOf(crossings, crossings.length * 2);
+                    }
+                    crossings[crossingCount++] = x0 + (double) (y - y0) * (x1 - x0) / (y1 - y0);
+                }
+            }
+            Arrays.sort(crossings, 0, crossingCount);
+            for (int i = 0; i + 1 < crossingCount; i += 2) {
+                out.add(y, (int) Math.ceil(crossings[i]), (int) Math.floor(crossings[i + 1]));
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            LineRaster.addLine(out, points[i * 2], points[i * 2 + 1], points[j * 2], points[j * 2 + 1], true);
+        }
+    }
+}
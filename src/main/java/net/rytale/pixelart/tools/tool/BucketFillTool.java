@@ -1,14 +1,24 @@
 package net.rytale.pixelart.tools.tool;
 
+import javafx.geometry.Insets;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.RadioButton;
+import javafx.scene.control.Slider;
+import javafx.scene.control.ToggleGroup;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.layers.SpanList;
 import net.rytale.pixelart.tools.AbstractDrawingTool;
-
-import java.util.LinkedList;
-import java.util.Queue;
+import net.rytale.pixelart.tools.raster.FloodFill;
+import net.rytale.pixelart.utils.ColorUtils;
 
 public class BucketFillTool extends AbstractDrawingTool {
+    private final FloodFill floodFill = new FloodFill();
+    private final SpanList fillSpans = new SpanList(); // Reused between fills
+    private boolean global; // Replace the color everywhere instead of filling the contiguous region
 
     public BucketFillTool(PixelCanvas canvas, Color color) {
         super(canvas, color);
@@ -21,52 +31,69 @@ public class BucketFillTool extends AbstractDrawingTool {
 
     @Override
     protected void drawFinal(int startX, int startY, int endX, int endY) {
-        fillArea(startX, startY, color);
-        if (canvas.isGridVisible()) {  // Ensure grid is drawn after the fill operation if grid is visible
-            canvas.redrawGrid();  // Redraw the grid overlay
-        }
+        fillArea(startX, startY, ColorUtils.toArgb(color));
     }
 
     @Override
     public VBox createOptionsPanel() {
-        return null;
+        VBox optionsPanel = new VBox(10);
+        optionsPanel.setPadding(new Insets(10));
+        optionsPanel.setStyle("-fx-background-color: #3A3A3A; -fx-background-radius: 10; -fx-border-color: #555;");
+
+        // Tolerance Slider
+        Label toleranceLabel = new Label("Tolerance: " + floodFill.getTolerance());
+        toleranceLabel.setTextFill(Color.WHITE);
+        Slider toleranceSlider = new Slider(0, 255, floodFill.getTolerance());
+        toleranceSlider.setShowTickMarks(true);
+        toleranceSlider.setShowTickLabels(true);
+        toleranceSlider.setMajorTickUnit(64);
+        toleranceSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
+            floodFill.setTolerance(newVal.intValue());
+            toleranceLabel.setText("Tolerance: " + floodFill.getTolerance());
+        });
+
+        // Connectivity
+        Label connectivityLabel = new Label("Connectivity:");
+        connectivityLabel.setTextFill(Color.WHITE);
+        ToggleGroup connectivityGroup = new ToggleGroup();
+        RadioButton fourWay = new RadioButton("4-way");
+        RadioButton eightWay = new RadioButton("8-way");
+        fourWay.setTextFill(Color.WHITE);
+        eightWay.setTextFill(Color.WHITE);
+        fourWay.setToggleGroup(connectivityGroup);
+        eightWay.setToggleGroup(connectivityGroup);
+        (floodFill.getConnectivity() == FloodFill.Connectivity.EIGHT ? eightWay : fourWay).setSelected(true);
+        connectivityGroup.selectedToggleProperty().addListener((obs, oldToggle, newToggle) ->
+                floodFill.setConnectivity(newToggle == eightWay ? FloodFill.Connectivity.EIGHT : FloodFill.Connectivity.FOUR));
+
+        // Global mode Toggle
+        CheckBox globalCheckBox = new CheckBox("Replace color everywhere");
+        globalCheckBox.setTextFill(Color.WHITE);
+        globalCheckBox.setSelected(global);
+        globalCheckBox.setOnAction(e -> global = globalCheckBox.isSelected());
+
+        optionsPanel.getChildren().addAll(
+                toleranceLabel, toleranceSlider,
+                connectivityLabel, new HBox(10, fourWay, eightWay),
+                globalCheckBox
+        );
+        return optionsPanel;
     }
 
-
-
-    private void fillArea(int x, int y, Color newColor) {
-        Color targetColor = canvas.getPixelColor(x, y);
-        if (targetColor.equals(newColor)) {
+    private void fillArea(int x, int y, int newColor) {
+        if (!canvas.getPixels().contains(x, y)) {
+            return;
+        }
+        if (floodFill.getTolerance() == 0 && canvas.getPixel(x, y) == newColor) {
             return; // No need to fill if the target color is the same as the fill color.
         }
 
-        int width = (int) canvas.getCanvasWidth();
-        int height = (int) canvas.getCanvasHeight();
-        boolean[][] processed = new boolean[width][height]; // Track processed pixels
-
-        Queue<int[]> pixelsQueue = new LinkedList<>();
-        pixelsQueue.add(new int[]{x, y});
-
-        while (!pixelsQueue.isEmpty()) {
-            int[] pixel = pixelsQueue.poll();
-            int px = pixel[0];
-            int py = pixel[1];
-
-            if (px < 0 || px >= width || py < 0 || py >= height || processed[px][py]) {
-                continue; // Skip pixels that are out of bounds or already processed.
-            }
-
-            if (canvas.getPixelColor(px, py).equals(targetColor)) {
-                canvas.drawPixel(px, py, newColor);
-                processed[px][py] = true; // Mark as processed
-
-                // Add neighboring pixels to the queue
-                pixelsQueue.add(new int[]{px + 1, py});
-                pixelsQueue.add(new int[]{px - 1, py});
-                pixelsQueue.add(new int[]{px, py + 1});
-                pixelsQueue.add(new int[]{px, py - 1});
-            }
+        if (global) {
+            canvas.replaceColor(canvas.getPixel(x, y), newColor, floodFill.getTolerance());
+            return;
         }
+
+        floodFill.fill(canvas.getPixels(), x, y, fillSpans);
+        canvas.fillSpans(fillSpans, newColor); // Commit the whole region as one batch
     }
 }
-
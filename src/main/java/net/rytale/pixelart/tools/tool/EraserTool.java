@@ -2,10 +2,17 @@ package net.rytale.pixelart.tools.tool;
 
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
+import net.rytale.pixelart.layers.PixelBuffer;
 import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.layers.SpanList;
+import net.rytale.pixelart.metrics.Metrics;
 import net.rytale.pixelart.tools.AbstractDrawingTool;
+import net.rytale.pixelart.tools.StrokeSamples;
+import net.rytale.pixelart.tools.raster.LineRaster;
 
 public class EraserTool extends AbstractDrawingTool {
+    private int lastX, lastY; // Cell the stroke has been erased up to
+    private final SpanList spans = new SpanList();
 
     public EraserTool(PixelCanvas canvas) {
         super(canvas, canvas.getBackgroundColor());
@@ -23,23 +30,46 @@ public class EraserTool extends AbstractDrawingTool {
 
     @Override
     protected void drawFinal(int startX, int startY, int endX, int endY) {
-        canvas.drawPixel(endX, endY, canvas.getBackgroundColor());
+        spans.clear();
+        LineRaster.addLine(spans, startX, startY, endX, endY, true);
+        canvas.fillSpans(spans, PixelBuffer.TRANSPARENT);
     }
 
     @Override
     public void onMouseDragged(int gridX, int gridY) {
-        canvas.drawPixel(gridX, gridY, canvas.getBackgroundColor());
+        long start = Metrics.start();
+        spans.clear();
+        LineRaster.addLine(spans, lastX, lastY, gridX, gridY, false);
+        lastX = gridX;
+        lastY = gridY;
+        canvas.fillSpans(spans, PixelBuffer.TRANSPARENT);
+        recordFinalTime(start);
+    }
+
+    @Override
+    public void onMouseDragged(StrokeSamples samples) {
+        long start = Metrics.start();
+        spans.clear();
+        for (int i = 0; i < samples.size(); i++) {
+            LineRaster.addLine(spans, lastX, lastY, samples.getX(i), samples.getY(i), false);
+            lastX = samples.getX(i);
+            lastY = samples.getY(i);
+        }
+        canvas.fillSpans(spans, PixelBuffer.TRANSPARENT);
+        recordFinalTime(start);
     }
 
     @Override
     public void onMousePressed(int gridX, int gridY) {
         super.onMousePressed(gridX, gridY);
-        drawFinal(gridX, gridY, gridX, gridY);
+        lastX = gridX;
+        lastY = gridY;
+        renderFinal(gridX, gridY, gridX, gridY);
     }
 
     @Override
     public void onMouseReleased(int gridX, int gridY) {
-        drawFinal(startX, startY, gridX, gridY);
+        renderFinal(lastX, lastY, gridX, gridY);
     }
 
     @Override
@@ -49,4 +79,3 @@ public class EraserTool extends AbstractDrawingTool {
 
 
 }
-
@@ -1,6 +1,7 @@
 package net.rytale.pixelart.tools.tool;
 
 import javafx.geometry.Insets;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.Label;
 import javafx.scene.control.Slider;
@@ -8,9 +9,18 @@ import javafx.scene.control.ToggleButton;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.layers.SpanList;
 import net.rytale.pixelart.tools.AbstractDrawingTool;
+import net.rytale.pixelart.tools.raster.LineRaster;
+import net.rytale.pixelart.utils.AppLogger;
+import net.rytale.pixelart.utils.ColorUtils;
+
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 public class LineTool extends AbstractDrawingTool {
+    private static final Logger logger = AppLogger.getLogger();
+
     // Existing fields
     private int lineWidth = 1;
     private boolean dashed = false;
@@ -19,6 +29,14 @@ public class LineTool extends AbstractDrawingTool {
     private boolean fillHollow = false;
     private boolean debugMode;
 
+    private static final double PREVIEW_OPACITY = 0.3;
+    private final LineRaster raster = new LineRaster();
+    // Cells of the line being drawn, rebuilt for every preview and for the final line
+    private final SpanList outline = new SpanList();
+    private final SpanList core = new SpanList();
+    private final SpanList border = new SpanList(); // The outline without the core
+    private boolean hollowFilled;
+
     // UI components for options panel
     private ToggleButton fillHollowToggle;
     private ColorPicker secondaryColorPicker;
@@ -60,64 +78,88 @@ public class LineTool extends AbstractDrawingTool {
         updateToggleButton(fillHollowToggle, fillHollow);
     }
 
-    // Draw the final line
+    // Draw the final line: every covered cell written once, in one batch per color
     @Override
     protected void drawFinal(int startX, int startY, int endX, int endY) {
-        // Draw the final line on the main canvas
-        drawLine(startX, startY, endX, endY, this.color, this.lineWidth, this.dashed, this.dashGap, false);
-
-        // If fillHollow is enabled and a secondary color is set, draw the inner line
-        if (this.fillHollow && !this.secondaryColor.equals(Color.TRANSPARENT)) {
-            drawLine(startX, startY, endX, endY, this.secondaryColor, this.lineWidth - 2, this.dashed, this.dashGap, false);
+        rasterise(startX, startY, endX, endY);
+        this.canvas.fillSpans(this.hollowFilled ? this.border : this.outline, ColorUtils.toArgb(this.color));
+        if (this.hollowFilled) {
+            this.canvas.fillSpans(this.core, ColorUtils.toArgb(this.secondaryColor));
         }
     }
 
     // Handle mouse drag events to preview the line
     @Override
     public void onMouseDragged(int gridX, int gridY) {
-        if (this.debugMode) {
-            System.out.println("Dragging at: (" + gridX + ", " + gridY + ")");
-        }
-        // Clear the previous preview from the overlay canvas
-        this.canvas.clearOverlay();
-
-        // Draw a preview of the line on the overlay canvas
-        drawPreview(this.startX, this.startY, gridX, gridY);
+        logDebug(() -> "Dragging at: (" + gridX + ", " + gridY + ")");
+        // Draw a preview of the line on the overlay canvas, replacing the previous one
+        renderPreview(this.startX, this.startY, gridX, gridY);
     }
 
     // Handle mouse press events to start drawing the line
     @Override
     public void onMousePressed(int gridX, int gridY) {
         super.onMousePressed(gridX, gridY);
-        if (this.debugMode) {
-            System.out.println("Pressed at: (" + gridX + ", " + gridY + ")");
-        }
+        logDebug(() -> "Pressed at: (" + gridX + ", " + gridY + ")");
     }
 
     // Handle mouse release events to finish drawing the line
     @Override
     public void onMouseReleased(int gridX, int gridY) {
-        if (this.debugMode) {
-            System.out.println("Released at: (" + gridX + ", " + gridY + ")");
-        }
+        logDebug(() -> "Released at: (" + gridX + ", " + gridY + ")");
 
         // Clear the preview when drawing is finished
-        this.canvas.clearOverlay();
+        this.canvas.clearPreview();
 
         // Draw the final line on the main canvas
-        this.drawFinal(this.startX, this.startY, gridX, gridY);
+        this.renderFinal(this.startX, this.startY, gridX, gridY);
     }
 
     @Override
     protected void drawPreview(int startX, int startY, int endX, int endY) {
+        rasterise(startX, startY, endX, endY);
+        GraphicsContext gc = this.canvas.getOverlayGraphicsContext();
+        this.canvas.addPreviewBounds(this.outline.getMinX(), this.outline.getMinY(), this.outline.getMaxX(), this.outline.getMaxY());
+
         // Draw the preview of the main line with lower opacity
-        Color previewColor = new Color(this.color.getRed(), this.color.getGreen(), this.color.getBlue(), 0.3); // 30% opacity
-        drawLine(startX, startY, endX, endY, previewColor, this.lineWidth, this.dashed, this.dashGap, true);
+        gc.setFill(new Color(this.color.getRed(), this.color.getGreen(), this.color.getBlue(), PREVIEW_OPACITY));
+        fillPreviewSpans(gc, this.hollowFilled ? this.border : this.outline);
+
+        // If fillHollow is enabled, preview the inner line in the secondary color
+        if (this.hollowFilled) {
+            gc.setFill(new Color(this.secondaryColor.getRed(), this.secondaryColor.getGreen(), this.secondaryColor.getBlue(), PREVIEW_OPACITY));
+            fillPreviewSpans(gc, this.core);
+        }
+    }
 
-        // If fillHollow is enabled, draw the secondary color line as a preview
-        if (this.fillHollow && !this.secondaryColor.equals(Color.TRANSPARENT)) {
-            Color previewSecondaryColor = new Color(this.secondaryColor.getRed(), this.secondaryColor.getGreen(), this.secondaryColor.getBlue(), 0.3); // 30% opacity
-            drawLine(startX, startY, endX, endY, previewSecondaryColor, this.lineWidth - 2, this.dashed, this.dashGap, true);
+    // One fillRect per span, at the current zoom and pan
+    private void fillPreviewSpans(GraphicsContext gc, SpanList spans) {
+        for (int i = 0; i < spans.size(); i++) {
+            double left = this.canvas.cellToViewX(spans.getStartX(i));
+            double top = this.canvas.cellToViewY(spans.getY(i));
+            gc.fillRect(left, top, this.canvas.cellToViewX(spans.getEndX(i) + 1) - left, this.canvas.cellToViewY(spans.getY(i) + 1) - top);
+        }
+    }
+
+    /**
+     * Works out the cells the line covers. With fillHollow the line is split into its border, in the
+     * primary color, and the core of a line two cells narrower, in the secondary color; otherwise the
+     * whole outline is in the primary color.
+     */
+    private void rasterise(int startX, int startY, int endX, int endY) {
+        this.hollowFilled = this.fillHollow && !this.secondaryColor.equals(Color.TRANSPARENT);
+        // A dash and the gap after it are each dashGap + 2 cells long
+        this.raster.setDashLength(this.dashed ? (int) Math.ceil(this.dashGap + 2) : 0);
+
+        this.outline.clear();
+        this.raster.setRadius(this.lineWidth / 2);
+        this.raster.addWideLine(this.outline, startX, startY, endX, endY);
+        if (this.hollowFilled) {
+            this.core.clear();
+            this.raster.setRadius((this.lineWidth - 2) / 2);
+            this.raster.addWideLine(this.core, startX, startY, endX, endY);
+            this.border.clear();
+            SpanList.subtract(this.outline, this.core, this.border);
         }
     }
 
@@ -135,6 +177,13 @@ public class LineTool extends AbstractDrawingTool {
         return slider;
     }
 
+    // Debug output goes to the asynchronous logger; the message is only built in debug mode
+    private void logDebug(Supplier<String> message) {
+        if (this.debugMode) {
+            logger.info(message);
+        }
+    }
+
     // Utility method to update the style of toggle buttons
     private void updateToggleButton(ToggleButton toggleButton, boolean isActive) {
         toggleButton.setText(isActive ? toggleButton.getText().replace("OFF", "ON") : toggleButton.getText().replace("ON", "OFF"));
@@ -215,70 +264,4 @@ public class LineTool extends AbstractDrawingTool {
 
         return optionsPanel;
     }
-
-    // Utility method to draw a line using Bresenham's algorithm, with support for thickness and dashed lines
-    private void drawLine(int startX, int startY, int endX, int endY, Color color, int thickness, boolean dashed, double dashGap, boolean isPreview) {
-        int dx = Math.abs(endX - startX);
-        int dy = Math.abs(endY - startY);
-        int sx = startX < endX ? 1 : -1;
-        int sy = startY < endY ? 1 : -1;
-        int err = dx - dy;
-
-        // Convert dashGap to grid squares
-        double gridSize = this.canvas.getGridSize();
-        double effectiveDashLength = (dashGap + 2) * gridSize;  // Dash length in terms of grid squares
-
-        boolean draw = true; // Flag to alternate between drawing and not drawing for dashed effect
-        double distance = 0;
-
-        while (true) {
-            // Draw the thick pixel (dash)
-            if (draw) {
-                drawThickPixel(startX, startY, color, thickness, isPreview);
-            }
-
-            // Check if we've reached the end
-            if (startX == endX && startY == endY) {
-                break;
-            }
-
-            // Update the dash effect
-            distance += gridSize; // Increment distance by grid size (per grid square)
-            if (dashed) {
-                // Switch between drawing and gap
-                if (distance >= effectiveDashLength) {
-                    draw = !draw; // Toggle drawing
-                    distance = 0; // Reset distance counter
-                }
-            }
-
-            // Bresenham's algorithm step
-            int e2 = 2 * err;
-            if (e2 > -dy) {
-                err -= dy;
-                startX += sx;
-            }
-            if (e2 < dx) {
-                err += dx;
-                startY += sy;
-            }
-        }
-    }
-
-    // Utility method to draw a thick pixel (square) centered on (x, y)
-    private void drawThickPixel(int x, int y, Color color, int thickness, boolean isPreview) {
-        int radius = thickness / 2;
-        for (int i = -radius; i <= radius; i++) {
-            for (int j = -radius; j <= radius; j++) {
-                if (isPreview) {
-                    this.canvas.getOverlayGraphicsContext().setFill(color);
-                    this.canvas.getOverlayGraphicsContext().fillRect((x + i) * this.canvas.getGridSize(), (y + j) * this.canvas.getGridSize(), this.canvas.getGridSize(), this.canvas.getGridSize());
-                } else {
-                    this.canvas.drawPixel(x + i, y + j, color);
-                }
-            }
-        }
-    }
 }
-
-
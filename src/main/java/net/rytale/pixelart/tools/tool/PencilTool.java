@@ -5,10 +5,22 @@ import javafx.scene.control.Label;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.layers.SpanList;
+import net.rytale.pixelart.metrics.Metrics;
 import net.rytale.pixelart.tools.AbstractDrawingTool;
+import net.rytale.pixelart.tools.StrokeSamples;
+import net.rytale.pixelart.tools.raster.LineRaster;
+import net.rytale.pixelart.utils.AppLogger;
+import net.rytale.pixelart.utils.ColorUtils;
+
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 public class PencilTool extends AbstractDrawingTool {
+    private static final Logger logger = AppLogger.getLogger();
     private boolean debugMode = false;
+    private int lastX, lastY; // Cell the stroke has been drawn up to
+    private final SpanList spans = new SpanList(); // Reused for every batch of the stroke
 
     public PencilTool(PixelCanvas canvas, Color color) {
         super(canvas, color);
@@ -19,44 +31,71 @@ public class PencilTool extends AbstractDrawingTool {
         this.debugMode = debugMode;
     }
 
+    // Debug output goes to the asynchronous logger; the message is only built in debug mode
+    private void logDebug(Supplier<String> message) {
+        if (this.debugMode) {
+            logger.info(message);
+        }
+    }
+
     // The pencil tool does not need a preview, so this method is empty
     @Override
     protected void drawPreview(int startX, int startY, int endX, int endY) {
         // No preview needed for the pencil tool
     }
 
-    // Draw the final pixel at the specified coordinates
+    // Draw every cell on the line between the two points
     @Override
     protected void drawFinal(int startX, int startY, int endX, int endY) {
-        this.canvas.drawPixel(endX, endY, this.color);
+        this.spans.clear();
+        LineRaster.addLine(this.spans, startX, startY, endX, endY, true);
+        this.canvas.fillSpans(this.spans, ColorUtils.toArgb(this.color));
     }
 
-    // Handle mouse drag events to draw pixels as the mouse moves
+    // Handle mouse drag events by continuing the stroke without gaps
     @Override
     public void onMouseDragged(int gridX, int gridY) {
-        if (this.debugMode) {
-            System.out.println("Dragged at: (" + gridX + ", " + gridY + ")");
+        logDebug(() -> "Dragged at: (" + gridX + ", " + gridY + ")");
+        long start = Metrics.start();
+        this.spans.clear();
+        LineRaster.addLine(this.spans, this.lastX, this.lastY, gridX, gridY, false);
+        this.lastX = gridX;
+        this.lastY = gridY;
+        this.canvas.fillSpans(this.spans, ColorUtils.toArgb(this.color));
+        recordFinalTime(start);
+    }
+
+    // Continue the stroke through every position of the batch and draw the whole path at once
+    @Override
+    public void onMouseDragged(StrokeSamples samples) {
+        logDebug(() -> "Dragged through " + samples.size() + " cell(s) to: (" + samples.getLastX() + ", " + samples.getLastY() + ")");
+        long start = Metrics.start();
+        this.spans.clear();
+        for (int i = 0; i < samples.size(); i++) {
+            // The start of each segment is the end of the previous one, which is already drawn
+            LineRaster.addLine(this.spans, this.lastX, this.lastY, samples.getX(i), samples.getY(i), false);
+            this.lastX = samples.getX(i);
+            this.lastY = samples.getY(i);
         }
-        this.canvas.drawPixel(gridX, gridY, this.color);
+        this.canvas.fillSpans(this.spans, ColorUtils.toArgb(this.color));
+        recordFinalTime(start);
     }
 
     // Handle mouse press events to start drawing
     @Override
     public void onMousePressed(int gridX, int gridY) {
         super.onMousePressed(gridX, gridY);
-        if (this.debugMode) {
-            System.out.println("Pressed at: (" + gridX + ", " + gridY + ")");
-        }
-        this.drawFinal(gridX, gridY, gridX, gridY); // Draw the initial point immediately
+        logDebug(() -> "Pressed at: (" + gridX + ", " + gridY + ")");
+        this.lastX = gridX;
+        this.lastY = gridY;
+        this.renderFinal(gridX, gridY, gridX, gridY); // Draw the initial point immediately
     }
 
     // Handle mouse release events to finish drawing
     @Override
     public void onMouseReleased(int gridX, int gridY) {
-        if (this.debugMode) {
-            System.out.println("Released at: (" + gridX + ", " + gridY + ")");
-        }
-        this.drawFinal(this.startX, this.startY, gridX, gridY); // Ensure the final point is drawn
+        logDebug(() -> "Released at: (" + gridX + ", " + gridY + ")");
+        this.renderFinal(this.lastX, this.lastY, gridX, gridY); // Ensure the path reaches the final point
     }
 
     // Create the options panel for this tool with a debug mode toggle
@@ -73,4 +112,3 @@ public class PencilTool extends AbstractDrawingTool {
 
 
 }
-
@@ -22,15 +22,49 @@ import javafx.scene.paint.Color;
 import javafx.scene.canvas.GraphicsContext;
 import net.rytale.pixelart.layers.PixelCanvas;
 import net.rytale.pixelart.tools.AbstractDrawingTool;
+import net.rytale.pixelart.utils.AppLogger;
+import net.rytale.pixelart.utils.ColorUtils;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 public class RectangleTool extends AbstractDrawingTool {
+    private static final Logger logger = AppLogger.getLogger();
+
+    /**
+     * How the rectangle is filled: entirely with the primary color, only its border, or its border
+     * with the interior in the secondary color.
+     */
+    public enum FillMode {
+        SOLID("Solid", "solid_icon.png"),
+        HOLLOW("Hollow", "hollow_icon.png"),
+        CUSTOM_FILL("Custom Fill", "custom_fill_icon.png");
+
+        private final String label;
+        private final String iconName;
+
+        FillMode(String label, String iconName) {
+            this.label = label;
+            this.iconName = iconName;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public String getIconName() {
+            return iconName;
+        }
+    }
 
     private boolean debugMode;
-    private String currentMode;
+    private FillMode currentMode;
+    private final int[] edges = new int[4 * 4]; // minX, minY, maxX, maxY of each border edge
     private Color secondaryColor;
 
     private ColorPicker secondaryColorPicker;
@@ -46,11 +80,12 @@ public class RectangleTool extends AbstractDrawingTool {
     private static final int LOG_INTERVAL_SECONDS = 1; // Log every 1 second
 
     private static final double PREVIEW_TRANSPARENCY = 0.5; // Unified transparency level
+    private static final Map<String, Image> MODE_ICONS = new ConcurrentHashMap<>(); // Decoded once, shared by every instance
 
     public RectangleTool(PixelCanvas canvas, Color color) {
         super(canvas, color);
         this.debugMode = false; // Default value
-        this.currentMode = "Solid"; // Default mode
+        this.currentMode = FillMode.SOLID; // Default mode
         this.secondaryColor = Color.LIGHTBLUE; // Default secondary color
 
         // Initialize and style the debug TextArea
@@ -94,60 +129,28 @@ public class RectangleTool extends AbstractDrawingTool {
     @Override
     protected void drawPreview(int startX, int startY, int endX, int endY) {
         GraphicsContext gc = canvas.getOverlayGraphicsContext();
-        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
 
         int minX = Math.min(startX, endX);
         int minY = Math.min(startY, endY);
         int maxX = Math.max(startX, endX);
         int maxY = Math.max(startY, endY);
+        canvas.addPreviewBounds(minX, minY, maxX, maxY); // Only these cells are erased before the next preview
 
-        int gridSize = canvas.getGridSize();
-        double zoom = canvas.getZoomLevel();
-
-        if (currentMode.equals("Hollow")) {
-            // Draw the border as individual blocks with the primary color and consistent transparency
-            gc.setFill(Color.color(color.getRed(), color.getGreen(), color.getBlue(), PREVIEW_TRANSPARENCY));
-            for (int x = minX; x <= maxX; x++) {
-                gc.fillRect(x * gridSize * zoom, minY * gridSize * zoom, gridSize * zoom, gridSize * zoom); // Top edge
-                gc.fillRect(x * gridSize * zoom, maxY * gridSize * zoom, gridSize * zoom, gridSize * zoom); // Bottom edge
-            }
-            for (int y = minY; y <= maxY; y++) {
-                gc.fillRect(minX * gridSize * zoom, y * gridSize * zoom, gridSize * zoom, gridSize * zoom); // Left edge
-                gc.fillRect(maxX * gridSize * zoom, y * gridSize * zoom, gridSize * zoom, gridSize * zoom); // Right edge
-            }
-
-            logPreview("Drawing hollow rectangle preview with blocks as border from (" + startX + "," + startY + ") to (" + endX + "," + endY + ")");
-        } else if (currentMode.equals("Custom Fill")) {
-            // Draw the border as individual blocks with the primary color and consistent transparency
-            gc.setFill(Color.color(color.getRed(), color.getGreen(), color.getBlue(), PREVIEW_TRANSPARENCY));
-            for (int x = minX; x <= maxX; x++) {
-                gc.fillRect(x * gridSize * zoom, minY * gridSize * zoom, gridSize * zoom, gridSize * zoom); // Top edge
-                gc.fillRect(x * gridSize * zoom, maxY * gridSize * zoom, gridSize * zoom, gridSize * zoom); // Bottom edge
-            }
-            for (int y = minY; y <= maxY; y++) {
-                gc.fillRect(minX * gridSize * zoom, y * gridSize * zoom, gridSize * zoom, gridSize * zoom); // Left edge
-                gc.fillRect(maxX * gridSize * zoom, y * gridSize * zoom, gridSize * zoom, gridSize * zoom); // Right edge
-            }
-
-            // Fill the interior with the secondary color and consistent transparency
-            gc.setFill(Color.color(secondaryColor.getRed(), secondaryColor.getGreen(), secondaryColor.getBlue(), PREVIEW_TRANSPARENCY));
-            for (int x = minX + 1; x < maxX; x++) {
-                for (int y = minY + 1; y < maxY; y++) {
-                    gc.fillRect(x * gridSize * zoom, y * gridSize * zoom, gridSize * zoom, gridSize * zoom);
-                }
-            }
-
-            logPreview("Drawing custom fill rectangle preview with blocks as border from (" + startX + "," + startY + ") to (" + endX + "," + endY + ")");
+        // At most five fillRect calls: the whole rectangle, or four edges and the interior
+        gc.setFill(Color.color(color.getRed(), color.getGreen(), color.getBlue(), PREVIEW_TRANSPARENCY));
+        if (currentMode == FillMode.SOLID) {
+            fillPreviewRect(gc, minX, minY, maxX, maxY);
         } else {
-            // Solid Mode
-            gc.setFill(Color.color(color.getRed(), color.getGreen(), color.getBlue(), PREVIEW_TRANSPARENCY));
-            for (int x = minX; x <= maxX; x++) {
-                for (int y = minY; y <= maxY; y++) {
-                    gc.fillRect(x * gridSize * zoom, y * gridSize * zoom, gridSize * zoom, gridSize * zoom);
-                }
+            int edgeCount = computeEdges(minX, minY, maxX, maxY);
+            for (int i = 0; i < edgeCount * 4; i += 4) {
+                fillPreviewRect(gc, edges[i], edges[i + 1], edges[i + 2], edges[i + 3]);
+            }
+            if (currentMode == FillMode.CUSTOM_FILL && maxX - minX > 1 && maxY - minY > 1) {
+                gc.setFill(Color.color(secondaryColor.getRed(), secondaryColor.getGreen(), secondaryColor.getBlue(), PREVIEW_TRANSPARENCY));
+                fillPreviewRect(gc, minX + 1, minY + 1, maxX - 1, maxY - 1);
             }
-            logPreview("Drawing filled rectangle preview from (" + startX + "," + startY + ") to (" + endX + "," + endY + ")");
         }
+        logPreview(() -> "Drawing " + currentMode.getLabel() + " rectangle preview from (" + startX + "," + startY + ") to (" + endX + "," + endY + ")");
     }
 
     @Override
@@ -157,29 +160,52 @@ public class RectangleTool extends AbstractDrawingTool {
         int maxX = Math.max(startX, endX);
         int maxY = Math.max(startY, endY);
 
-        String message = "Final Draw: ";
-        for (int x = minX; x <= maxX; x++) {
-            for (int y = minY; y <= maxY; y++) {
-                if (currentMode.equals("Hollow")) {
-                    if (x == minX || x == maxX || y == minY || y == maxY) {
-                        canvas.drawPixel(x, y, color); // Draw the border with the primary color as blocks
-                    }
-                } else if (currentMode.equals("Custom Fill")) {
-                    if (x == minX || x == maxX || y == minY || y == maxY) {
-                        canvas.drawPixel(x, y, color); // Draw the border with the primary color as blocks
-                    } else {
-                        canvas.drawPixel(x, y, secondaryColor); // Fill the interior with the secondary color
-                    }
-                } else {
-                    // Solid Mode
-                    canvas.drawPixel(x, y, color); // Draw a filled rectangle with the primary color
-                }
+        int argb = ColorUtils.toArgb(color);
+        if (currentMode == FillMode.SOLID) {
+            canvas.fillRect(minX, minY, maxX, maxY, argb);
+        } else {
+            int edgeCount = computeEdges(minX, minY, maxX, maxY);
+            for (int i = 0; i < edgeCount * 4; i += 4) {
+                canvas.fillRect(edges[i], edges[i + 1], edges[i + 2], edges[i + 3], argb);
+            }
+            if (currentMode == FillMode.CUSTOM_FILL) {
+                canvas.fillRect(minX + 1, minY + 1, maxX - 1, maxY - 1, ColorUtils.toArgb(secondaryColor)); // Empty when too small
+            }
+        }
+
+        logDebug(() -> "Final Draw: " + currentMode.getLabel() + " rectangle from (" + startX + "," + startY + ") to (" + endX + "," + endY + ")");
+    }
+
+    // Split the border into up to four non-overlapping edges, stored in edges; returns how many there are
+    private int computeEdges(int minX, int minY, int maxX, int maxY) {
+        int count = 0;
+        count = addEdge(count, minX, minY, maxX, minY); // Top
+        if (maxY > minY) {
+            count = addEdge(count, minX, maxY, maxX, maxY); // Bottom
+        }
+        if (maxY - minY > 1) {
+            count = addEdge(count, minX, minY + 1, minX, maxY - 1); // Left, between the top and bottom
+            if (maxX > minX) {
+                count = addEdge(count, maxX, minY + 1, maxX, maxY - 1); // Right
             }
         }
+        return count;
+    }
+
+    private int addEdge(int count, int minX, int minY, int maxX, int maxY) {
+        int o = count * 4;
+        edges[o] = minX;
+        edges[o + 1] = minY;
+        edges[o + 2] = maxX;
+        edges[o + 3] = maxY;
+        return count + 1;
+    }
 
-        canvas.clearOverlay();
-        message += currentMode + " rectangle with block border from (" + startX + "," + startY + ") to (" + endX + "," + endY + ")";
-        logDebug(message);
+    // One fillRect over the inclusive cell range, snapped to the same pixel edges as the cells themselves
+    private void fillPreviewRect(GraphicsContext gc, int minX, int minY, int maxX, int maxY) {
+        double left = canvas.cellToViewX(minX);
+        double top = canvas.cellToViewY(minY);
+        gc.fillRect(left, top, canvas.cellToViewX(maxX + 1) - left, canvas.cellToViewY(maxY + 1) - top);
     }
 
     @Override
@@ -192,17 +218,18 @@ public class RectangleTool extends AbstractDrawingTool {
         modeLabel.setTextFill(Color.WHITE);
         ToggleGroup modeGroup = new ToggleGroup();
 
-        RadioButton solidModeButton = createStyledRadioButton("Solid", modeGroup);
-        RadioButton hollowModeButton = createStyledRadioButton("Hollow", modeGroup);
-        RadioButton customFillModeButton = createStyledRadioButton("Custom Fill", modeGroup);
-
-        solidModeButton.setSelected(true); // Default mode
+        VBox modeButtons = new VBox(10);
+        for (FillMode mode : FillMode.values()) {
+            RadioButton modeButton = createStyledRadioButton(mode.getLabel(), modeGroup);
+            modeButton.setUserData(mode);
+            modeButton.setSelected(mode == currentMode);
+            modeButtons.getChildren().add(modeButton);
+        }
 
         modeGroup.selectedToggleProperty().addListener((obs, oldToggle, newToggle) -> {
             if (newToggle != null) {
-                String selectedMode = ((RadioButton) newToggle).getText();
-                currentMode = selectedMode;
-                customFillControls.setVisible(selectedMode.equals("Custom Fill"));
+                currentMode = (FillMode) newToggle.getUserData();
+                customFillControls.setVisible(currentMode == FillMode.CUSTOM_FILL);
                 updateModeIcon();
             }
         });
@@ -216,9 +243,6 @@ public class RectangleTool extends AbstractDrawingTool {
         // Cycle through modes when the icon is clicked
         modeIconView.setOnMouseClicked(e -> cycleThroughModes(modeGroup));
 
-        // Create a VBox for the buttons
-        VBox modeButtons = new VBox(10, solidModeButton, hollowModeButton, customFillModeButton);
-
         // Create an HBox to combine buttons and icon
         HBox modeAndIcon = new HBox(20, modeButtons, modeIconView); // 20px spacing between buttons and icon
         modeAndIcon.setAlignment(Pos.CENTER_LEFT); // Align the HBox content to the left
@@ -241,12 +265,12 @@ public class RectangleTool extends AbstractDrawingTool {
         );
         secondaryColorPicker.setOnAction(e -> {
             this.secondaryColor = secondaryColorPicker.getValue(); // Update secondaryColor on selection
-            logDebug("Interior Color set to: " + secondaryColor);
+            logDebug(() -> "Interior Color set to: " + secondaryColor);
         });
         secondaryColorPicker.setTooltip(new Tooltip("Choose the interior color for the custom fill mode."));
 
         customFillControls.getChildren().addAll(secondaryColorLabel, secondaryColorPicker);
-        customFillControls.setVisible(false); // Initially hidden unless custom fill mode is selected
+        customFillControls.setVisible(currentMode == FillMode.CUSTOM_FILL); // Hidden unless custom fill mode is selected
 
         // Debug Mode Section
         Label debugModeLabel = new Label("Debug Mode:");
@@ -259,7 +283,7 @@ public class RectangleTool extends AbstractDrawingTool {
             debugModeToggle.setText(this.debugMode ? "On" : "Off");
             updateToggleButtonStyle(debugModeToggle, this.debugMode);
             debugBox.setVisible(this.debugMode); // Show/Hide debug logs based on debug mode
-            logDebug("Debug Mode " + (this.debugMode ? "enabled" : "disabled"));
+            logDebug(() -> "Debug Mode " + (this.debugMode ? "enabled" : "disabled"));
         });
         debugModeToggle.setTooltip(new Tooltip("Toggle debug mode for detailed logging."));
 
@@ -277,29 +301,14 @@ public class RectangleTool extends AbstractDrawingTool {
     }
 
     private void updateModeIcon() {
-        String iconName = switch (currentMode) {
-            case "Solid" -> "solid_icon.png";
-            case "Hollow" -> "hollow_icon.png";
-            case "Custom Fill" -> "custom_fill_icon.png";
-            default -> "";
-        };
-        Image icon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/" + iconName)));
-        modeIconView.setImage(icon);
+        modeIconView.setImage(MODE_ICONS.computeIfAbsent(currentMode.getIconName(),
+                name -> new Image(Objects.requireNonNull(RectangleTool.class.getResourceAsStream("/icons/" + name)))));
     }
 
     private void cycleThroughModes(ToggleGroup modeGroup) {
-        RadioButton currentButton = (RadioButton) modeGroup.getSelectedToggle();
-        RadioButton nextButton;
-
-        if (currentButton.getText().equals("Solid")) {
-            nextButton = (RadioButton) modeGroup.getToggles().get(1);
-        } else if (currentButton.getText().equals("Hollow")) {
-            nextButton = (RadioButton) modeGroup.getToggles().get(2);
-        } else {
-            nextButton = (RadioButton) modeGroup.getToggles().get(0);
-        }
-
-        nextButton.setSelected(true); // Select the next button
+        FillMode[] modes = FillMode.values();
+        FillMode nextMode = modes[(currentMode.ordinal() + 1) % modes.length];
+        modeGroup.getToggles().get(nextMode.ordinal()).setSelected(true); // Buttons are in declaration order
     }
 
     private RadioButton createStyledRadioButton(String text, ToggleGroup group) {
@@ -391,25 +400,34 @@ public class RectangleTool extends AbstractDrawingTool {
         }
     }
 
-    private void logPreview(String message) {
+    // Messages are only built in debug mode, and at most once per interval while dragging
+    private void logPreview(Supplier<String> message) {
+        if (!debugMode) {
+            return;
+        }
         LocalDateTime now = LocalDateTime.now();
-        if (debugMode && now.isAfter(lastPreviewLogTime.plusSeconds(LOG_INTERVAL_SECONDS))) {
-            String timestampedMessage = "[" + now.format(formatter) + "] " + message;
+        if (now.isAfter(lastPreviewLogTime.plusSeconds(LOG_INTERVAL_SECONDS))) {
+            String timestampedMessage = "[" + now.format(formatter) + "] " + message.get();
             debugTextArea.appendText(timestampedMessage + "\n"); // GUI log
             lastPreviewLogTime = now; // Update the last log time
         }
     }
 
-    private void logDebug(String message) {
+    private void logDebug(Supplier<String> message) {
         if (debugMode) {
-            String timestampedMessage = "[" + LocalDateTime.now().format(formatter) + "] " + message;
-            debugTextArea.appendText(timestampedMessage + "\n"); // GUI log
-            System.out.println(timestampedMessage); // Console log
+            String text = message.get();
+            debugTextArea.appendText("[" + LocalDateTime.now().format(formatter) + "] " + text + "\n"); // GUI log
+            logger.info(text); // Console and log file, written in the background
         }
     }
 
+    // The options panel keeps its own selection
+    public void setMode(FillMode mode) {
+        this.currentMode = mode;
+    }
+
     public void setDebugMode(boolean debugMode) {
         this.debugMode = debugMode;
-        logDebug("Debug Mode " + (debugMode ? "enabled" : "disabled"));
+        logDebug(() -> "Debug Mode " + (debugMode ? "enabled" : "disabled"));
     }
 }
\ No newline at end of file
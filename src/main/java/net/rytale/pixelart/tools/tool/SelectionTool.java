@@ -0,0 +1,317 @@
+package net.rytale.pixelart.tools.tool;
+
+import javafx.geometry.Insets;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.RadioButton;
+import javafx.scene.control.Slider;
+import javafx.scene.control.ToggleGroup;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import net.rytale.pixelart.layers.PixelCanvas;
+import net.rytale.pixelart.layers.PixelClip;
+import net.rytale.pixelart.layers.Selection;
+import net.rytale.pixelart.layers.SpanList;
+import net.rytale.pixelart.tools.AbstractDrawingTool;
+import net.rytale.pixelart.tools.StrokeSamples;
+import net.rytale.pixelart.tools.raster.FloodFill;
+import net.rytale.pixelart.tools.raster.PolygonRaster;
+
+import java.util.Arrays;
+
+/**
+ * Selects cells, which every other tool is then restricted to, and moves selected cells around.
+ * <p>
+ * Dragging from inside the selection lifts its cells off the active layer and shows them on the
+ * overlay as a single image, drawn scaled at the current zoom, until they are dropped on release;
+ * the document is only written at the start and end of the move.
+ */
+public class SelectionTool extends AbstractDrawingTool {
+
+    public enum SelectionMode {
+        RECTANGLE("Rectangle"),
+        LASSO("Lasso"),
+        MAGIC_WAND("Magic Wand");
+
+        private final String label;
+
+        SelectionMode(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Color PREVIEW_COLOR = Color.rgb(0, 120, 215, 0.3);
+    private static final Color OUTLINE_COLOR = Color.rgb(0, 120, 215);
+
+    private SelectionMode mode = SelectionMode.RECTANGLE;
+    private final FloodFill floodFill = new FloodFill(); // Magic wand region
+    private final PolygonRaster polygonRaster = new PolygonRaster();
+    private final SpanList spans = new SpanList();
+    private int[] lasso = new int[2 * 64]; // Lasso vertices as x, y pairs
+    private int lassoCount;
+    private boolean dragged; // The pointer left the pressed cell
+
+    // Move state: armed by a press inside the selection, lifted on the first drag
+    private boolean moveArmed;
+    private PixelClip floating;
+    private WritableImage floatingImage;
+
+    public SelectionTool(PixelCanvas canvas, Color color) {
+        super(canvas, color);
+    }
+
+    public SelectionMode getMode() {
+        return mode;
+    }
+
+    // The options panel keeps its own selection
+    public void setMode(SelectionMode mode) {
+        this.mode = mode;
+    }
+
+    @Override
+    public void onMousePressed(int gridX, int gridY) {
+        super.onMousePressed(gridX, gridY);
+        dragged = false;
+        Selection selection = canvas.getSelection();
+        moveArmed = selection != null && selection.contains(gridX, gridY);
+        if (moveArmed) {
+            return;
+        }
+
+        switch (mode) {
+            case LASSO -> {
+                lassoCount = 0;
+                addLassoPoint(gridX, gridY);
+            }
+            case MAGIC_WAND -> {
+                floodFill.fill(canvas.getPixels(), gridX, gridY, spans);
+                Selection region = new Selection(canvas.getCanvasWidth(), canvas.getCanvasHeight());
+                region.addSpans(spans);
+                canvas.setSelection(region);
+            }
+            case RECTANGLE -> {
+                // Selected on release
+            }
+        }
+    }
+
+    // Every position of the batch is a lasso vertex, not just the last one
+    @Override
+    public void onMouseDragged(StrokeSamples samples) {
+        if (mode == SelectionMode.LASSO && !moveArmed) {
+            for (int i = 0; i < samples.size() - 1; i++) {
+                addLassoPoint(samples.getX(i), samples.getY(i));
+            }
+        }
+        super.onMouseDragged(samples);
+    }
+
+    @Override
+    public void onMouseDragged(int gridX, int gridY) {
+        dragged = true;
+        if (moveArmed && floating == null) {
+            floating = canvas.liftSelection();
+            floatingImage = toImage(floating);
+        } else if (mode == SelectionMode.LASSO && !moveArmed) {
+            addLassoPoint(gridX, gridY);
+        }
+        renderPreview(startX, startY, gridX, gridY);
+    }
+
+    @Override
+    protected void drawPreview(int startX, int startY, int endX, int endY) {
+        GraphicsContext gc = canvas.getOverlayGraphicsContext();
+        if (floating != null) {
+            int x = floating.x() + endX - startX;
+            int y = floating.y() + endY - startY;
+            double left = canvas.cellToViewX(x);
+            double top = canvas.cellToViewY(y);
+            double width = canvas.cellToViewX(x + floating.width()) - left;
+            double height = canvas.cellToViewY(y + floating.height()) - top;
+            gc.setImageSmoothing(false); // Cells stay sharp squares at any zoom
+            gc.drawImage(floatingImage, left, top, width, height);
+            gc.setStroke(OUTLINE_COLOR);
+            gc.setLineWidth(1);
+            gc.strokeRect(left + 0.5, top + 0.5, width - 1, height - 1);
+            canvas.addPreviewBounds(x, y, x + floating.width() - 1, y + floating.height() - 1);
+            return;
+        }
+        if (moveArmed) {
+            return;
+        }
+
+        switch (mode) {
+            case RECTANGLE -> {
+                int minX = Math.min(startX, endX);
+                int minY = Math.min(startY, endY);
+                int maxX = Math.max(startX, endX);
+                int maxY = Math.max(startY, endY);
+                double left = canvas.cellToViewX(minX);
+                double top = canvas.cellToViewY(minY);
+                gc.setFill(PREVIEW_COLOR);
+                gc.fillRect(left, top, canvas.cellToViewX(maxX + 1) - left, canvas.cellToViewY(maxY + 1) - top);
+                canvas.addPreviewBounds(minX, minY, maxX, maxY);
+            }
+            case LASSO -> {
+                // The outline so far, through cell centers and closed back to the start
+                double halfCell = canvas.getCellSize() / 2;
+                int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+                gc.setStroke(OUTLINE_COLOR);
+                gc.setLineWidth(1);
+                gc.beginPath();
+                for (int i = 0; i < lassoCount; i++) {
+                    int x = lasso[i * 2];
+                    int y = lasso[i * 2 + 1];
+                    double viewX = canvas.cellToViewX(x) + halfCell;
+                    double viewY = canvas.cellToViewY(y) + halfCell;
+                    if (i == 0) {
+                        gc.moveTo(viewX, viewY);
+                    } else {
+                        gc.lineTo(viewX, viewY);
+                    }
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                }
+                gc.closePath();
+                gc.stroke();
+                canvas.addPreviewBounds(minX, minY, maxX, maxY);
+            }
+            case MAGIC_WAND -> {
+                // Selected on press
+            }
+        }
+    }
+
+    @Override
+    protected void drawFinal(int startX, int startY, int endX, int endY) {
+        if (floating != null) {
+            canvas.dropClip(floating, floating.x() + endX - startX, floating.y() + endY - startY);
+            floating = null;
+            floatingImage = null;
+            moveArmed = false;
+            return;
+        }
+        if (moveArmed) {
+            moveArmed = false; // A click inside the selection keeps it
+            return;
+        }
+
+        int width = canvas.getCanvasWidth();
+        int height = canvas.getCanvasHeight();
+        switch (mode) {
+            case RECTANGLE -> canvas.setSelection(!dragged ? null : Selection.rectangle(width, height,
+                    Math.min(startX, endX), Math.min(startY, endY), Math.max(startX, endX), Math.max(startY, endY)));
+            case LASSO -> {
+                if (!dragged) {
+                    canvas.setSelection(null); // A click clears the selection
+                    return;
+                }
+                addLassoPoint(endX, endY);
+                spans.clear();
+                polygonRaster.fill(lasso, lassoCount, spans);
+                Selection region = new Selection(width, height);
+                region.addSpans(spans);
+                canvas.setSelection(region);
+            }
+            case MAGIC_WAND -> {
+                // Selected on press
+            }
+        }
+    }
+
+    private void addLassoPoint(int x, int y) {
+        int last = (lassoCount - 1) * 2;
+        if (lassoCount > 0 && lasso[last] == x && lasso[last + 1] == y) {
+            return;
+        }
+        if (lassoCount * 2 == lasso.length) {
+            lasso = Arrays.copyOf(lasso, lasso.length * 2);
+        }
+        lasso[lassoCount * 2] = x;
+        lasso[lassoCount * 2 + 1] = y;
+        lassoCount++;
+    }
+
+    // One cell per image pixel; scaled up when drawn
+    private static WritableImage toImage(PixelClip clip) {
+        WritableImage image = new WritableImage(clip.width(), clip.height());
+        image.getPixelWriter().setPixels(0, 0, clip.width(), clip.height(), PixelFormat.getIntArgbInstance(),
+                clip.pixels(), 0, clip.width());
+        return image;
+    }
+
+    @Override
+    public VBox createOptionsPanel() {
+        VBox optionsPanel = new VBox(10);
+        optionsPanel.setPadding(new Insets(10));
+        optionsPanel.setStyle("-fx-background-color: #3A3A3A; -fx-background-radius: 10; -fx-border-color: #555;");
+
+        // Mode
+        Label modeLabel = new Label("Mode:");
+        modeLabel.setTextFill(Color.WHITE);
+        ToggleGroup modeGroup = new ToggleGroup();
+        VBox modeButtons = new VBox(5);
+        for (SelectionMode selectionMode : SelectionMode.values()) {
+            RadioButton modeButton = new RadioButton(selectionMode.getLabel());
+            modeButton.setTextFill(Color.WHITE);
+            modeButton.setToggleGroup(modeGroup);
+            modeButton.setUserData(selectionMode);
+            modeButton.setSelected(selectionMode == mode);
+            modeButtons.getChildren().add(modeButton);
+        }
+
+        // Magic wand tolerance
+        Label toleranceLabel = new Label("Wand Tolerance: " + floodFill.getTolerance());
+        toleranceLabel.setTextFill(Color.WHITE);
+        Slider toleranceSlider = new Slider(0, 255, floodFill.getTolerance());
+        toleranceSlider.setShowTickMarks(true);
+        toleranceSlider.setShowTickLabels(true);
+        toleranceSlider.setMajorTickUnit(64);
+        toleranceSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
+            floodFill.setTolerance(newVal.intValue());
+            toleranceLabel.setText("Wand Tolerance: " + floodFill.getTolerance());
+        });
+        toleranceSlider.setDisable(mode != SelectionMode.MAGIC_WAND);
+
+        modeGroup.selectedToggleProperty().addListener((obs, oldToggle, newToggle) -> {
+            if (newToggle != null) {
+                mode = (SelectionMode) newToggle.getUserData();
+                toleranceSlider.setDisable(mode != SelectionMode.MAGIC_WAND);
+            }
+        });
+
+        // Clipboard and selection actions, also on the usual shortcuts
+        Button copyButton = createButton("Copy", canvas::copySelection);
+        Button cutButton = createButton("Cut", canvas::cutSelection);
+        Button pasteButton = createButton("Paste", canvas::paste);
+        Button deleteButton = createButton("Delete", canvas::deleteSelection);
+        Button selectAllButton = createButton("Select All", canvas::selectAll);
+        Button deselectButton = createButton("Deselect", () -> canvas.setSelection(null));
+
+        optionsPanel.getChildren().addAll(
+                modeLabel, modeButtons,
+                toleranceLabel, toleranceSlider,
+                new HBox(5, copyButton, cutButton, pasteButton),
+                new HBox(5, deleteButton, selectAllButton, deselectButton)
+        );
+        return optionsPanel;
+    }
+
+    private Button createButton(String text, Runnable action) {
+        Button button = new Button(text);
+        button.setStyle("-fx-background-color: #555; -fx-text-fill: #fff;");
+        button.setOnAction(e -> action.run());
+        return button;
+    }
+}
@@ -1,20 +1,33 @@
 package net.rytale.pixelart.utils;
 
-import java.util.logging.Logger;
+import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
+import java.util.logging.Handler;
+import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
 /**
  * Provides a logger for the application.
+ * <p>
+ * Records go to pixelart.log and the console through an {@link AsyncLogHandler}, so logging from
+ * the JavaFX thread never waits on I/O. Messages that are costly to build should be passed as a
+ * {@code Supplier<String>}, for example {@code logger.fine(() -> "Loaded " + name)}, so nothing is
+ * formatted when the level is disabled.
  */
 public class AppLogger {
+    private static final int BUFFER_CAPACITY = 4096; // Records held before new ones are dropped
     private static final Logger logger = Logger.getLogger(AppLogger.class.getName());
+    private static AsyncLogHandler asyncHandler;
 
     static {
         try {
             FileHandler fh = new FileHandler("pixelart.log", true);
             fh.setFormatter(new SimpleFormatter());
-            logger.addHandler(fh);
+            Handler console = new ConsoleHandler();
+            asyncHandler = new AsyncLogHandler(BUFFER_CAPACITY, fh, console);
+            logger.addHandler(asyncHandler);
+            logger.setUseParentHandlers(false); // The console is written by the async handler instead
+            Runtime.getRuntime().addShutdownHook(new Thread(asyncHandler::close, "log-shutdown"));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -23,4 +36,9 @@ public class AppLogger {
     public static Logger getLogger() {
         return logger;
     }
+
+    // Records dropped because logging outpaced the writer
+    public static long getDroppedCount() {
+        return asyncHandler != null ? asyncHandler.getDroppedCount() : 0;
+    }
 }
@@ -0,0 +1,122 @@
+package net.rytale.pixelart.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Hands log records to other handlers on a background thread.
+ * <p>
+ * {@link #publish} only puts the record into a bounded ring buffer and returns, so logging never
+ * waits for the disk or console; formatting and writing happen on the writer thread. When the
+ * buffer is full the record is dropped and counted rather than blocking the caller, and the writer
+ * reports how many were lost once it catches up.
+ * <p>
+ * Finding the calling class and method means walking the caller's stack, which costs far more than the
+ * rest of a log call, so it is not done: records show the logger's name as their source instead.
+ */
+public class AsyncLogHandler extends Handler {
+    private static final long CLOSE_TIMEOUT_MILLIS = 2000;
+
+    private final Handler[] targets;
+    private final BlockingQueue<LogRecord> buffer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+    private long droppedReported; // Only touched by the writer thread
+
+    public AsyncLogHandler(int capacity, Handler... targets) {
+        this.targets = targets.clone();
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        if (!buffer.offer(record)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    // Records lost because the buffer was full, since the handler was created
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void flush() {
+        // The writer flushes its targets whenever the buffer runs empty
+    }
+
+    // Write out everything still buffered, then close the targets
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler target : targets) {
+            target.close();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            LogRecord record;
+            try {
+                record = buffer.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                record = null;
+            }
+            if (record != null) {
+                write(record);
+                if (!buffer.isEmpty()) {
+                    continue;
+                }
+            }
+            reportDropped();
+            for (Handler target : targets) {
+                target.flush();
+            }
+            if (closed && buffer.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private void reportDropped() {
+        long total = dropped.get();
+        if (total > droppedReported) {
+            LogRecord record = new LogRecord(Level.WARNING, "Log buffer full, dropped " + (total - droppedReported) + " records");
+            record.setLoggerName(AsyncLogHandler.class.getName());
+            write(record);
+            droppedReported = total;
+        }
+    }
+
+    private void write(LogRecord record) {
+        for (Handler target : targets) {
+            try {
+                target.publish(record);
+            } catch (RuntimeException e) {
+                reportError("Log handler failed", e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+    }
+}
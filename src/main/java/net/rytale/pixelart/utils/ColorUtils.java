@@ -0,0 +1,24 @@
+package net.rytale.pixelart.utils;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Conversions between JavaFX colors and the packed ARGB ints used by the pixel model.
+ */
+public final class ColorUtils {
+
+    private ColorUtils() {
+    }
+
+    public static int toArgb(Color color) {
+        int a = (int) Math.round(color.getOpacity() * 255);
+        int r = (int) Math.round(color.getRed() * 255);
+        int g = (int) Math.round(color.getGreen() * 255);
+        int b = (int) Math.round(color.getBlue() * 255);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    public static Color toColor(int argb) {
+        return Color.rgb((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, ((argb >>> 24) & 0xFF) / 255.0);
+    }
+}
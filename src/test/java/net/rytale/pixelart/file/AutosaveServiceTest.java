@@ -0,0 +1,104 @@
+package net.rytale.pixelart.file;
+
+import net.rytale.pixelart.history.PixelDelta;
+import net.rytale.pixelart.layers.LayerStack;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AutosaveServiceTest {
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 80;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LayerStack layers = new LayerStack(WIDTH, HEIGHT);
+
+    @Test
+    public void eachProjectHasItsOwnDirectory() {
+        Path root = folder.getRoot().toPath();
+        Path first = root.resolve("a/art.rpxa");
+        Path second = root.resolve("b/art.rpxa");
+        assertNotEquals(AutosaveService.directoryFor(root, first), AutosaveService.directoryFor(root, second));
+        assertEquals(AutosaveService.directoryFor(root, first), AutosaveService.directoryFor(root, root.resolve("a/../a/art.rpxa")));
+        assertEquals(root.resolve("untitled"), AutosaveService.directoryFor(root, null));
+    }
+
+    @Test
+    public void unsavedEditsAreRecovered() throws Exception {
+        Path root = folder.getRoot().toPath();
+        AutosaveService autosave = newService(root);
+        assertNull(autosave.open(null));
+        autosave.reset();
+        PixelDelta delta = new PixelDelta(WIDTH);
+        delta.record(3, 4, 0, 0xFF112233);
+        autosave.pixelsChanged(delta, 0, false);
+        autosave.close();
+
+        AutosaveService next = newService(root);
+        ProjectFile recovered = next.open(null);
+        next.close();
+        assertNotNull(recovered);
+        assertEquals(0xFF112233, recovered.layers().getLayer(0).getPixels().getPixel(3, 4));
+    }
+
+    @Test
+    public void savedWorkIsNotOffered() {
+        Path root = folder.getRoot().toPath();
+        AutosaveService autosave = newService(root);
+        autosave.open(null);
+        autosave.reset();
+        autosave.close();
+
+        AutosaveService next = newService(root);
+        assertNull(next.open(null));
+        next.close();
+    }
+
+    @Test
+    public void secondInstanceUsesAnotherDirectory() {
+        Path root = folder.getRoot().toPath();
+        AutosaveService first = newService(root);
+        AutosaveService second = newService(root);
+        first.open(null);
+        second.open(null);
+        first.reset();
+        second.reset();
+        first.close();
+        second.close();
+
+        assertTrue(Files.exists(root.resolve("untitled/checkpoint-0.rpxa")));
+        assertTrue(Files.exists(root.resolve("untitled-1/checkpoint-0.rpxa")));
+    }
+
+    @Test
+    public void saveWritesTheProjectAndMovesItsAutosave() throws Exception {
+        Path root = folder.getRoot().toPath().resolve("autosave");
+        Path project = folder.getRoot().toPath().resolve("art.rpxa");
+        layers.getLayer(0).getPixels().setPixel(WIDTH - 1, HEIGHT - 1, 0xFF445566);
+        AutosaveService autosave = newService(root);
+        autosave.open(null);
+        autosave.reset();
+        autosave.save(project).get();
+        autosave.close();
+
+        assertEquals(0xFF445566, ProjectFormat.read(project).layers().getLayer(0).getPixels().getPixel(WIDTH - 1, HEIGHT - 1));
+        assertFalse(Files.exists(root.resolve("untitled/checkpoint-0.rpxa")));
+        assertTrue(Files.exists(AutosaveService.directoryFor(root, project).resolve("checkpoint-0.rpxa")));
+    }
+
+    private AutosaveService newService(Path root) {
+        return new AutosaveService(root, () -> new ProjectFile(layers.copy(), 16, 0));
+    }
+}
@@ -0,0 +1,112 @@
+package net.rytale.pixelart.file;
+
+import net.rytale.pixelart.history.PixelDelta;
+import net.rytale.pixelart.layers.BlendMode;
+import net.rytale.pixelart.layers.Layer;
+import net.rytale.pixelart.layers.LayerStack;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EditJournalTest {
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 80;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void entriesReplayInOrder() throws IOException {
+        PixelDelta line = horizontalLine(10, 0xFF00FF00);
+        Path journal = write(EditJournal.header(), EditJournal.encodeMark(),
+                EditJournal.encodeRuns(line, 0, false),
+                EditJournal.encodeLayer(0, false, 0.25, BlendMode.SCREEN),
+                EditJournal.encodeRuns(line, 0, true)); // Undone again
+
+        LayerStack layers = new LayerStack(WIDTH, HEIGHT);
+        assertEquals(4, EditJournal.replay(journal, layers));
+        Layer layer = layers.getLayer(0);
+        for (int x = 0; x < WIDTH; x++) {
+            assertEquals(0, layer.getPixels().getPixel(x, 10));
+        }
+        assertFalse(layer.isVisible());
+        assertEquals(0.25, layer.getOpacity(), 1e-6);
+        assertEquals(BlendMode.SCREEN, layer.getBlendMode());
+    }
+
+    @Test
+    public void tornTailIsIgnored() throws IOException {
+        ByteBuffer first = EditJournal.encodeRuns(horizontalLine(10, 0xFF00FF00), 0, false);
+        ByteBuffer second = EditJournal.encodeRuns(horizontalLine(20, 0xFFFF0000), 0, false);
+        byte[] complete = bytes(EditJournal.header(), first);
+        byte[] full = bytes(EditJournal.header(), first, second);
+
+        // Every length a crash during the second append could leave behind
+        for (int length = complete.length; length < full.length; length++) {
+            Path journal = folder.getRoot().toPath().resolve("torn-" + length + ".rpxj");
+            Files.write(journal, Arrays.copyOf(full, length));
+            LayerStack layers = new LayerStack(WIDTH, HEIGHT);
+            assertEquals(1, EditJournal.replay(journal, layers));
+            assertEquals(0xFF00FF00, layers.getLayer(0).getPixels().getPixel(5, 10));
+            assertEquals(0, layers.getLayer(0).getPixels().getPixel(5, 20));
+        }
+    }
+
+    @Test
+    public void corruptEntryStopsReplay() throws IOException {
+        ByteBuffer first = EditJournal.encodeRuns(horizontalLine(10, 0xFF00FF00), 0, false);
+        ByteBuffer second = EditJournal.encodeRuns(horizontalLine(20, 0xFFFF0000), 0, false);
+        ByteBuffer third = EditJournal.encodeRuns(horizontalLine(30, 0xFF0000FF), 0, false);
+        byte[] data = bytes(EditJournal.header(), first, second, third);
+        data[EditJournal.HEADER_SIZE + first.remaining() + 12] ^= 0x01; // Flip a bit in the second payload
+        Path journal = folder.getRoot().toPath().resolve("corrupt.rpxj");
+        Files.write(journal, data);
+
+        LayerStack layers = new LayerStack(WIDTH, HEIGHT);
+        assertEquals(1, EditJournal.replay(journal, layers));
+        assertEquals(0, layers.getLayer(0).getPixels().getPixel(5, 30)); // Nothing after the damage
+    }
+
+    @Test
+    public void headerOnlyHasNoEntries() throws IOException {
+        Path journal = write(EditJournal.header());
+        assertFalse(EditJournal.hasEntries(journal));
+        assertTrue(EditJournal.hasEntries(write(EditJournal.header(), EditJournal.encodeMark())));
+    }
+
+    private static PixelDelta horizontalLine(int y, int argb) {
+        PixelDelta delta = new PixelDelta(WIDTH);
+        for (int x = 0; x < WIDTH; x++) {
+            delta.record(x, y, 0, argb);
+        }
+        return delta;
+    }
+
+    private Path write(ByteBuffer... entries) throws IOException {
+        Path journal = folder.newFile().toPath();
+        Files.write(journal, bytes(entries));
+        return journal;
+    }
+
+    private static byte[] bytes(ByteBuffer... entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ByteBuffer entry : entries) {
+            ByteBuffer view = entry.duplicate();
+            byte[] data = new byte[view.remaining()];
+            view.get(data);
+            out.writeBytes(data);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,113 @@
+package net.rytale.pixelart.file;
+
+import net.rytale.pixelart.layers.PixelBuffer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class PngExporterTest {
+    private static final int WIDTH = 70;
+    private static final int HEIGHT = 45;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void decodesToTheSamePixelsAtEveryScale() throws IOException {
+        PixelBuffer image = sampleImage();
+        PngExporter exporter = new PngExporter();
+        for (int scale : new int[]{1, 3, 8}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            exporter.write(image, scale, out);
+            assertScaledCopy(image, scale, ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+        }
+    }
+
+    @Test
+    public void everyCompressionLevelDecodes() throws IOException {
+        PixelBuffer image = sampleImage();
+        PngExporter exporter = new PngExporter();
+        for (int level = 0; level <= 9; level++) {
+            exporter.setCompressionLevel(level);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            exporter.write(image, 3, out);
+            assertScaledCopy(image, 3, ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+        }
+    }
+
+    @Test
+    public void exportReplacesTheTarget() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("art.png");
+        Files.write(path, new byte[]{1, 2, 3});
+        PixelBuffer image = sampleImage();
+        new PngExporter().export(image, 2, path);
+
+        assertScaledCopy(image, 2, ImageIO.read(path.toFile()));
+        assertEquals(1, countFiles()); // No temporary file left behind
+    }
+
+    @Test
+    public void failedExportLeavesNoTemporaryFile() throws IOException {
+        Path path = folder.newFolder("art.png").toPath();
+        Files.write(path.resolve("inside"), new byte[]{1}); // A non-empty directory cannot be replaced
+        PngExporter exporter = new PngExporter();
+
+        assertThrows(IOException.class, () -> exporter.export(sampleImage(), 1, path));
+        assertThrows(IllegalArgumentException.class, () -> exporter.export(sampleImage(), 0, path.resolveSibling("other.png")));
+        assertEquals(1, countFiles());
+    }
+
+    // Random opaque and translucent colors with unpainted cells between them
+    private static PixelBuffer sampleImage() {
+        PixelBuffer image = new PixelBuffer(WIDTH, HEIGHT);
+        Random random = new Random(12);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                switch (random.nextInt(3)) {
+                    case 0 -> image.setPixel(x, y, 0xFF000000 | random.nextInt(0x1000000));
+                    case 1 -> image.setPixel(x, y, random.nextInt() | 0x01000000);
+                    default -> {
+                        // Left transparent
+                    }
+                }
+            }
+        }
+        return image;
+    }
+
+    private static void assertScaledCopy(PixelBuffer image, int scale, BufferedImage decoded) {
+        assertEquals(WIDTH * scale, decoded.getWidth());
+        assertEquals(HEIGHT * scale, decoded.getHeight());
+        for (int y = 0; y < decoded.getHeight(); y++) {
+            for (int x = 0; x < decoded.getWidth(); x++) {
+                int expected = image.getPixel(x / scale, y / scale);
+                if (decoded.getRGB(x, y) != expected) {
+                    assertEquals("pixel " + x + "," + y + " at " + scale + "x",
+                            Integer.toHexString(expected), Integer.toHexString(decoded.getRGB(x, y)));
+                }
+            }
+        }
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            long count = files.count();
+            assertTrue(count > 0);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package net.rytale.pixelart.file;
+
+import net.rytale.pixelart.layers.BlendMode;
+import net.rytale.pixelart.layers.Layer;
+import net.rytale.pixelart.layers.LayerStack;
+import net.rytale.pixelart.layers.PixelBuffer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ProjectFormatTest {
+    private static final int TILE_SIZE = PixelBuffer.TILE_SIZE;
+    private static final int HEADER_SIZE = 36;
+    private static final int TILE_CHUNK_HEADER_SIZE = 13;
+
+    // Tile contents that pick each encoding: raw, raw + deflate, runs, runs + deflate
+    private static final IntUnaryOperator NOISE = noise();
+    private static final IntUnaryOperator REPEATING = cell -> 0xFF000000 | (cell % 7);
+    private static final IntUnaryOperator BANDS = cell -> cell < 2048 ? 0xFFFF0000 : 0xFF0000FF;
+    private static final IntUnaryOperator STRIPES = cell -> (cell / 8) % 2 == 0 ? 0xFF00FF00 : 0xFFFFFFFF;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void tilesPickEveryEncoding() {
+        assertEquals(0, encodingOf(NOISE));
+        assertEquals(ProjectFormat.ENCODING_DEFLATE, encodingOf(REPEATING));
+        assertEquals(ProjectFormat.ENCODING_RLE, encodingOf(BANDS));
+        assertEquals(ProjectFormat.ENCODING_RLE | ProjectFormat.ENCODING_DEFLATE, encodingOf(STRIPES));
+    }
+
+    @Test
+    public void roundTripKeepsEveryEncoding() throws IOException {
+        Layer first = new Layer("Layer 1", new PixelBuffer(4 * TILE_SIZE, TILE_SIZE));
+        paintTile(first.getPixels(), 0, 0, NOISE);
+        paintTile(first.getPixels(), 1, 0, REPEATING);
+        paintTile(first.getPixels(), 2, 0, BANDS);
+        paintTile(first.getPixels(), 3, 0, STRIPES);
+        Layer second = new Layer("Ebene 2 \u00fc", new PixelBuffer(4 * TILE_SIZE, TILE_SIZE));
+        paintTile(second.getPixels(), 1, 0, STRIPES);
+        second.setVisible(false);
+        second.setOpacity(0.5);
+        second.setBlendMode(BlendMode.MULTIPLY);
+        LayerStack layers = new LayerStack(4 * TILE_SIZE, TILE_SIZE, List.of(first, second));
+        layers.setActiveIndex(1);
+
+        ProjectFile read = roundTrip(new ProjectFile(layers, 12, 0xFF336699));
+
+        assertEquals(12, read.gridSize());
+        assertEquals(0xFF336699, read.backgroundColor());
+        assertEquals(1, read.layers().getActiveIndex());
+        assertSameLayers(layers, read.layers());
+    }
+
+    @Test
+    public void emptyTilesAreNotStored() throws IOException {
+        Layer empty = new Layer("Empty", new PixelBuffer(300, 200));
+        Layer erased = new Layer("Erased", new PixelBuffer(300, 200));
+        erased.getPixels().setPixel(100, 100, 0xFF123456);
+        erased.getPixels().setPixel(100, 100, PixelBuffer.TRANSPARENT); // Allocated but blank
+        Layer single = new Layer("Single", new PixelBuffer(300, 200));
+        single.getPixels().setPixel(299, 199, 0xFF123456);
+        LayerStack layers = new LayerStack(300, 200, List.of(empty, erased, single));
+
+        ProjectFile read = roundTrip(new ProjectFile(layers, 8, 0));
+
+        assertEquals(0, read.layers().getLayer(0).getPixels().getPaintedTileCount());
+        assertEquals(0, read.layers().getLayer(1).getPixels().getPaintedTileCount());
+        assertEquals(1, read.layers().getLayer(2).getPixels().getPaintedTileCount());
+        assertSameLayers(layers, read.layers());
+    }
+
+    @Test
+    public void sizesThatAreNotTileMultiplesRoundTrip() throws IOException {
+        int[][] sizes = {{1, 1}, {70, 40}, {63, 65}, {129, 200}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            Layer layer = new Layer("Layer 1", new PixelBuffer(width, height));
+            Random random = new Random(width * 31 + height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (random.nextInt(3) == 0) {
+                        layer.getPixels().setPixel(x, y, 0xFF000000 | random.nextInt(4));
+                    }
+                }
+            }
+            layer.getPixels().setPixel(width - 1, height - 1, 0xFFFFFFFF); // Last cell of the partial edge tile
+            LayerStack layers = new LayerStack(width, height, List.of(layer));
+
+            ProjectFile read = roundTrip(new ProjectFile(layers, 16, 0));
+
+            assertEquals(width, read.width());
+            assertEquals(height, read.height());
+            assertSameLayers(layers, read.layers());
+        }
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("truncated.rpxa");
+        ProjectFormat.write(path, sampleProject());
+        byte[] data = Files.readAllBytes(path);
+
+        for (int length = 0; length < data.length; length += Math.max(1, length / 4)) {
+            Files.write(path, Arrays.copyOf(data, length));
+            assertThrows("length " + length, IOException.class, () -> ProjectFormat.read(path));
+        }
+        Files.write(path, Arrays.copyOf(data, data.length - 1));
+        assertThrows(IOException.class, () -> ProjectFormat.read(path));
+    }
+
+    @Test
+    public void corruptChunkIsRejected() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("corrupt.rpxa");
+        ProjectFormat.write(path, sampleProject());
+        byte[] data = Files.readAllBytes(path);
+        int chunk = HEADER_SIZE + 2 + "Layer 1".getBytes(StandardCharsets.UTF_8).length + 1 + 1 + 4 + 4;
+        assertEquals(ProjectFormat.ENCODING_RLE | ProjectFormat.ENCODING_DEFLATE, data[chunk + 4]);
+
+        byte[] garbled = data.clone();
+        Arrays.fill(garbled, chunk + TILE_CHUNK_HEADER_SIZE, chunk + TILE_CHUNK_HEADER_SIZE + 8, (byte) 0xFF);
+        Files.write(path, garbled);
+        assertThrows(IOException.class, () -> ProjectFormat.read(path));
+
+        byte[] overlong = data.clone();
+        overlong[chunk + 5] = 0x7F; // Stored length runs past the end of the file
+        Files.write(path, overlong);
+        assertThrows(IOException.class, () -> ProjectFormat.read(path));
+
+        byte[] badIndex = data.clone();
+        badIndex[chunk] = 0x7F; // Tile index outside the canvas
+        Files.write(path, badIndex);
+        assertThrows(IOException.class, () -> ProjectFormat.read(path));
+    }
+
+    @Test
+    public void otherFilesAreRejected() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("image.png");
+        Files.write(path, new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        assertThrows(IOException.class, () -> ProjectFormat.read(path));
+    }
+
+    // One layer whose only tile is stored as deflated runs
+    private static ProjectFile sampleProject() {
+        Layer layer = new Layer("Layer 1", new PixelBuffer(100, 80));
+        paintTile(layer.getPixels(), 0, 0, STRIPES);
+        return new ProjectFile(new LayerStack(100, 80, List.of(layer)), 16, 0);
+    }
+
+    private ProjectFile roundTrip(ProjectFile project) throws IOException {
+        Path path = folder.getRoot().toPath().resolve("project.rpxa");
+        ProjectFormat.write(path, project);
+        assertTrue(Files.notExists(path.resolveSibling("project.rpxa.tmp")));
+        return ProjectFormat.read(path);
+    }
+
+    private static int encodingOf(IntUnaryOperator content) {
+        int[] tile = new int[TILE_SIZE * TILE_SIZE];
+        Arrays.setAll(tile, content::applyAsInt);
+        return ProjectFormat.encodeTile(0, tile)[4];
+    }
+
+    // Cells of the tile that fall outside the buffer are left alone
+    private static void paintTile(PixelBuffer pixels, int tileX, int tileY, IntUnaryOperator content) {
+        for (int cell = 0; cell < TILE_SIZE * TILE_SIZE; cell++) {
+            int x = tileX * TILE_SIZE + cell % TILE_SIZE;
+            int y = tileY * TILE_SIZE + cell / TILE_SIZE;
+            if (pixels.contains(x, y)) {
+                pixels.setPixel(x, y, content.applyAsInt(cell));
+            }
+        }
+    }
+
+    private static IntUnaryOperator noise() {
+        int[] cells = new Random(7).ints(TILE_SIZE * TILE_SIZE).toArray();
+        return cell -> cells[cell];
+    }
+
+    private static void assertSameLayers(LayerStack expected, LayerStack actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Layer want = expected.getLayer(i);
+            Layer got = actual.getLayer(i);
+            assertEquals(want.getName(), got.getName());
+            assertEquals(want.isVisible(), got.isVisible());
+            assertEquals(want.getOpacity(), got.getOpacity(), 1e-6);
+            assertEquals(want.getBlendMode(), got.getBlendMode());
+            assertArrayEquals(snapshot(want.getPixels()), snapshot(got.getPixels()));
+        }
+    }
+
+    private static int[] snapshot(PixelBuffer pixels) {
+        int[] cells = new int[pixels.getWidth() * pixels.getHeight()];
+        pixels.copyRegion(0, 0, pixels.getWidth(), pixels.getHeight(), cells, 0, pixels.getWidth());
+        return cells;
+    }
+}
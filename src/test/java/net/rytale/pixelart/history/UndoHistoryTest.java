@@ -0,0 +1,159 @@
+package net.rytale.pixelart.history;
+
+import net.rytale.pixelart.layers.Layer;
+import net.rytale.pixelart.layers.PixelBuffer;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UndoHistoryTest {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 250; // 100,000 cells
+
+    @Test
+    public void undoAndRedoOfLargeFillRestoreEveryCell() {
+        Layer layer = new Layer("Layer 1", new PixelBuffer(WIDTH, HEIGHT));
+        PixelBuffer pixels = layer.getPixels();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            pixels.setPixel(random.nextInt(WIDTH), random.nextInt(HEIGHT), 0xFF000000 | random.nextInt());
+        }
+        int[] before = snapshot(pixels);
+
+        UndoHistory history = new UndoHistory();
+        history.begin(layer, WIDTH);
+        fill(pixels, history.getCurrent(), 0xFF00FF00);
+        PixelDelta delta = history.end();
+        assertNotNull(delta);
+        assertEquals((long) WIDTH * HEIGHT - countColor(before, 0xFF00FF00), delta.getCellCount());
+        int[] after = snapshot(pixels);
+
+        assertSame(delta, history.undo());
+        delta.revert(pixels);
+        assertArrayEquals(before, snapshot(pixels));
+
+        assertSame(delta, history.redo());
+        delta.reapply(pixels);
+        assertArrayEquals(after, snapshot(pixels));
+    }
+
+    @Test
+    public void uniformFillIsStoredAsRuns() {
+        Layer layer = new Layer("Layer 1", new PixelBuffer(WIDTH, HEIGHT));
+        UndoHistory history = new UndoHistory();
+        history.begin(layer, WIDTH);
+        fill(layer.getPixels(), history.getCurrent(), 0xFFFF0000);
+        PixelDelta delta = history.end();
+        assertEquals(1, delta.getRunCount()); // Rows continue into each other
+        assertEquals((long) WIDTH * HEIGHT, delta.getCellCount());
+    }
+
+    @Test
+    public void evictionDropsOldestEditsButKeepsTheNewest() {
+        Layer layer = new Layer("Layer 1", new PixelBuffer(WIDTH, HEIGHT));
+        UndoHistory history = new UndoHistory();
+        PixelDelta last = null;
+        for (int i = 0; i < 10; i++) {
+            last = recordDiagonal(history, layer, i);
+        }
+        long perEdit = last.getMemoryUsage();
+        history.setMemoryLimit(perEdit * 3);
+        assertTrue(history.getMemoryUsed() <= perEdit * 3);
+
+        int undone = 0;
+        while (history.undo() != null) {
+            undone++;
+        }
+        assertEquals(3, undone);
+
+        assertNotNull(history.redo());
+        history.setMemoryLimit(0);
+        assertFalse(history.canRedo()); // Redo entries are evicted first
+        assertNotNull(history.undo()); // The newest step always survives
+        assertNull(history.undo());
+    }
+
+    @Test
+    public void continuedEditsAreEvictedAsOneStep() {
+        Layer first = new Layer("Layer 1", new PixelBuffer(WIDTH, HEIGHT));
+        Layer second = new Layer("Layer 2", new PixelBuffer(WIDTH, HEIGHT));
+        UndoHistory history = new UndoHistory();
+        history.begin(first, WIDTH);
+        history.getCurrent().record(0, 0, 0, 1);
+        history.end();
+        history.begin(second, WIDTH, true);
+        history.getCurrent().record(0, 0, 0, 1);
+        history.end();
+
+        history.setMemoryLimit(0);
+        PixelDelta newest = history.undo();
+        assertTrue(newest.isContinued());
+        assertNotNull(history.undo()); // The start of the step was not evicted on its own
+        assertNull(history.undo());
+    }
+
+    @Test
+    public void removingALayerDropsItsEdits() {
+        Layer kept = new Layer("Kept", new PixelBuffer(WIDTH, HEIGHT));
+        Layer removed = new Layer("Removed", new PixelBuffer(WIDTH, HEIGHT));
+        UndoHistory history = new UndoHistory();
+        recordDiagonal(history, kept, 0);
+        history.begin(removed, WIDTH);
+        history.getCurrent().record(1, 1, 0, 1);
+        history.end();
+        history.begin(kept, WIDTH, true); // Continues the edit on the removed layer
+        history.getCurrent().record(2, 2, 0, 1);
+        history.end();
+
+        history.removeLayer(removed);
+        PixelDelta newest = history.undo();
+        assertSame(kept, newest.getLayer());
+        assertFalse(newest.isContinued()); // Now starts its own step
+        assertSame(kept, history.undo().getLayer());
+        assertNull(history.undo());
+    }
+
+    private static PixelDelta recordDiagonal(UndoHistory history, Layer layer, int offset) {
+        history.begin(layer, WIDTH);
+        for (int i = 0; i < 100; i++) {
+            history.getCurrent().record(i + offset, i, 0, 0xFF000000 | i); // One run per cell
+        }
+        return history.end();
+    }
+
+    private static void fill(PixelBuffer pixels, PixelDelta delta, int argb) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int old = pixels.getPixel(x, y);
+                if (old != argb) {
+                    delta.record(x, y, old, argb);
+                }
+            }
+            pixels.fillSpan(y, 0, WIDTH - 1, argb);
+        }
+    }
+
+    private static int[] snapshot(PixelBuffer pixels) {
+        int[] cells = new int[pixels.getWidth() * pixels.getHeight()];
+        pixels.copyRegion(0, 0, pixels.getWidth(), pixels.getHeight(), cells, 0, pixels.getWidth());
+        return cells;
+    }
+
+    private static long countColor(int[] cells, int argb) {
+        long count = 0;
+        for (int cell : cells) {
+            if (cell == argb) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,76 @@
+package net.rytale.pixelart.layers;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class PixelBufferTest {
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 100;
+
+    @Test
+    public void copySharesTilesUntilWritten() {
+        PixelBuffer pixels = painted(1);
+        PixelBuffer copy = pixels.copy();
+        assertSame(pixels.getTile(1, 0), copy.getTile(1, 0));
+
+        int[] writable = pixels.getWritableTile(1, 0);
+        assertNotSame(copy.getTile(1, 0), writable);
+        assertSame(writable, pixels.getWritableTile(1, 0)); // Cloned only once
+        assertArrayEquals(copy.getTile(1, 0), writable);
+    }
+
+    @Test
+    public void writesToEitherSideStayThere() {
+        PixelBuffer pixels = painted(2);
+        int[] before = snapshot(pixels);
+        PixelBuffer copy = pixels.copy();
+
+        // Every write path, on the original
+        pixels.setPixel(0, 0, 0xFF010203);
+        pixels.fillSpan(70, 0, WIDTH - 1, 0xFF040506);
+        pixels.writeRegion(60, 60, 10, 10, new int[100], 0, 10);
+        pixels.getWritableTile(2, 1)[0] = 0xFF070809;
+        assertArrayEquals(before, snapshot(copy));
+
+        // And on the copy
+        int[] edited = snapshot(pixels);
+        copy.setPixel(WIDTH - 1, HEIGHT - 1, 0xFF0A0B0C);
+        copy.fillSpan(10, 0, WIDTH - 1, 0xFF0D0E0F);
+        copy.clear();
+        assertArrayEquals(edited, snapshot(pixels));
+    }
+
+    @Test
+    public void copyOfACopyIsIndependent() {
+        PixelBuffer pixels = painted(3);
+        PixelBuffer first = pixels.copy();
+        PixelBuffer second = first.copy();
+        first.setPixel(5, 5, 0xFFFFFFFF);
+        second.setPixel(5, 5, 0xFF000001);
+        pixels.setPixel(5, 5, 0xFF000002);
+        assertEquals(0xFFFFFFFF, first.getPixel(5, 5));
+        assertEquals(0xFF000001, second.getPixel(5, 5));
+        assertEquals(0xFF000002, pixels.getPixel(5, 5));
+    }
+
+    private static PixelBuffer painted(long seed) {
+        PixelBuffer pixels = new PixelBuffer(WIDTH, HEIGHT);
+        Random random = new Random(seed);
+        for (int i = 0; i < 3000; i++) {
+            pixels.setPixel(random.nextInt(WIDTH), random.nextInt(HEIGHT), 0xFF000000 | random.nextInt());
+        }
+        return pixels;
+    }
+
+    private static int[] snapshot(PixelBuffer pixels) {
+        int[] cells = new int[pixels.getWidth() * pixels.getHeight()];
+        pixels.copyRegion(0, 0, pixels.getWidth(), pixels.getHeight(), cells, 0, pixels.getWidth());
+        return cells;
+    }
+}